@@ -0,0 +1,84 @@
+package org.jokar.permissiondispatcher.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minimal stand-ins for the Android framework, support library and runtime library classes
+ * that annotated sources and generated dispatchers refer to. They only need to resolve,
+ * never to run.
+ */
+final class AndroidStubs {
+
+    /**
+     * Source of every stub, keyed by binary class name.
+     */
+    static final Map<String, String> SOURCES = new LinkedHashMap<>();
+
+    static {
+        SOURCES.put("android.content.Context",
+                "package android.content;\n"
+                        + "public class Context {\n"
+                        + "    public String getPackageName() { return null; }\n"
+                        + "}\n");
+        SOURCES.put("android.content.Intent",
+                "package android.content;\n"
+                        + "public class Intent {\n"
+                        + "    public Intent(String action, android.net.Uri uri) {}\n"
+                        + "}\n");
+        SOURCES.put("android.net.Uri",
+                "package android.net;\n"
+                        + "public class Uri {\n"
+                        + "    public static Uri parse(String uri) { return null; }\n"
+                        + "}\n");
+        SOURCES.put("android.provider.Settings",
+                "package android.provider;\n"
+                        + "public class Settings {\n"
+                        + "    public static final String ACTION_MANAGE_OVERLAY_PERMISSION = \"\";\n"
+                        + "    public static final String ACTION_MANAGE_WRITE_SETTINGS = \"\";\n"
+                        + "    public static boolean canDrawOverlays(android.content.Context context) { return false; }\n"
+                        + "    public static class System {\n"
+                        + "        public static boolean canWrite(android.content.Context context) { return false; }\n"
+                        + "    }\n"
+                        + "}\n");
+        SOURCES.put("android.app.Activity",
+                "package android.app;\n"
+                        + "public class Activity extends android.content.Context {\n"
+                        + "    public void startActivityForResult(android.content.Intent intent, int requestCode) {}\n"
+                        + "}\n");
+        SOURCES.put("android.support.v4.app.Fragment",
+                "package android.support.v4.app;\n"
+                        + "public class Fragment {\n"
+                        + "    public android.app.Activity getActivity() { return null; }\n"
+                        + "    public void requestPermissions(String[] permissions, int requestCode) {}\n"
+                        + "    public void startActivityForResult(android.content.Intent intent, int requestCode) {}\n"
+                        + "}\n");
+        SOURCES.put("android.support.v4.app.ActivityCompat",
+                "package android.support.v4.app;\n"
+                        + "public class ActivityCompat {\n"
+                        + "    public static void requestPermissions(android.app.Activity activity, String[] permissions, int requestCode) {}\n"
+                        + "}\n");
+        SOURCES.put("org.jokar.permissiondispatcher.library.PermissionRequest",
+                "package org.jokar.permissiondispatcher.library;\n"
+                        + "public interface PermissionRequest {\n"
+                        + "    void proceed();\n"
+                        + "    void cancel();\n"
+                        + "}\n");
+        SOURCES.put("org.jokar.permissiondispatcher.library.GrantableRequest",
+                "package org.jokar.permissiondispatcher.library;\n"
+                        + "public interface GrantableRequest extends PermissionRequest {\n"
+                        + "    void grant();\n"
+                        + "}\n");
+        SOURCES.put("org.jokar.permissiondispatcher.library.PermissionUtils",
+                "package org.jokar.permissiondispatcher.library;\n"
+                        + "public class PermissionUtils {\n"
+                        + "    public static boolean verifyPermissions(int... grantResults) { return false; }\n"
+                        + "    public static boolean hasSelfPermissions(android.content.Context context, String... permissions) { return false; }\n"
+                        + "    public static boolean shouldShowRequestPermissionRationale(android.app.Activity activity, String... permissions) { return false; }\n"
+                        + "    public static int getTargetSdkVersion(android.content.Context context) { return 0; }\n"
+                        + "}\n");
+    }
+
+    private AndroidStubs() {
+    }
+}
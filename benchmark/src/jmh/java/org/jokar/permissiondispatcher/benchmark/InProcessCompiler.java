@@ -0,0 +1,171 @@
+package org.jokar.permissiondispatcher.benchmark;
+
+import org.jokar.permissiondispatcher.processor.PermissionsProcessor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Runs {@link PermissionsProcessor} through the system javac, entirely in memory.
+ * <p>
+ * Sources are read from strings and everything the processor writes through the {@code Filer}
+ * is kept in memory, so the measurements are not skewed by disk I/O.
+ */
+final class InProcessCompiler {
+
+    private final JavaCompiler compiler;
+    private final List<String> options;
+
+    private InProcessCompiler(JavaCompiler compiler, List<String> options) {
+        this.compiler = compiler;
+        this.options = options;
+    }
+
+    /**
+     * Compiles {@link AndroidStubs} into {@code stubsDir} and returns a compiler that has
+     * them on its classpath.
+     */
+    static InProcessCompiler create(File stubsDir, String... processorOptions) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No system Java compiler, the benchmarks need a JDK");
+        }
+        if (!stubsDir.isDirectory() && !stubsDir.mkdirs()) {
+            throw new IOException("Can't create " + stubsDir);
+        }
+        List<JavaFileObject> stubs = new ArrayList<>();
+        for (Map.Entry<String, String> stub : AndroidStubs.SOURCES.entrySet()) {
+            stubs.add(new SourceFile(stub.getKey(), stub.getValue()));
+        }
+        run(compiler, compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8),
+                Arrays.asList("-proc:none", "-d", stubsDir.getPath()), stubs);
+
+        List<String> options = new ArrayList<>();
+        options.add("-proc:only");
+        options.add("-classpath");
+        options.add(stubsDir.getPath() + File.pathSeparator + System.getProperty("java.class.path"));
+        for (String processorOption : processorOptions) {
+            options.add("-A" + processorOption);
+        }
+        return new InProcessCompiler(compiler, Collections.unmodifiableList(options));
+    }
+
+    /**
+     * Runs a full annotation-processing pass over the sources.
+     *
+     * @return the number of files written by the processor
+     */
+    int process(List<JavaFileObject> sources) {
+        MemoryFileManager fileManager = new MemoryFileManager(
+                compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8));
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, sources);
+        task.setProcessors(Collections.singletonList(new PermissionsProcessor()));
+        check(task, diagnostics);
+        return fileManager.outputs;
+    }
+
+    static JavaFileObject source(String className, String source) {
+        return new SourceFile(className, source);
+    }
+
+    private static void run(JavaCompiler compiler, StandardJavaFileManager fileManager,
+                            List<String> options, List<JavaFileObject> sources) {
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        check(compiler.getTask(null, fileManager, diagnostics, options, null, sources), diagnostics);
+    }
+
+    private static void check(JavaCompiler.CompilationTask task, DiagnosticCollector<JavaFileObject> diagnostics) {
+        if (!Boolean.TRUE.equals(task.call())) {
+            StringBuilder message = new StringBuilder("Compilation failed");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                message.append('\n').append(diagnostic);
+            }
+            throw new IllegalStateException(message.toString());
+        }
+    }
+
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    private static final class OutputFile extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        OutputFile(String name, Kind kind) {
+            super(URI.create("mem:///" + name), kind);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            content.reset();
+            return content;
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(content.toByteArray());
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return new String(content.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        int outputs;
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            outputs++;
+            return new OutputFile(className.replace('.', '/') + kind.extension, kind);
+        }
+
+        @Override
+        public FileObject getFileForOutput(Location location, String packageName,
+                                           String relativeName, FileObject sibling) {
+            outputs++;
+            String path = packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + '/' + relativeName;
+            return new OutputFile(location == StandardLocation.CLASS_OUTPUT ? path : location.getName() + '/' + path,
+                    JavaFileObject.Kind.OTHER);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.jokar.permissiondispatcher.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * Measures a full annotation-processing pass of {@code PermissionsProcessor} over
+ * {@code classCount} synthetic classes with {@code methodCount} {@code @NeedsPermission}
+ * methods each.
+ * <p>
+ * Throughput is in passes per second; run with {@code -prof gc} for allocation and with
+ * {@link PeakHeapProfiler} for peak heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ProcessorBenchmark {
+
+    @Param({"1", "100", "1000", "5000"})
+    public int classCount;
+
+    @Param({"1", "10", "50"})
+    public int methodCount;
+
+    private File stubsDir;
+    private InProcessCompiler compiler;
+    private List<JavaFileObject> sources;
+
+    @Setup
+    public void setUp() throws IOException {
+        stubsDir = Files.createTempDirectory("permissiondispatcher-stubs").toFile();
+        compiler = InProcessCompiler.create(stubsDir);
+        sources = new ArrayList<>(classCount);
+        for (int i = 0; i < classCount; i++) {
+            sources.add(InProcessCompiler.source(SyntheticSources.PACKAGE + "." + SyntheticSources.className(i),
+                    SyntheticSources.source(i, methodCount)));
+        }
+        // Fail fast on a broken setup instead of measuring a failing compilation
+        int generated = compiler.process(sources);
+        if (generated != classCount) {
+            throw new IllegalStateException("Expected " + classCount + " dispatchers, got " + generated);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        delete(stubsDir);
+    }
+
+    @Benchmark
+    public int process() {
+        return compiler.process(sources);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
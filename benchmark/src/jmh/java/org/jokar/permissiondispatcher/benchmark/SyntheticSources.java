@@ -0,0 +1,87 @@
+package org.jokar.permissiondispatcher.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates {@code @RuntimePermissions} classes for the benchmarks.
+ * <p>
+ * Every class gets {@code methodCount} {@code @NeedsPermission} methods, each with a distinct
+ * permission set and matching {@code @OnShowRationale}, {@code @OnPermissionDenied} and
+ * {@code @OnNeverAskAgain} handlers. Classes alternate between Activities and support Fragments,
+ * and every other method takes parameters, so both dispatcher shapes are exercised.
+ */
+final class SyntheticSources {
+
+    static final String PACKAGE = "org.jokar.permissiondispatcher.benchmark.generated";
+
+    private static final String[] PERMISSIONS = {
+            "android.permission.CAMERA",
+            "android.permission.RECORD_AUDIO",
+            "android.permission.READ_CONTACTS",
+            "android.permission.WRITE_CONTACTS",
+            "android.permission.ACCESS_FINE_LOCATION",
+            "android.permission.ACCESS_COARSE_LOCATION",
+            "android.permission.READ_CALENDAR",
+            "android.permission.WRITE_CALENDAR",
+            "android.permission.READ_PHONE_STATE",
+            "android.permission.CALL_PHONE",
+            "android.permission.SEND_SMS",
+            "android.permission.READ_EXTERNAL_STORAGE",
+    };
+
+    /**
+     * The largest supported {@code methodCount}: every single permission, then every pair.
+     */
+    static final int MAX_METHODS = PERMISSIONS.length + PERMISSIONS.length * (PERMISSIONS.length - 1) / 2;
+
+    private SyntheticSources() {
+    }
+
+    static String className(int index) {
+        return "Target" + index;
+    }
+
+    static String source(int index, int methodCount) {
+        if (methodCount < 1 || methodCount > MAX_METHODS) {
+            throw new IllegalArgumentException("methodCount must be between 1 and " + MAX_METHODS);
+        }
+        boolean fragment = index % 2 == 1;
+        StringBuilder builder = new StringBuilder(methodCount * 512)
+                .append("package ").append(PACKAGE).append(";\n\n")
+                .append("import org.jokar.permissiondispatcher.annotation.*;\n")
+                .append("import org.jokar.permissiondispatcher.library.PermissionRequest;\n\n")
+                .append("@RuntimePermissions\n")
+                .append("public class ").append(className(index)).append(" extends ")
+                .append(fragment ? "android.support.v4.app.Fragment" : "android.app.Activity")
+                .append(" {\n");
+
+        List<String> permissionSets = permissionSets(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            String value = permissionSets.get(i);
+            String parameters = i % 2 == 0 ? "" : "String url, int index";
+            builder.append("    @NeedsPermission(").append(value).append(")\n")
+                    .append("    void needs").append(i).append("(").append(parameters).append(") {}\n")
+                    .append("    @OnShowRationale(").append(value).append(")\n")
+                    .append("    void rationale").append(i).append("(PermissionRequest request) {}\n")
+                    .append("    @OnPermissionDenied(").append(value).append(")\n")
+                    .append("    void denied").append(i).append("() {}\n")
+                    .append("    @OnNeverAskAgain(").append(value).append(")\n")
+                    .append("    void neverAsk").append(i).append("() {}\n");
+        }
+        return builder.append("}\n").toString();
+    }
+
+    private static List<String> permissionSets(int count) {
+        List<String> sets = new ArrayList<>(count);
+        for (int i = 0; i < PERMISSIONS.length && sets.size() < count; i++) {
+            sets.add("\"" + PERMISSIONS[i] + "\"");
+        }
+        for (int i = 0; i < PERMISSIONS.length && sets.size() < count; i++) {
+            for (int j = i + 1; j < PERMISSIONS.length && sets.size() < count; j++) {
+                sets.add("{\"" + PERMISSIONS[i] + "\", \"" + PERMISSIONS[j] + "\"}");
+            }
+        }
+        return sets;
+    }
+}
@@ -0,0 +1,102 @@
+package org.jokar.permissiondispatcher.library;
+
+import android.app.Activity;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.app.Fragment;
+
+/**
+ * Runs the check, rationale and result logic of compact generated dispatchers from their
+ * {@link DispatcherTable}, instead of each dispatcher carrying its own copy of that code.
+ * <p>
+ * Targets are either an {@link Activity} or a support {@link Fragment}, as for regular dispatchers.
+ */
+public final class DispatcherInterpreter {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private DispatcherInterpreter() {
+    }
+
+    /**
+     * {@link #withCheck(Object, DispatcherTable, int, Object[])} for a method without parameters.
+     */
+    public static <T> void withCheck(T target, DispatcherTable<T> table, int method) {
+        withCheck(target, table, method, NO_ARGS);
+    }
+
+    /**
+     * Calls the {@code @NeedsPermission} method if its permissions are granted, otherwise shows
+     * the rationale or requests the permissions.
+     */
+    public static <T> void withCheck(T target, DispatcherTable<T> table, int method, Object[] args) {
+        Activity activity = activityOf(target);
+        String[] permissions = table.permissions[method];
+        if (PermissionUtils.hasExistingSelfPermissions(activity, permissions)) {
+            table.trampoline.call(target, method, DispatcherTable.NEEDS, args);
+            return;
+        }
+        DispatcherRequest<T> request = null;
+        if (table.has(method, DispatcherTable.FLAG_PARAMETERS)) {
+            request = new DispatcherRequest<>(target, table, method, args);
+            table.pending[method] = request;
+        }
+        if (table.has(method, DispatcherTable.FLAG_RATIONALE)
+                && PermissionUtils.shouldShowRequestPermissionRationale(activity, permissions)) {
+            if (request == null) {
+                request = new DispatcherRequest<>(target, table, method, NO_ARGS);
+            }
+            table.trampoline.call(target, method, DispatcherTable.RATIONALE, new Object[]{request});
+        } else {
+            requestPermissions(target, permissions, table.requestCodes[method]);
+        }
+    }
+
+    /**
+     * Handles the result of a permission request made for one of the methods of the table.
+     * Results with other request codes are ignored.
+     */
+    public static <T> void onRequestPermissionsResult(T target, DispatcherTable<T> table,
+                                                      int requestCode, int[] grantResults) {
+        int method = table.indexOf(requestCode);
+        if (method < 0) {
+            return;
+        }
+        Activity activity = activityOf(target);
+        String[] permissions = table.permissions[method];
+        if (PermissionUtils.getTargetSdkVersion(activity) < 23
+                && !PermissionUtils.hasExistingSelfPermissions(activity, permissions)) {
+            if (table.has(method, DispatcherTable.FLAG_DENIED)) {
+                table.trampoline.call(target, method, DispatcherTable.DENIED, NO_ARGS);
+            }
+            return;
+        }
+        boolean hasParameters = table.has(method, DispatcherTable.FLAG_PARAMETERS);
+        if (PermissionUtils.verifyPermissions(grantResults)) {
+            if (!hasParameters) {
+                table.trampoline.call(target, method, DispatcherTable.NEEDS, NO_ARGS);
+            } else if (table.pending[method] != null) {
+                table.pending[method].grant();
+            }
+        } else if (table.has(method, DispatcherTable.FLAG_NEVER_ASK)
+                && !PermissionUtils.shouldShowRequestPermissionRationale(activity, permissions)) {
+            table.trampoline.call(target, method, DispatcherTable.NEVER_ASK, NO_ARGS);
+        } else if (table.has(method, DispatcherTable.FLAG_DENIED)) {
+            table.trampoline.call(target, method, DispatcherTable.DENIED, NO_ARGS);
+        }
+        if (hasParameters) {
+            table.pending[method] = null;
+        }
+    }
+
+    static void requestPermissions(Object target, String[] permissions, int requestCode) {
+        if (target instanceof Activity) {
+            ActivityCompat.requestPermissions((Activity) target, permissions, requestCode);
+        } else {
+            ((Fragment) target).requestPermissions(permissions, requestCode);
+        }
+    }
+
+    private static Activity activityOf(Object target) {
+        return target instanceof Activity ? (Activity) target : ((Fragment) target).getActivity();
+    }
+}
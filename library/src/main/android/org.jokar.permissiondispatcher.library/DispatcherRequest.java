@@ -0,0 +1,45 @@
+package org.jokar.permissiondispatcher.library;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * The {@link GrantableRequest} of every compact generated dispatcher, in place of one generated
+ * request class per {@code @NeedsPermission} method.
+ */
+final class DispatcherRequest<T> implements GrantableRequest {
+
+    private final WeakReference<T> weakTarget;
+    private final DispatcherTable<T> table;
+    private final int method;
+    private final Object[] args;
+
+    DispatcherRequest(T target, DispatcherTable<T> table, int method, Object[] args) {
+        this.weakTarget = new WeakReference<>(target);
+        this.table = table;
+        this.method = method;
+        this.args = args;
+    }
+
+    @Override
+    public void proceed() {
+        T target = weakTarget.get();
+        if (target == null) return;
+        DispatcherInterpreter.requestPermissions(target, table.permissions[method], table.requestCodes[method]);
+    }
+
+    @Override
+    public void cancel() {
+        T target = weakTarget.get();
+        if (target == null) return;
+        if (table.has(method, DispatcherTable.FLAG_DENIED)) {
+            table.trampoline.call(target, method, DispatcherTable.DENIED, args);
+        }
+    }
+
+    @Override
+    public void grant() {
+        T target = weakTarget.get();
+        if (target == null) return;
+        table.trampoline.call(target, method, DispatcherTable.NEEDS, args);
+    }
+}
@@ -0,0 +1,66 @@
+package org.jokar.permissiondispatcher.library;
+
+/**
+ * Descriptor table of one compact generated dispatcher, read by {@link DispatcherInterpreter}.
+ * <p>
+ * Entry {@code i} of each array describes the {@code i}-th {@code @NeedsPermission} method of the
+ * target class. The annotated methods themselves are only reachable through the generated
+ * {@link Trampoline}, which switches on the method index and the callback kind.
+ */
+public final class DispatcherTable<T> {
+
+    public static final int NEEDS = 0;
+    public static final int RATIONALE = 1;
+    public static final int DENIED = 2;
+    public static final int NEVER_ASK = 3;
+
+    public static final int FLAG_RATIONALE = 1 << RATIONALE;
+    public static final int FLAG_DENIED = 1 << DENIED;
+    public static final int FLAG_NEVER_ASK = 1 << NEVER_ASK;
+    public static final int FLAG_PARAMETERS = 1 << 4;
+
+    /**
+     * Calls the annotated methods of the target; implemented by the generated dispatcher.
+     */
+    public interface Trampoline<T> {
+
+        /**
+         * @param method   index of the {@code @NeedsPermission} method
+         * @param callback {@link #NEEDS}, {@link #RATIONALE}, {@link #DENIED} or {@link #NEVER_ASK}
+         * @param args     the arguments of the {@code @NeedsPermission} method, or the
+         *                 {@link PermissionRequest} for {@link #RATIONALE}
+         */
+        void call(T target, int method, int callback, Object[] args);
+    }
+
+    final String[][] permissions;
+    final int[] requestCodes;
+    final int[] flags;
+    final Trampoline<T> trampoline;
+    // Pending requests of the methods with parameters, as the PENDING_ fields of regular dispatchers
+    final GrantableRequest[] pending;
+
+    public DispatcherTable(String[][] permissions, int[] requestCodes, int[] flags, Trampoline<T> trampoline) {
+        this.permissions = permissions;
+        this.requestCodes = requestCodes;
+        this.flags = flags;
+        this.trampoline = trampoline;
+        this.pending = new GrantableRequest[permissions.length];
+    }
+
+    /**
+     * Returns the index of the method using the given request code, or -1.
+     */
+    int indexOf(int requestCode) {
+        for (int i = 0; i < requestCodes.length; i++) {
+            if (requestCodes[i] == requestCode) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    boolean has(int method, int flag) {
+        return (flags[method] & flag) != 0;
+    }
+}
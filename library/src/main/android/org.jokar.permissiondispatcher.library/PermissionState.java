@@ -0,0 +1,106 @@
+package org.jokar.permissiondispatcher.library;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Build;
+import android.support.v4.app.ActivityCompat;
+
+/**
+ * Permission checks on {@code long} masks, for the permission registry generated per module.
+ * <p>
+ * Bit {@code i} of a mask stands for {@code permissions[i]}. Permissions that do not exist on the
+ * device's SDK are resolved once, when the registry is initialized, and granted permissions are
+ * remembered as a bitset: Android kills the process when a runtime permission is revoked, so a
+ * permission granted once stays granted for the lifetime of the process. Denials and rationale
+ * state can change behind the app's back, so those are always asked to the framework. Neither
+ * are grants on Xiaomi devices, whose app ops can be revoked without killing the process.
+ */
+public final class PermissionState {
+
+    private final String[] permissions;
+    // Permissions that exist on this device; checks ignore the others, as PermissionUtils does
+    private final long existing;
+    private final boolean cacheGrants;
+    // Benign races: a lost update only means asking the framework again
+    private volatile long granted;
+
+    public PermissionState(String... permissions) {
+        this(existingMask(permissions), permissions);
+    }
+
+    /**
+     * @param existing the mask of the permissions that exist on this device, as generated
+     */
+    public PermissionState(long existing, String... permissions) {
+        if (permissions.length > Long.SIZE) {
+            throw new IllegalArgumentException("At most " + Long.SIZE + " permissions are supported");
+        }
+        this.permissions = permissions;
+        this.existing = existing;
+        this.cacheGrants = !"Xiaomi".equals(Build.MANUFACTURER);
+    }
+
+    private static long existingMask(String... permissions) {
+        long existing = 0;
+        for (int i = 0; i < permissions.length && i < Long.SIZE; i++) {
+            if (PermissionUtils.permissionExists(permissions[i])) {
+                existing |= 1L << i;
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Returns true if the context has access to all permissions of the mask.
+     *
+     * @see PermissionUtils#hasSelfPermissions(Context, String...)
+     */
+    public boolean hasSelfPermissions(Context context, long mask) {
+        long missing = mask & existing & ~granted;
+        while (missing != 0) {
+            long bit = Long.lowestOneBit(missing);
+            if (!PermissionUtils.hasSelfPermission(context, permissions[Long.numberOfTrailingZeros(bit)])) {
+                return false;
+            }
+            if (cacheGrants) {
+                granted |= bit;
+            }
+            missing &= ~bit;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if one of the permissions of the mask needs to show a rationale.
+     *
+     * @see PermissionUtils#shouldShowRequestPermissionRationale(Activity, String...)
+     */
+    public boolean shouldShowRequestPermissionRationale(Activity activity, long mask) {
+        long remaining = mask;
+        while (remaining != 0) {
+            long bit = Long.lowestOneBit(remaining);
+            if (ActivityCompat.shouldShowRequestPermissionRationale(activity,
+                    permissions[Long.numberOfTrailingZeros(bit)])) {
+                return true;
+            }
+            remaining &= ~bit;
+        }
+        return false;
+    }
+
+    /**
+     * Checks the results of a request for the permissions of the mask, and remembers them as
+     * granted if they all are.
+     *
+     * @see PermissionUtils#verifyPermissions(int...)
+     */
+    public boolean verifyPermissions(long mask, int... grantResults) {
+        if (!PermissionUtils.verifyPermissions(grantResults)) {
+            return false;
+        }
+        if (cacheGrants) {
+            granted |= mask;
+        }
+        return true;
+    }
+}
@@ -7,6 +7,7 @@ import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.PowerManager;
 import android.os.Process;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.util.SimpleArrayMap;
@@ -20,6 +21,8 @@ public class PermissionUtils {
 
     // Map of dangerous permissions introduced in later framework versions.
     // Used to conditionally bypass permission-hold checks on older devices.
+    // Generated code resolves existence from the processor's own, complete table instead;
+    // this one only serves hasSelfPermissions callers.
     private static final SimpleArrayMap<String, Integer> MIN_SDK_PERMISSIONS;
 
     static {
@@ -63,7 +66,7 @@ public class PermissionUtils {
      * @param permission permission
      * @return returns true if the permission exists in this SDK version
      */
-    private static boolean permissionExists(String permission) {
+    static boolean permissionExists(String permission) {
         // Check if the permission could potentially be missing on this device
         Integer minVersion = MIN_SDK_PERMISSIONS.get(permission);
         // If null was returned from the above call, there is no need for a device API level check for the permission;
@@ -87,6 +90,52 @@ public class PermissionUtils {
         return true;
     }
 
+    /**
+     * Returns the given permissions that exist on this device. Generated code calls it once per
+     * permission set, when its class is initialized, with the SDK checks of each permission.
+     *
+     * @param permissions permission list
+     * @param exist       whether each permission exists on this device
+     * @return returns the permissions that exist on this device, {@code permissions} if they all do.
+     */
+    public static String[] existingPermissions(String[] permissions, boolean... exist) {
+        int count = 0;
+        for (boolean e : exist) {
+            if (e) {
+                count++;
+            }
+        }
+        if (count == permissions.length) {
+            return permissions;
+        }
+        String[] existing = new String[count];
+        for (int i = 0, j = 0; i < permissions.length; i++) {
+            if (exist[i]) {
+                existing[j++] = permissions[i];
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Returns true if the Activity or Fragment has access to all given permissions, which must
+     * exist on this device. Skips the per-permission SDK check of
+     * {@link #hasSelfPermissions(Context, String...)}; generated code calls it with the
+     * permissions filtered by {@link #existingPermissions(String[], boolean...)}.
+     *
+     * @param context     context
+     * @param permissions permission list
+     * @return returns true if the Activity or Fragment has access to all given permissions.
+     */
+    public static boolean hasExistingSelfPermissions(Context context, String... permissions) {
+        for (String permission : permissions) {
+            if (!hasSelfPermission(context, permission)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Determine context has access to the given permission.
      * <p>
@@ -98,7 +147,7 @@ public class PermissionUtils {
      * @return returns true if context has access to the given permission, false otherwise.
      * @see #hasSelfPermissions(Context, String...)
      */
-    private static boolean hasSelfPermission(Context context, String permission) {
+    static boolean hasSelfPermission(Context context, String permission) {
         switch (Build.MANUFACTURER) {
             case "Xiaomi": {
 
@@ -149,6 +198,76 @@ public class PermissionUtils {
     }
 
 
+    /**
+     * Returns true if the app may install other apps. Always true before Android O, where the
+     * access does not exist.
+     *
+     * @param context context
+     * @return returns true if the app may install other apps.
+     */
+    @TargetApi(Build.VERSION_CODES.O)
+    public static boolean canRequestPackageInstalls(Context context) {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.O || context.getPackageManager().canRequestPackageInstalls();
+    }
+
+    /**
+     * Returns true if the app has all files access. Always true before Android R, where the
+     * access does not exist.
+     *
+     * @param context context
+     * @return returns true if the app has all files access.
+     */
+    public static boolean isExternalStorageManager(Context context) {
+        // Environment.isExternalStorageManager() is newer than the SDK the library compiles against, its app op is not
+        return Build.VERSION.SDK_INT < 30 || isOpAllowed(context, "android:manage_external_storage",
+                "android.permission.MANAGE_EXTERNAL_STORAGE");
+    }
+
+    /**
+     * Returns true if the app has usage access. Always true before Lollipop, where the access
+     * does not exist.
+     *
+     * @param context context
+     * @return returns true if the app has usage access.
+     */
+    public static boolean hasUsageStatsAccess(Context context) {
+        return Build.VERSION.SDK_INT < 21 || isOpAllowed(context, "android:get_usage_stats",
+                "android.permission.PACKAGE_USAGE_STATS");
+    }
+
+    /**
+     * Returns true if the app is exempt from battery optimizations. Always true before
+     * Marshmallow, which introduced them.
+     *
+     * @param context context
+     * @return returns true if the app is exempt from battery optimizations.
+     */
+    @TargetApi(23)
+    public static boolean isIgnoringBatteryOptimizations(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return true;
+        }
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        return powerManager != null && powerManager.isIgnoringBatteryOptimizations(context.getPackageName());
+    }
+
+    /**
+     * Returns true if the app op is allowed. An op left to its default mode is decided by the
+     * permission behind it, as the system does.
+     */
+    @TargetApi(19)
+    private static boolean isOpAllowed(Context context, String op, String permission) {
+        AppOpsManager appOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        if (appOpsManager == null) {
+            return false;
+        }
+        int mode = appOpsManager.checkOpNoThrow(op, Process.myUid(), context.getPackageName());
+        if (mode == AppOpsManager.MODE_DEFAULT) {
+            return context.checkCallingOrSelfPermission(permission) == PackageManager.PERMISSION_GRANTED;
+        }
+        return mode == AppOpsManager.MODE_ALLOWED;
+    }
+
     /**
      * Checks given permissions are needed to show rationale.
      *
@@ -0,0 +1,311 @@
+package org.jokar.permissiondispatcher.processor;
+
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
+
+import org.jokar.permissiondispatcher.processor.event.ConstantsProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Collects the dispatchers generated in a module and builds the index class configured with
+ * {@link ProcessorOptions#INDEX}.
+ * <p>
+ * The index routes {@code onRequestPermissionsResult} and {@code onActivityResult} of any
+ * annotated target to a direct static call of its dispatcher: the target class is looked up in a
+ * map filled once in a static initializer, then a switch on the looked up position calls the
+ * dispatcher. No reflection is involved. Not thread-safe; only use it on the processing thread.
+ * <p>
+ * When the module allocates its request codes with {@link ProcessorOptions#REQUEST_CODES}, the
+ * dispatcher is instead looked up by the offset of the request code in an array of the owner of
+ * every code, and the target is only checked to be an instance of that owner.
+ */
+final class DispatcherIndexBuilder {
+
+    private static final String TARGET = "target";
+    private static final String REQUEST_CODE = "requestCode";
+    private static final String GRANT_RESULTS = "grantResults";
+    private static final String TARGETS = "TARGETS";
+    private static final String FIRST_REQUEST_CODE = "FIRST_REQUEST_CODE";
+    private static final String OWNERS = "OWNERS";
+    private static final String TYPES = "TYPES";
+
+    private final ClassName indexClassName;
+    private final JavaFileBuilder javaFileBuilder;
+    private final RequestCodeAllocator requestCodes;
+    // Sorted by target name, so the generated index does not depend on round or element order
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * @param requestCodes the request codes of the module, or {@code null} if they are not allocated
+     */
+    DispatcherIndexBuilder(ClassName indexClassName, JavaFileBuilder javaFileBuilder,
+                           RequestCodeAllocator requestCodes) {
+        this.indexClassName = indexClassName;
+        this.javaFileBuilder = javaFileBuilder;
+        this.requestCodes = requestCodes;
+    }
+
+    ClassName getIndexClassName() {
+        return indexClassName;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Adds the dispatcher of the given element to the index.
+     *
+     * @return {@code false} if the target class cannot be referenced from the package of the index
+     */
+    boolean add(RuntimePermissionsElement element) {
+        TypeElement typeElement = element.getElement();
+        if (!isAccessibleFrom(typeElement, indexClassName.packageName())) {
+            return false;
+        }
+        entries.put(typeElement.getQualifiedName().toString(), new Entry(typeElement,
+                ClassName.get(element.getPackageName(), element.getGeneratedClassName()),
+                !element.getTypeVariables().isEmpty(),
+                javaFileBuilder.hasRequestPermissionsResult(element),
+                javaFileBuilder.hasActivityResult(element)));
+        return true;
+    }
+
+    JavaFile createJavaFile() {
+        List<Entry> entryList = new ArrayList<>(entries.values());
+        TypeSpec.Builder builder = TypeSpec.classBuilder(indexClassName)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL);
+        if (requestCodes == null) {
+            builder.addField(createTargetsField())
+                    .addStaticBlock(createTargetsBlock(entryList));
+        } else {
+            builder.addFields(createOwnerFields(entryList));
+        }
+        builder.addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build())
+                .addMethod(createRequestPermissionsResultMethod(entryList))
+                .addMethod(createActivityResultMethod(entryList))
+                .addMethod(requestCodes == null ? createIndexOfMethod() : createIndexOfRequestCodeMethod());
+        for (Entry entry : entryList) {
+            builder.addOriginatingElement(entry.element);
+        }
+        return JavaFile.builder(indexClassName.packageName(), builder.build())
+                .addFileComment(ConstantsProvider.FILE_COMMENT)
+                .build();
+    }
+
+    private FieldSpec createTargetsField() {
+        TypeName classType = ParameterizedTypeName.get(ClassName.get(Class.class),
+                WildcardTypeName.subtypeOf(Object.class));
+        TypeName mapType = ParameterizedTypeName.get(ClassName.get(Map.class), classType,
+                ClassName.get(Integer.class));
+        return FieldSpec.builder(mapType, TARGETS, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T<>($L)", HashMap.class, entries.size() * 4 / 3 + 1)
+                .build();
+    }
+
+    private CodeBlock createTargetsBlock(List<Entry> entryList) {
+        CodeBlock.Builder block = CodeBlock.builder();
+        for (int i = 0; i < entryList.size(); i++) {
+            block.addStatement("$N.put($T.class, $L)", TARGETS, entryList.get(i).target, i);
+        }
+        return block.build();
+    }
+
+    /**
+     * The index of the entry of each allocated request code, from the first code of the range,
+     * or -1 for the codes of targets that are not indexed.
+     */
+    private List<FieldSpec> createOwnerFields(List<Entry> entryList) {
+        Map<String, Integer> positions = new HashMap<>();
+        CodeBlock.Builder types = CodeBlock.builder();
+        for (int i = 0; i < entryList.size(); i++) {
+            positions.put(entryList.get(i).element.getQualifiedName().toString(), i);
+            types.add(i == 0 ? "$T.class" : ", $T.class", entryList.get(i).target);
+        }
+        List<RequestCodeAllocator.Allocation> allocations = requestCodes.getAllocations();
+        int length = allocations.isEmpty() ? 0
+                : allocations.get(allocations.size() - 1).requestCode - requestCodes.getFirstRequestCode() + 1;
+        int[] owners = new int[length];
+        Arrays.fill(owners, -1);
+        for (RequestCodeAllocator.Allocation allocation : allocations) {
+            Integer position = positions.get(allocation.target);
+            if (position != null) {
+                owners[allocation.requestCode - requestCodes.getFirstRequestCode()] = position;
+            }
+        }
+        CodeBlock.Builder ownerValues = CodeBlock.builder();
+        for (int i = 0; i < owners.length; i++) {
+            ownerValues.add(i == 0 ? "$L" : ", $L", owners[i]);
+        }
+        TypeName classType = ParameterizedTypeName.get(ClassName.get(Class.class),
+                WildcardTypeName.subtypeOf(Object.class));
+        List<FieldSpec> fields = new ArrayList<>();
+        fields.add(FieldSpec.builder(TypeName.INT, FIRST_REQUEST_CODE, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("$L", requestCodes.getFirstRequestCode())
+                .build());
+        fields.add(FieldSpec.builder(ArrayTypeName.of(TypeName.INT), OWNERS, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("{$L}", ownerValues.build())
+                .build());
+        fields.add(FieldSpec.builder(ArrayTypeName.of(classType), TYPES, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("{$L}", types.build())
+                .build());
+        return fields;
+    }
+
+    /**
+     * The call looking up the position of the entry of the target in the result methods.
+     */
+    private CodeBlock indexOfCall() {
+        return requestCodes == null ? CodeBlock.of("indexOf($N)", TARGET)
+                : CodeBlock.of("indexOf($N, $N)", TARGET, REQUEST_CODE);
+    }
+
+    private MethodSpec createRequestPermissionsResultMethod(List<Entry> entryList) {
+        MethodSpec.Builder builder = createResultMethodBuilder("onRequestPermissionsResult", entryList)
+                .addParameter(ArrayTypeName.of(TypeName.INT), GRANT_RESULTS);
+        builder.beginControlFlow("switch ($L)", indexOfCall());
+        for (int i = 0; i < entryList.size(); i++) {
+            Entry entry = entryList.get(i);
+            if (!entry.requestPermissionsResult) {
+                continue;
+            }
+            builder.addCode("case $L:\n", i)
+                    .addStatement("$T.onRequestPermissionsResult(($T) $N, $N, $N)",
+                            entry.dispatcher, entry.target, TARGET, REQUEST_CODE, GRANT_RESULTS)
+                    .addStatement("return true");
+        }
+        return builder.addCode("default:\n")
+                .addStatement("return false")
+                .endControlFlow()
+                .build();
+    }
+
+    private MethodSpec createActivityResultMethod(List<Entry> entryList) {
+        MethodSpec.Builder builder = createResultMethodBuilder("onActivityResult", entryList);
+        builder.beginControlFlow("switch ($L)", indexOfCall());
+        for (int i = 0; i < entryList.size(); i++) {
+            Entry entry = entryList.get(i);
+            if (!entry.activityResult) {
+                continue;
+            }
+            builder.addCode("case $L:\n", i)
+                    .addStatement("$T.onActivityResult(($T) $N, $N)",
+                            entry.dispatcher, entry.target, TARGET, REQUEST_CODE)
+                    .addStatement("return true");
+        }
+        return builder.addCode("default:\n")
+                .addStatement("return false")
+                .endControlFlow()
+                .build();
+    }
+
+    /**
+     * Starts a public static {@code boolean} result method that returns whether the target
+     * had a dispatcher to forward the result to.
+     */
+    private MethodSpec.Builder createResultMethodBuilder(String name, List<Entry> entryList) {
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(TypeName.BOOLEAN)
+                .addParameter(Object.class, TARGET)
+                .addParameter(TypeName.INT, REQUEST_CODE);
+        for (Entry entry : entryList) {
+            if (entry.generic) {
+                // Generic targets are cast to their raw type before calling the dispatcher
+                builder.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                        .addMember("value", "{$S, $S}", "unchecked", "rawtypes")
+                        .build());
+                break;
+            }
+        }
+        return builder;
+    }
+
+    private MethodSpec createIndexOfMethod() {
+        // Subclasses of an annotated target are routed to the dispatcher of that target
+        return MethodSpec.methodBuilder("indexOf")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(TypeName.INT)
+                .addParameter(Object.class, TARGET)
+                .beginControlFlow("for ($T<?> type = $N.getClass(); type != null; type = type.getSuperclass())",
+                        Class.class, TARGET)
+                .addStatement("$T index = $N.get(type)", Integer.class, TARGETS)
+                .beginControlFlow("if (index != null)")
+                .addStatement("return index")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return -1")
+                .build();
+    }
+
+    private MethodSpec createIndexOfRequestCodeMethod() {
+        // Codes are unique in the module, so the owner of the code is the only candidate
+        return MethodSpec.methodBuilder("indexOf")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(TypeName.INT)
+                .addParameter(Object.class, TARGET)
+                .addParameter(TypeName.INT, REQUEST_CODE)
+                .addStatement("int offset = $N - $N", REQUEST_CODE, FIRST_REQUEST_CODE)
+                .beginControlFlow("if (offset < 0 || offset >= $N.length)", OWNERS)
+                .addStatement("return -1")
+                .endControlFlow()
+                .addStatement("int index = $N[offset]", OWNERS)
+                .addStatement("return index != -1 && $N[index].isInstance($N) ? index : -1", TYPES, TARGET)
+                .build();
+    }
+
+    /**
+     * Public classes can be referenced from anywhere, package-private ones only from their
+     * own package. Nested classes also need every enclosing class to be accessible.
+     */
+    private static boolean isAccessibleFrom(TypeElement element, String packageName) {
+        Element e = element;
+        boolean allPublic = true;
+        for (; !(e instanceof PackageElement); e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            allPublic &= e.getModifiers().contains(Modifier.PUBLIC);
+        }
+        return allPublic || ((PackageElement) e).getQualifiedName().contentEquals(packageName);
+    }
+
+    private static final class Entry {
+        final TypeElement element;
+        final ClassName target;
+        final ClassName dispatcher;
+        final boolean generic;
+        final boolean requestPermissionsResult;
+        final boolean activityResult;
+
+        Entry(TypeElement element, ClassName dispatcher, boolean generic,
+              boolean requestPermissionsResult, boolean activityResult) {
+            this.element = element;
+            this.target = ClassName.get(element);
+            this.dispatcher = dispatcher;
+            this.generic = generic;
+            this.requestPermissionsResult = requestPermissionsResult;
+            this.activityResult = activityResult;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.jokar.permissiondispatcher.annotation.NeedsPermission;
+import org.jokar.permissiondispatcher.annotation.OnNeverAskAgain;
+import org.jokar.permissiondispatcher.annotation.OnPermissionDenied;
+import org.jokar.permissiondispatcher.annotation.OnShowRationale;
+import org.jokar.permissiondispatcher.annotation.RuntimePermissions;
+import org.jokar.permissiondispatcher.processor.event.TypeResolver;
+import org.jokar.permissiondispatcher.processor.utils.ProcessorUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * Finds the annotated methods of a {@code @RuntimePermissions} class along its superclass chain.
+ * <p>
+ * The methods declared by each class are scanned once, however many annotated subclasses share
+ * it, and the merged view of each annotated class is built once. The processor creates one
+ * instance per round; not thread-safe, only use it on the processing thread.
+ */
+public final class HierarchyScanner {
+
+    // Framework classes declare no annotated methods; stopping there skips scanning Activity or Fragment
+    private static final String[] FRAMEWORK_PREFIXES = {"android.", "androidx.", "java.", "javax.", "kotlin."};
+
+    private final TypeResolver resolver;
+    private final Set<String> targets;
+    private final Map<String, DeclaredMethods> declaredMethods = new HashMap<>();
+    private final Map<String, Hierarchy> hierarchies = new HashMap<>();
+
+    /**
+     * @param targets the qualified names of the annotated classes of the compilation, the only
+     *                ones whose dispatchers are sure to exist and match this processor
+     */
+    public HierarchyScanner(TypeResolver resolver, Set<String> targets) {
+        this.resolver = resolver;
+        this.targets = targets;
+    }
+
+    /**
+     * Returns the annotated methods the class declares or inherits.
+     */
+    public Hierarchy hierarchyOf(TypeElement target) {
+        String name = target.getQualifiedName().toString();
+        Hierarchy hierarchy = hierarchies.get(name);
+        if (hierarchy == null) {
+            hierarchy = scan(target);
+            hierarchies.put(name, hierarchy);
+        }
+        return hierarchy;
+    }
+
+    private Hierarchy scan(TypeElement target) {
+        List<TypeElement> classes = classesOf(target);
+        TypeElement superTarget = null;
+        int superIndex = classes.size();
+        for (int i = 1; i < classes.size(); i++) {
+            if (classes.get(i).getAnnotation(RuntimePermissions.class) != null) {
+                // Dispatchers and their WithCheck methods are package-private, and the dispatcher of
+                // a class from the classpath may come from another version of the processor
+                if (ProcessorUtil.packageOf(classes.get(i)).equals(ProcessorUtil.packageOf(target))
+                        && targets.contains(classes.get(i).getQualifiedName().toString())) {
+                    superTarget = classes.get(i);
+                    superIndex = i;
+                }
+                break;
+            }
+        }
+
+        // Subclasses come first: a method redeclared with an annotation replaces the inherited
+        // one it overrides, a callback the one for the same permissions
+        List<PermissionMethodElement> needs = new ArrayList<>();
+        List<PermissionMethodElement> rationale = new ArrayList<>();
+        List<PermissionMethodElement> denied = new ArrayList<>();
+        List<PermissionMethodElement> neverAsk = new ArrayList<>();
+        Set<String> needsSignatures = new HashSet<>();
+        Set<PermissionKey> rationaleKeys = new HashSet<>();
+        Set<PermissionKey> deniedKeys = new HashSet<>();
+        Set<PermissionKey> neverAskKeys = new HashSet<>();
+        Set<ExecutableElement> fromSuperTarget = new HashSet<>();
+        for (int i = 0; i < classes.size(); i++) {
+            DeclaredMethods declared = declaredMethodsOf(classes.get(i));
+            Set<String> signatures = new HashSet<>();
+            for (PermissionMethodElement method : declared.needs) {
+                String signature = signatureOf(target, method.getElement());
+                if (!needsSignatures.contains(signature)) {
+                    needs.add(method);
+                    signatures.add(signature);
+                    if (i >= superIndex) {
+                        fromSuperTarget.add(method.getElement());
+                    }
+                }
+            }
+            needsSignatures.addAll(signatures);
+            mergeCallbacks(declared.rationale, rationale, rationaleKeys);
+            mergeCallbacks(declared.denied, denied, deniedKeys);
+            mergeCallbacks(declared.neverAsk, neverAsk, neverAskKeys);
+        }
+
+        if (superTarget == null) {
+            return new Hierarchy(needs, rationale, denied, neverAsk, null, null,
+                    Collections.<ExecutableElement>emptySet());
+        }
+        // A method is left to the dispatcher of the superclass only if that dispatcher calls the
+        // same callbacks, i.e. none was replaced below the superclass
+        Hierarchy superHierarchy = hierarchyOf(superTarget);
+        Set<ExecutableElement> delegated = new HashSet<>();
+        for (PermissionMethodElement method : needs) {
+            PermissionKey key = method.getPermissionKey();
+            if (fromSuperTarget.contains(method.getElement())
+                    && callbackOf(rationale, key) == callbackOf(superHierarchy.rationale, key)
+                    && callbackOf(denied, key) == callbackOf(superHierarchy.denied, key)
+                    && callbackOf(neverAsk, key) == callbackOf(superHierarchy.neverAsk, key)) {
+                delegated.add(method.getElement());
+            }
+        }
+        return new Hierarchy(needs, rationale, denied, neverAsk, superTarget, superHierarchy, delegated);
+    }
+
+    /**
+     * The name and erased parameter types of the method as a member of the target, which are the
+     * same for a method and the ones it overrides, also when they are declared with the type
+     * variables of a generic superclass.
+     */
+    private String signatureOf(TypeElement target, ExecutableElement method) {
+        StringBuilder signature = new StringBuilder(method.getSimpleName()).append('(');
+        ExecutableType type = resolver.asMemberOf(target, method);
+        for (TypeMirror parameterType : type.getParameterTypes()) {
+            signature.append(ProcessorUtil.erasure(parameterType)).append(',');
+        }
+        return signature.append(')').toString();
+    }
+
+    /**
+     * Adds the callbacks of one class whose permissions no subclass has a callback for yet.
+     * Duplicates within the class are kept, for validation to report them.
+     */
+    private static void mergeCallbacks(List<PermissionMethodElement> declared,
+                                       List<PermissionMethodElement> merged, Set<PermissionKey> keys) {
+        Set<PermissionKey> added = new HashSet<>();
+        for (PermissionMethodElement method : declared) {
+            if (!keys.contains(method.getPermissionKey())) {
+                merged.add(method);
+                added.add(method.getPermissionKey());
+            }
+        }
+        keys.addAll(added);
+    }
+
+    private static ExecutableElement callbackOf(List<PermissionMethodElement> callbacks, PermissionKey key) {
+        for (PermissionMethodElement callback : callbacks) {
+            if (callback.getPermissionKey().equals(key)) {
+                return callback.getElement();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The class followed by its superclasses, up to the first framework class.
+     */
+    private static List<TypeElement> classesOf(TypeElement target) {
+        List<TypeElement> classes = new ArrayList<>();
+        classes.add(target);
+        for (TypeMirror type = target.getSuperclass(); type.getKind() == TypeKind.DECLARED; ) {
+            TypeElement superclass = (TypeElement) ((DeclaredType) type).asElement();
+            if (isFramework(superclass)) {
+                break;
+            }
+            classes.add(superclass);
+            type = superclass.getSuperclass();
+        }
+        return classes;
+    }
+
+    private static boolean isFramework(TypeElement type) {
+        String name = type.getQualifiedName().toString();
+        for (String prefix : FRAMEWORK_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private DeclaredMethods declaredMethodsOf(TypeElement type) {
+        String name = type.getQualifiedName().toString();
+        DeclaredMethods methods = declaredMethods.get(name);
+        if (methods == null) {
+            methods = new DeclaredMethods(type);
+            declaredMethods.put(name, methods);
+        }
+        return methods;
+    }
+
+    /**
+     * The annotated methods declared by one class, each annotation value read once.
+     */
+    private static final class DeclaredMethods {
+        final List<PermissionMethodElement> needs = new ArrayList<>();
+        final List<PermissionMethodElement> rationale = new ArrayList<>();
+        final List<PermissionMethodElement> denied = new ArrayList<>();
+        final List<PermissionMethodElement> neverAsk = new ArrayList<>();
+
+        DeclaredMethods(TypeElement type) {
+            // Single pass over the enclosed elements, sorting each method into its annotation bucket
+            for (Element enclosedElement : type.getEnclosedElements()) {
+                if (enclosedElement.getKind() != ElementKind.METHOD) {
+                    continue;
+                }
+                ExecutableElement method = (ExecutableElement) enclosedElement;
+                NeedsPermission needsPermission = method.getAnnotation(NeedsPermission.class);
+                if (needsPermission != null) {
+                    needs.add(new PermissionMethodElement(method, needsPermission.value()));
+                }
+                OnShowRationale onShowRationale = method.getAnnotation(OnShowRationale.class);
+                if (onShowRationale != null) {
+                    rationale.add(new PermissionMethodElement(method, onShowRationale.value()));
+                }
+                OnPermissionDenied onPermissionDenied = method.getAnnotation(OnPermissionDenied.class);
+                if (onPermissionDenied != null) {
+                    denied.add(new PermissionMethodElement(method, onPermissionDenied.value()));
+                }
+                OnNeverAskAgain onNeverAskAgain = method.getAnnotation(OnNeverAskAgain.class);
+                if (onNeverAskAgain != null) {
+                    neverAsk.add(new PermissionMethodElement(method, onNeverAskAgain.value()));
+                }
+            }
+        }
+    }
+
+    /**
+     * The annotated methods of a class, its own first, then the inherited ones, and the annotated
+     * superclass whose dispatcher it can reuse.
+     */
+    public static final class Hierarchy {
+        private final List<PermissionMethodElement> needs;
+        private final List<PermissionMethodElement> rationale;
+        private final List<PermissionMethodElement> denied;
+        private final List<PermissionMethodElement> neverAsk;
+        private final TypeElement superTarget;
+        private final List<PermissionKey> superTargetKeys;
+        private final Set<ExecutableElement> delegated;
+        private final int requestCodeOffset;
+
+        private Hierarchy(List<PermissionMethodElement> needs, List<PermissionMethodElement> rationale,
+                          List<PermissionMethodElement> denied, List<PermissionMethodElement> neverAsk,
+                          TypeElement superTarget, Hierarchy superHierarchy, Set<ExecutableElement> delegated) {
+            this.needs = Collections.unmodifiableList(needs);
+            this.rationale = Collections.unmodifiableList(rationale);
+            this.denied = Collections.unmodifiableList(denied);
+            this.neverAsk = Collections.unmodifiableList(neverAsk);
+            this.superTarget = superTarget;
+            List<PermissionKey> superTargetKeys = new ArrayList<>();
+            if (superHierarchy != null) {
+                for (PermissionMethodElement method : superHierarchy.needs) {
+                    superTargetKeys.add(method.getPermissionKey());
+                }
+            }
+            this.superTargetKeys = Collections.unmodifiableList(superTargetKeys);
+            this.delegated = Collections.unmodifiableSet(delegated);
+            this.requestCodeOffset = superHierarchy == null ? 0 : superHierarchy.getRequestCodeLimit();
+        }
+
+        public List<PermissionMethodElement> getNeedsMethods() {
+            return needs;
+        }
+
+        public List<PermissionMethodElement> getRationaleMethods() {
+            return rationale;
+        }
+
+        public List<PermissionMethodElement> getDeniedMethods() {
+            return denied;
+        }
+
+        public List<PermissionMethodElement> getNeverAskMethods() {
+            return neverAsk;
+        }
+
+        /**
+         * The nearest {@code @RuntimePermissions} superclass, if it is in the same package and
+         * compiled along with the class, so its dispatcher can be called; otherwise {@code null}.
+         */
+        public TypeElement getSuperTarget() {
+            return superTarget;
+        }
+
+        /**
+         * The permissions of every {@code @NeedsPermission} method the dispatcher of
+         * {@link #getSuperTarget()} handles.
+         */
+        public List<PermissionKey> getSuperTargetKeys() {
+            return superTargetKeys;
+        }
+
+        /**
+         * Whether the dispatcher of {@link #getSuperTarget()} handles the method exactly as the
+         * dispatcher of this class would.
+         */
+        public boolean isDelegated(ExecutableElement needsMethod) {
+            return delegated.contains(needsMethod);
+        }
+
+        /**
+         * The first request code of this class; the codes below belong to its annotated superclasses.
+         */
+        public int getRequestCodeOffset() {
+            return requestCodeOffset;
+        }
+
+        int getRequestCodeLimit() {
+            return requestCodeOffset + needs.size() - delegated.size();
+        }
+    }
+}
@@ -1,50 +1,81 @@
 package org.jokar.permissiondispatcher.processor;
 
+import com.squareup.javapoet.AnnotationSpec;
 import com.squareup.javapoet.ArrayTypeName;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
 
-import org.jokar.permissiondispatcher.annotation.NeedsPermission;
 import org.jokar.permissiondispatcher.processor.event.ClassType;
 import org.jokar.permissiondispatcher.processor.event.ConstantsProvider;
-import org.jokar.permissiondispatcher.processor.event.TypeResolver;
+import org.jokar.permissiondispatcher.processor.helper.PermissionSdkLevels;
 import org.jokar.permissiondispatcher.processor.helper.SensitivePermissionInterface;
+import org.jokar.permissiondispatcher.processor.helper.SensitivePermissions;
 import org.jokar.permissiondispatcher.processor.utils.ProcessorUtil;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
-import javax.lang.model.element.VariableElement;
-
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.requestCodeFieldName;
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.permissionFieldName;
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.varargsParametersCodeBlock;
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.getValueFromAnnotation;
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.withCheckMethodName;
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.containsKey;
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.getSensitivePermission;
 
 /**
  * Created by JokAr on 16/8/24.
+ * <p>
+ * Builds the dispatcher of a {@link RuntimePermissionsElement}. Instances hold no mutable state,
+ * so one builder can be used from several threads and several compilations at once.
  */
 public class JavaFileBuilder {
-    protected static ClassName PERMISSION_UTILS = ClassName.get("org.jokar.permissiondispatcher.library", "PermissionUtils");
-    private static ClassName ACTIVITY_COMPAT = ClassName.get("android.support.v4.app", "ActivityCompat");
-    private static String[] MANIFEST_WRITE_SETTING = new String[]{"android.permission.WRITE_SETTINGS"};
-    private static String[] MANIFEST_SYSTEM_ALERT_WINDOW = new String[]{"android.permission.SYSTEM_ALERT_WINDOW"};
-    private static List<String[]> ADD_WITH_CHECK_BODY_MAP = new ArrayList<>();
+    private static final ClassName PERMISSION_UTILS = ConstantsProvider.PERMISSION_UTILS;
+    private static final ClassName ACTIVITY_COMPAT = ConstantsProvider.ACTIVITY_COMPAT;
+    private static final ClassName DISPATCHER_TABLE = ConstantsProvider.DISPATCHER_TABLE;
+    private static final ClassName DISPATCHER_INTERPRETER = ConstantsProvider.DISPATCHER_INTERPRETER;
+    private static final ClassName TRACE = ConstantsProvider.TRACE;
+    private static final String TABLE_FIELD = "TABLE";
+    // android.os.Trace exists since JELLY_BEAN_MR2 and drops longer section names
+    private static final int TRACE_SDK = 18;
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    private final SensitivePermissions sensitivePermissions;
+    // Dispatchers are public when a module index has to call them from another package
+    private final Modifier[] dispatcherModifiers;
+    private final Modifier[] resultMethodModifiers;
+    private final ClassName constantsClassName;
+    private final ClassName registryClassName;
+    private final boolean compact;
+    private final boolean trace;
+    private final int minSdk;
+    // The target SDK is never below the min SDK, so a known min SDK is a lower bound for it
+    private final int targetSdk;
+    // Retired permissions are only dropped for a target SDK set explicitly, see PermissionSdkLevels
+    private final int declaredTargetSdk;
+
+    public JavaFileBuilder(SensitivePermissions sensitivePermissions) {
+        this(sensitivePermissions, new ProcessorOptions(Collections.<String, String>emptyMap()));
+    }
 
-    static {
-        ADD_WITH_CHECK_BODY_MAP.add(MANIFEST_WRITE_SETTING);
-        ADD_WITH_CHECK_BODY_MAP.add(MANIFEST_SYSTEM_ALERT_WINDOW);
+    public JavaFileBuilder(SensitivePermissions sensitivePermissions, ProcessorOptions options) {
+        this.sensitivePermissions = sensitivePermissions;
+        boolean index = options.getIndexClassName() != null;
+        dispatcherModifiers = index
+                ? new Modifier[]{Modifier.PUBLIC, Modifier.FINAL} : new Modifier[]{Modifier.FINAL};
+        resultMethodModifiers = index
+                ? new Modifier[]{Modifier.PUBLIC, Modifier.STATIC} : new Modifier[]{Modifier.STATIC};
+        constantsClassName = options.getConstantsClassName() == null ? null
+                : ProcessorUtil.classNameOf(options.getConstantsClassName());
+        registryClassName = options.getRegistryClassName() == null ? null
+                : ProcessorUtil.classNameOf(options.getRegistryClassName());
+        compact = options.isCompact();
+        trace = options.isTrace();
+        minSdk = options.getMinSdk();
+        targetSdk = Math.max(options.getTargetSdk(), minSdk);
+        declaredTargetSdk = options.getTargetSdk();
     }
 
     /**
@@ -52,19 +83,30 @@ public class JavaFileBuilder {
      * <p>
      * This will delegate to other methods that compose generated code.
      */
-    public static JavaFile createJavaFile(RuntimePermissionsElement element, TypeResolver typeResolver) {
+    public JavaFile createJavaFile(RuntimePermissionsElement element) {
+        return createJavaFile(element, getDefaultFirstRequestCode(element));
+    }
+
+    /**
+     * Creates the JavaFile for the provided @RuntimePermissions element, numbering the request
+     * codes of its methods from {@code firstRequestCode}.
+     */
+    public JavaFile createJavaFile(RuntimePermissionsElement element, int firstRequestCode) {
 
-        return JavaFile.builder(element.getPackageName(), createTypeSpec(element, typeResolver))
+        return JavaFile.builder(element.getPackageName(), createTypeSpec(element, firstRequestCode))
                 .addFileComment(ConstantsProvider.FILE_COMMENT)
                 .build();
     }
 
 
-    private static TypeSpec createTypeSpec(RuntimePermissionsElement element,
-                                           TypeResolver typeResolver) {
+    private TypeSpec createTypeSpec(RuntimePermissionsElement element, int firstRequestCode) {
+        if (isCompact(element)) {
+            return createCompactTypeSpec(element, firstRequestCode);
+        }
         return TypeSpec.classBuilder(element.getGeneratedClassName())
-                .addModifiers(Modifier.FINAL)
-                .addFields(createFields(element.getNeedsPermissionsMethods()))
+                .addOriginatingElement(element.getElement())
+                .addModifiers(dispatcherModifiers)
+                .addFields(createFields(element, firstRequestCode))
                 .addMethod(createConstructor())
                 .addMethods(createWithCheckMethods(element))
                 .addMethods(createPermissionHandlingMethods(element))
@@ -74,57 +116,252 @@ public class JavaFileBuilder {
     }
 
 
-    private static MethodSpec createConstructor() {
+    /**
+     * Builds a dispatcher that only holds a {@code DispatcherTable} describing its methods and a
+     * trampoline calling them; the logic runs in the library's {@code DispatcherInterpreter}.
+     */
+    private TypeSpec createCompactTypeSpec(RuntimePermissionsElement element, int firstRequestCode) {
+        // The table is static, so generic targets use their raw type
+        TypeName targetType = element.getRawTypeName();
+        TypeSpec.Builder builder = TypeSpec.classBuilder(element.getGeneratedClassName())
+                .addOriginatingElement(element.getElement())
+                .addModifiers(dispatcherModifiers)
+                .addSuperinterface(ParameterizedTypeName.get(DISPATCHER_TABLE.nestedClass("Trampoline"), targetType))
+                .addField(createTableField(element, targetType, firstRequestCode))
+                .addMethod(createConstructor());
+        List<NeedsPermissionMethodElement> needsMethods = element.getNeedsPermissionsMethods();
+        for (int i = 0; i < needsMethods.size(); i++) {
+            builder.addMethod(createCompactWithCheckMethod(element, needsMethods.get(i), i));
+        }
+        MethodSpec.Builder resultMethod = MethodSpec.methodBuilder("onRequestPermissionsResult")
+                .addTypeVariables(element.getTypeVariables())
+                .addModifiers(resultMethodModifiers)
+                .returns(TypeName.VOID)
+                .addParameter(element.getTypeName(), "target")
+                .addParameter(TypeName.INT, "requestCode")
+                .addParameter(ArrayTypeName.of(TypeName.INT), "grantResults");
+        beginTraceSection(resultMethod, element, "onRequestPermissionsResult");
+        resultMethod.addStatement("$T.onRequestPermissionsResult(target, $N, requestCode, grantResults)",
+                DISPATCHER_INTERPRETER, TABLE_FIELD);
+        endTraceSection(resultMethod);
+        return builder
+                .addMethod(resultMethod.build())
+                .addMethod(createTrampolineMethod(needsMethods, targetType))
+                .build();
+    }
+
+    private FieldSpec createTableField(RuntimePermissionsElement element, TypeName targetType,
+                                       int firstRequestCode) {
+        CodeBlock.Builder permissions = CodeBlock.builder();
+        CodeBlock.Builder requestCodes = CodeBlock.builder();
+        CodeBlock.Builder flags = CodeBlock.builder();
+        List<NeedsPermissionMethodElement> needsMethods = element.getNeedsPermissionsMethods();
+        for (int i = 0; i < needsMethods.size(); i++) {
+            NeedsPermissionMethodElement needsMethod = needsMethods.get(i);
+            String separator = i == 0 ? "" : ", ";
+            if (constantsClassName != null) {
+                permissions.add(separator).add(permissionsOf(needsMethod));
+            } else if (existOnAllSdks(needsMethod.getPermissions())) {
+                permissions.add("$L$L", separator, ProcessorUtil.toString(needsMethod.getPermissions()));
+            } else {
+                permissions.add(separator).add(PermissionSdkLevels.permissionsArray(needsMethod.getPermissions(), minSdk,
+                        declaredTargetSdk));
+            }
+            requestCodes.add("$L$L", separator, firstRequestCode + i);
+            flags.add(separator).add(flagsOf(needsMethod));
+        }
+        return FieldSpec.builder(ParameterizedTypeName.get(DISPATCHER_TABLE, targetType), TABLE_FIELD,
+                Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T<>(new String[][]{$L}, new int[]{$L}, new int[]{$L}, new $N())",
+                        DISPATCHER_TABLE, permissions.build(), requestCodes.build(), flags.build(),
+                        element.getGeneratedClassName())
+                .build();
+    }
+
+    private CodeBlock flagsOf(NeedsPermissionMethodElement needsMethod) {
+        List<String> flags = new ArrayList<>();
+        if (needsMethod.getOnRationale() != null) {
+            flags.add("FLAG_RATIONALE");
+        }
+        if (needsMethod.getOnDenied() != null) {
+            flags.add("FLAG_DENIED");
+        }
+        if (needsMethod.getOnNeverAsk() != null) {
+            flags.add("FLAG_NEVER_ASK");
+        }
+        if (needsMethod.hasParameters()) {
+            flags.add("FLAG_PARAMETERS");
+        }
+        if (flags.isEmpty()) {
+            return CodeBlock.builder().add("0").build();
+        }
+        CodeBlock.Builder block = CodeBlock.builder();
+        for (int i = 0; i < flags.size(); i++) {
+            block.add(i == 0 ? "$T.$N" : " | $T.$N", DISPATCHER_TABLE, flags.get(i));
+        }
+        return block.build();
+    }
+
+    private MethodSpec createCompactWithCheckMethod(RuntimePermissionsElement element,
+                                                    NeedsPermissionMethodElement needsMethod,
+                                                    int index) {
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(needsMethod.getWithCheckMethodName())
+                .addTypeVariables(element.getTypeVariables())
+                .addModifiers(Modifier.STATIC)
+                .returns(TypeName.VOID)
+                .addParameter(element.getTypeName(), "target")
+                .addParameters(needsMethod.getParameters());
+        beginTraceSection(builder, element, needsMethod.getWithCheckMethodName());
+        if (needsMethod.hasParameters()) {
+            // An explicit array, so that a single array or null argument is not taken as the varargs
+            builder.addCode(CodeBlock.builder()
+                    .add("$T.withCheck(target, $N, $L, new Object[]{", DISPATCHER_INTERPRETER, TABLE_FIELD, index)
+                    .add(needsMethod.getArguments())
+                    .addStatement("})")
+                    .build());
+        } else {
+            builder.addStatement("$T.withCheck(target, $N, $L)", DISPATCHER_INTERPRETER, TABLE_FIELD, index);
+        }
+        endTraceSection(builder);
+        return builder.build();
+    }
+
+    /**
+     * The int-switch calling the annotated methods, keyed by {@code method << 2 | callback}.
+     */
+    private MethodSpec createTrampolineMethod(List<NeedsPermissionMethodElement> needsMethods,
+                                              TypeName targetType) {
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("call")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.VOID)
+                .addParameter(targetType, "target")
+                .addParameter(TypeName.INT, "method")
+                .addParameter(TypeName.INT, "callback")
+                .addParameter(ArrayTypeName.of(Object.class), "args")
+                .beginControlFlow("switch (method << 2 | callback)");
+        boolean uncheckedCasts = false;
+        for (int i = 0; i < needsMethods.size(); i++) {
+            NeedsPermissionMethodElement needsMethod = needsMethods.get(i);
+            uncheckedCasts |= needsMethod.hasUncheckedCasts();
+            CodeBlock.Builder arguments = CodeBlock.builder();
+            List<TypeName> castTypes = needsMethod.getCastTypes();
+            for (int p = 0; p < castTypes.size(); p++) {
+                TypeName type = castTypes.get(p);
+                arguments.add(p == 0 ? "" : ", ");
+                if (type.equals(TypeName.OBJECT)) {
+                    arguments.add("args[$L]", p);
+                } else {
+                    arguments.add("($T) args[$L]", type, p);
+                }
+            }
+            addTrampolineCase(builder, i, 0, CodeBlock.builder()
+                    .add("target.$N(", needsMethod.getMethodName()).add(arguments.build()).add(")").build());
+            if (needsMethod.getOnRationale() != null) {
+                addTrampolineCase(builder, i, 1, CodeBlock.builder().add("target.$N(($T) args[0])",
+                        needsMethod.getOnRationale().getMethodName(), ConstantsProvider.PERMISSION_REQUEST).build());
+            }
+            if (needsMethod.getOnDenied() != null) {
+                addTrampolineCase(builder, i, 2, CodeBlock.builder()
+                        .add("target.$N()", needsMethod.getOnDenied().getMethodName()).build());
+            }
+            if (needsMethod.getOnNeverAsk() != null) {
+                addTrampolineCase(builder, i, 3, CodeBlock.builder()
+                        .add("target.$N()", needsMethod.getOnNeverAsk().getMethodName()).build());
+            }
+        }
+        if (uncheckedCasts) {
+            // The arguments are cast to their erasure, and generic targets are called as raw types
+            suppressUncheckedWarnings(builder);
+        }
+        return builder
+                .addCode("default:\n")
+                .addStatement("break")
+                .endControlFlow()
+                .build();
+    }
+
+    private void addTrampolineCase(MethodSpec.Builder builder, int method, int callback, CodeBlock call) {
+        builder.addCode("case $L:\n", method << 2 | callback)
+                .addStatement("$L", call)
+                .addStatement("break");
+    }
+
+    private MethodSpec createConstructor() {
         return MethodSpec.constructorBuilder()
                 .addModifiers(Modifier.PRIVATE)
                 .build();
     }
 
 
-    private static List<MethodSpec> createWithCheckMethods(RuntimePermissionsElement element) {
+    private List<MethodSpec> createWithCheckMethods(RuntimePermissionsElement element) {
         List<MethodSpec> methods = new ArrayList<>();
-        for (ExecutableElement executableElement : element.getNeedsPermissionsMethods()) {
+        List<NeedsPermissionMethodElement> delegated = delegatesToSuper(element)
+                ? element.getDelegatedNeedsPermissionsMethods() : Collections.<NeedsPermissionMethodElement>emptyList();
+        for (NeedsPermissionMethodElement needsMethod : element.getNeedsPermissionsMethods()) {
             // For each @NeedsPermission method, create the "WithCheck" equivalent
-            methods.add(createWithCheckMethod(element, executableElement));
+            if (delegated.contains(needsMethod)) {
+                methods.add(createDelegatingWithCheckMethod(element, needsMethod));
+            } else {
+                methods.add(createWithCheckMethod(element, needsMethod));
+            }
         }
         return methods;
     }
 
+    /**
+     * A "WithCheck" method calling the one of the superclass dispatcher, which already handles
+     * the inherited method, its callbacks and its request code.
+     */
+    private MethodSpec createDelegatingWithCheckMethod(RuntimePermissionsElement element,
+                                                       NeedsPermissionMethodElement needsMethod) {
+        CodeBlock.Builder call = CodeBlock.builder()
+                .add("$T.$N(target", element.getSuperDispatcherName(), needsMethod.getWithCheckMethodName());
+        if (needsMethod.hasParameters()) {
+            call.add(", ").add(needsMethod.getArguments());
+        }
+        return MethodSpec.methodBuilder(needsMethod.getWithCheckMethodName())
+                .addTypeVariables(element.getTypeVariables())
+                .addModifiers(Modifier.STATIC)
+                .returns(TypeName.VOID)
+                .addParameter(element.getTypeName(), "target")
+                .addParameters(needsMethod.getParameters())
+                .addCode(call.addStatement(")").build())
+                .build();
+    }
+
 
-    private static List<MethodSpec> createPermissionHandlingMethods(RuntimePermissionsElement element) {
+    private List<MethodSpec> createPermissionHandlingMethods(RuntimePermissionsElement element) {
         List<MethodSpec> methods = new ArrayList<>();
-        if (hasNormalPermission(element)) {
+        if (hasRequestPermissionsResult(element)) {
             methods.add(createPermissionResultMethod(element));
         }
 
-        if (hasSystemAlertWindowPermission(element) || hasWriteSettingPermission(element)) {
+        if (hasActivityResult(element)) {
             methods.add(createOnActivityResultMethod(element));
         }
         return methods;
     }
 
-    private static List<TypeSpec> createPermissionRequestClasses(RuntimePermissionsElement element) {
+    private List<TypeSpec> createPermissionRequestClasses(RuntimePermissionsElement element) {
         List<TypeSpec> classes = new ArrayList<>();
-        List<ExecutableElement> needsPermissionsMethods = element.getNeedsPermissionsMethods();
-        for (ExecutableElement needMethods : needsPermissionsMethods) {
-            String[] value = needMethods.getAnnotation(NeedsPermission.class).value();
-            ExecutableElement onRationale = element.findOnRationaleForNeeds(value);
-            if (onRationale != null || !needMethods.getParameters().isEmpty()) {
-                classes.add(createPermissionRequestClass(element, needMethods));
+        for (NeedsPermissionMethodElement needsMethod : ownMethodsOf(element)) {
+            if (hasRequestClass(element, needsMethod)) {
+                classes.add(createPermissionRequestClass(element, needsMethod));
             }
         }
         return classes;
     }
 
-    private static TypeSpec createPermissionRequestClass(RuntimePermissionsElement element,
-                                                         ExecutableElement needsMethod) {
+    private TypeSpec createPermissionRequestClass(RuntimePermissionsElement element,
+                                                  NeedsPermissionMethodElement needsMethod) {
         // Select the superinterface of the generated class
         // based on whether or not the annotated method has parameters
-        boolean hasParameters = needsMethod.getParameters().isEmpty();
+        boolean hasParameters = !needsMethod.hasParameters();
         String superInterfaceName = hasParameters ? "PermissionRequest" : "GrantableRequest";
         TypeName targetType = element.getTypeName();
 
-        TypeSpec.Builder builder = TypeSpec.classBuilder(ProcessorUtil.permissionRequestTypeName(needsMethod))
+        TypeSpec.Builder builder = TypeSpec.classBuilder(needsMethod.getPermissionRequestTypeName())
                 .addTypeVariables(element.getTypeVariables())
                 .addSuperinterface(ClassName.get("org.jokar.permissiondispatcher.library", superInterfaceName))
                 .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
@@ -134,9 +371,9 @@ public class JavaFileBuilder {
         ParameterizedTypeName weakFieldType = ParameterizedTypeName.get(ClassName.get("java.lang.ref", "WeakReference"), targetType);
         builder.addField(weakFieldType, weakFieldName, Modifier.PRIVATE, Modifier.FINAL);
 
-        List<? extends VariableElement> parameters = needsMethod.getParameters();
-        for (VariableElement variableElement : parameters) {
-            builder.addField(TypeName.get(variableElement.asType()), variableElement.getSimpleName().toString(), Modifier.PRIVATE, Modifier.FINAL);
+        List<ParameterSpec> parameters = needsMethod.getParameters();
+        for (ParameterSpec parameter : parameters) {
+            builder.addField(parameter.type, parameter.name, Modifier.PRIVATE, Modifier.FINAL);
         }
 
         // Add constructor
@@ -146,11 +383,10 @@ public class JavaFileBuilder {
                 .addParameter(targetType, targetParam)
                 .addStatement("this.$L = new WeakReference<>($N)", weakFieldName, targetParam);
 
-        for (VariableElement variableElement : parameters) {
-            String fieldName = variableElement.getSimpleName().toString();
+        for (ParameterSpec parameter : parameters) {
             constructorBuilder
-                    .addParameter(TypeName.get(variableElement.asType()), fieldName)
-                    .addStatement("this.$L = $N", fieldName, fieldName);
+                    .addParameter(parameter)
+                    .addStatement("this.$L = $N", parameter.name, parameter.name);
         }
 
         builder.addMethod(constructorBuilder.build());
@@ -163,16 +399,15 @@ public class JavaFileBuilder {
                 .addStatement("$T target = $N.get()", targetType, weakFieldName)
                 .addStatement("if (target == null) return");
 
-        String requestCodeField = ProcessorUtil.requestCodeFieldName(needsMethod);
-        String[] value = needsMethod.getAnnotation(NeedsPermission.class).value();
+        String requestCodeField = needsMethod.getRequestCodeFieldName();
 
 
-        SensitivePermissionInterface sensitivePermissionInterface = getSensitivePermission(ADD_WITH_CHECK_BODY_MAP, value);
+        SensitivePermissionInterface sensitivePermissionInterface = sensitivePermissions.get(needsMethod.getPermissionKey());
         if (sensitivePermissionInterface != null) {
             sensitivePermissionInterface.addRequestPermissionsStatement(proceedMethod,
                     element.getClassType().getActivity(), requestCodeField);
         } else {
-            addRequestPermissionsStatement(proceedMethod, targetParam, permissionFieldName(needsMethod),
+            addRequestPermissionsStatement(proceedMethod, targetParam, permissionsOf(needsMethod),
                     requestCodeField, element.getClassType());
         }
 
@@ -185,12 +420,12 @@ public class JavaFileBuilder {
                 .addModifiers(Modifier.PUBLIC)
                 .returns(TypeName.VOID);
 
-        ExecutableElement onDenied = element.findOnDeniedForNeeds(value);
+        PermissionMethodElement onDenied = needsMethod.getOnDenied();
         if (onDenied != null) {
             cancelMethod
                     .addStatement("$T target = $N.get()", targetType, weakFieldName)
                     .addStatement("if (target == null) return")
-                    .addStatement("target.$N()", onDenied.getSimpleName().toString());
+                    .addStatement("target.$N()", onDenied.getMethodName());
         }
         builder.addMethod(cancelMethod.build());
 
@@ -210,8 +445,8 @@ public class JavaFileBuilder {
             // to compose the method call and its parameters
             grantMethod.addCode(
                     CodeBlock.builder()
-                            .add("target.$N(", needsMethod.getSimpleName().toString())
-                            .add(varargsParametersCodeBlock(needsMethod))
+                            .add("target.$N(", needsMethod.getMethodName())
+                            .add(needsMethod.getArguments())
                             .addStatement(")")
                             .build()
             );
@@ -221,31 +456,41 @@ public class JavaFileBuilder {
         return builder.build();
     }
 
-    private static MethodSpec createOnActivityResultMethod(RuntimePermissionsElement rpe) {
+    private MethodSpec createOnActivityResultMethod(RuntimePermissionsElement rpe) {
         String targetParam = "target";
         String requestCodeParam = "requestCode";
         String grantResultsParam = "grantResults";
         MethodSpec.Builder builder = MethodSpec.methodBuilder("onActivityResult")
                 .addTypeVariables(rpe.getTypeVariables())
-                .addModifiers(Modifier.STATIC)
+                .addModifiers(resultMethodModifiers)
                 .returns(TypeName.VOID)
                 .addParameter(rpe.getTypeName(), targetParam)
                 .addParameter(TypeName.INT, requestCodeParam);
 
         builder.beginControlFlow("switch ($N)", requestCodeParam);
-        List<ExecutableElement> needsPermissionsMethods = rpe.getNeedsPermissionsMethods();
-        for (ExecutableElement element : needsPermissionsMethods) {
-            String[] needsPermissionParameter = element.getAnnotation(NeedsPermission.class).value();
-            if (!containsKey(ADD_WITH_CHECK_BODY_MAP,needsPermissionParameter)) {
+        boolean uncheckedCasts = false;
+        for (NeedsPermissionMethodElement needsMethod : ownMethodsOf(rpe)) {
+            if (!sensitivePermissions.contains(needsMethod.getPermissionKey())) {
                 continue;
             }
+            uncheckedCasts |= hasUncheckedPendingCasts(rpe, needsMethod);
 
-            builder.addCode("case $N:\n", requestCodeFieldName(element));
+            builder.addCode("case $N:\n", needsMethod.getRequestCodeFieldName());
 
-            addResultCaseBody(builder, element, rpe, targetParam, grantResultsParam);
+            beginTraceSection(builder, rpe, "onActivityResult:" + needsMethod.getMethodName());
+            addResultCaseBody(builder, needsMethod, rpe, targetParam, grantResultsParam);
+            endTraceSection(builder);
+        }
+        builder.addCode("default:\n");
+        // The request codes of the superclass dispatcher are all below those of this one
+        if (delegatesToSuper(rpe) && anySensitive(rpe.getSuperDispatcherKeys())) {
+            builder.addStatement("$T.onActivityResult($N, $N)", rpe.getSuperDispatcherName(),
+                    targetParam, requestCodeParam);
+        }
+        if (uncheckedCasts) {
+            suppressUncheckedWarnings(builder);
         }
         builder
-                .addCode("default:\n")
                 .addStatement("break")
                 .endControlFlow();
 
@@ -253,13 +498,13 @@ public class JavaFileBuilder {
     }
 
 
-    private static MethodSpec createPermissionResultMethod(RuntimePermissionsElement element) {
+    private MethodSpec createPermissionResultMethod(RuntimePermissionsElement element) {
         String targetParam = "target";
         String requestCodeParam = "requestCode";
         String grantResultsParam = "grantResults";
         MethodSpec.Builder builder = MethodSpec.methodBuilder("onRequestPermissionsResult")
                 .addTypeVariables(element.getTypeVariables())
-                .addModifiers(Modifier.STATIC)
+                .addModifiers(resultMethodModifiers)
                 .returns(TypeName.VOID)
                 .addParameter(element.getTypeName(), targetParam)
                 .addParameter(TypeName.INT, requestCodeParam)
@@ -267,69 +512,110 @@ public class JavaFileBuilder {
 
         // For each @NeedsPermission method, add a switch case
         builder.beginControlFlow("switch ($N)", requestCodeParam);
-        List<ExecutableElement> needsPermissionsMethods = element.getNeedsPermissionsMethods();
-        for (ExecutableElement needsMethod : needsPermissionsMethods) {
-            String[] needsPermissionParameter = needsMethod.getAnnotation(NeedsPermission.class).value();
-
-            if (containsKey(ADD_WITH_CHECK_BODY_MAP,needsPermissionParameter)) {
+        boolean uncheckedCasts = false;
+        for (NeedsPermissionMethodElement needsMethod : ownMethodsOf(element)) {
+            if (sensitivePermissions.contains(needsMethod.getPermissionKey())) {
                 continue;
             }
+            uncheckedCasts |= hasUncheckedPendingCasts(element, needsMethod);
 
-            builder.addCode("case $N:\n", requestCodeFieldName(needsMethod));
+            builder.addCode("case $N:\n", needsMethod.getRequestCodeFieldName());
 
             // Delegate switch-case generation to implementing classes
+            beginTraceSection(builder, element, "onRequestPermissionsResult:" + needsMethod.getMethodName());
             addResultCaseBody(builder, needsMethod, element, targetParam, grantResultsParam);
+            endTraceSection(builder);
 
         }
 
-        // Add the default case
+        // Add the default case, which hands the codes of the superclass dispatcher to it
+        builder.addCode("default:\n");
+        if (delegatesToSuper(element) && anyNotSensitive(element.getSuperDispatcherKeys())) {
+            builder.addStatement("$T.onRequestPermissionsResult($N, $N, $N)", element.getSuperDispatcherName(),
+                    targetParam, requestCodeParam, grantResultsParam);
+        }
+        if (uncheckedCasts) {
+            suppressUncheckedWarnings(builder);
+        }
         builder
-                .addCode("default:\n")
                 .addStatement("break")
                 .endControlFlow();
 
         return builder.build();
     }
 
-    private static void addResultCaseBody(MethodSpec.Builder builder,
-                                          ExecutableElement needsMethod,
-                                          RuntimePermissionsElement rpe,
-                                          String targetParam,
-                                          String grantResultsParam) {
+    private void addResultCaseBody(MethodSpec.Builder builder,
+                                   NeedsPermissionMethodElement needsMethod,
+                                   RuntimePermissionsElement rpe,
+                                   String targetParam,
+                                   String grantResultsParam) {
 
-        String[] needsPermissionParameter = needsMethod.getAnnotation(NeedsPermission.class).value();
-        ExecutableElement onDenied = rpe.findOnDeniedForNeeds(needsPermissionParameter);
+        PermissionMethodElement onDenied = needsMethod.getOnDenied();
         boolean hasDenied = onDenied != null;
-        String permissionField = ProcessorUtil.permissionFieldName(needsMethod);
-        if (!containsKey(ADD_WITH_CHECK_BODY_MAP,needsPermissionParameter)) {
-            builder.beginControlFlow("if ($T.getTargetSdkVersion($N) < 23 && !$T.hasSelfPermissions($N, $N))",
-                    PERMISSION_UTILS, rpe.getClassType().getActivity(), PERMISSION_UTILS, rpe.getClassType().getActivity(), permissionField);
+        CodeBlock permissions = permissionsOf(needsMethod);
+        SensitivePermissionInterface sensitivePermissionInterface = sensitivePermissions.get(needsMethod.getPermissionKey());
+        String activityVar = rpe.getClassType().getActivity();
+        // Apps targeting 23 or later never take the pre-23 fallback, so it is only generated
+        // when the target SDK is unknown or lower
+        if (sensitivePermissionInterface == null && targetSdk < PermissionSdkLevels.RUNTIME_PERMISSIONS_SDK) {
+            if (targetSdk == ProcessorOptions.UNKNOWN_SDK) {
+                builder.beginControlFlow("if ($T.getTargetSdkVersion($N) < 23 && !$L)",
+                        PERMISSION_UTILS, activityVar, hasSelfPermissionsCall(needsMethod, activityVar));
+            } else {
+                builder.beginControlFlow("if (!$L)", hasSelfPermissionsCall(needsMethod, activityVar));
+            }
             if (hasDenied) {
-                builder.addStatement("$N.$N()", targetParam, onDenied != null ? onDenied.getSimpleName().toString() : "");
+                builder.addStatement("$N.$N()", targetParam, onDenied.getMethodName());
+            }
+            // The request is over on this path as well, so its pending arguments are dropped
+            if (needsMethod.hasParameters()) {
+                builder.addStatement("$N = null", needsMethod.getPendingRequestFieldName());
             }
             builder.addStatement("return");
             builder.endControlFlow();
         }
         // Add the conditional for "permission verified"
-        SensitivePermissionInterface sensitivePermissionInterface = getSensitivePermission(ADD_WITH_CHECK_BODY_MAP,needsPermissionParameter);
         if (sensitivePermissionInterface != null) {
             sensitivePermissionInterface.addHasSelfPermissionsCondition(builder, rpe.getClassType()
-                    .getActivity(), permissionField);
+                    .getActivity(), permissions);
         } else {
-            builder.beginControlFlow("if ($T.verifyPermissions($N))", PERMISSION_UTILS, grantResultsParam);
+            if (registryClassName != null) {
+                builder.beginControlFlow("if ($T.$N.verifyPermissions($L, $N))", registryClassName,
+                        PermissionRegistryBuilder.STATE_FIELD, maskOf(needsMethod), grantResultsParam);
+            } else {
+                builder.beginControlFlow("if ($T.verifyPermissions($N))", PERMISSION_UTILS, grantResultsParam);
+            }
         }
         // Based on whether or not the method has parameters, delegate to the "pending request" object or invoke the method directly
-        boolean hasParameters = needsMethod.getParameters().isEmpty();
-        if (!hasParameters) {
-            String pendingField = ProcessorUtil.pendingRequestFieldName(needsMethod);
+        boolean hasParameters = !needsMethod.hasParameters();
+        boolean hasRequestClass = hasRequestClass(rpe, needsMethod);
+        if (!hasParameters && hasRequestClass) {
+            String pendingField = needsMethod.getPendingRequestFieldName();
             builder.beginControlFlow("if ($N != null)", pendingField);
             builder.addStatement("$N.grant()", pendingField);
             builder.endControlFlow();
+        } else if (!hasParameters) {
+            // The arguments kept by the "WithCheck" method, unless the dispatcher was reset since
+            String pendingField = needsMethod.getPendingRequestFieldName();
+            CodeBlock.Builder arguments = CodeBlock.builder();
+            List<TypeName> castTypes = needsMethod.getCastTypes();
+            for (int i = 0; i < castTypes.size(); i++) {
+                TypeName type = castTypes.get(i);
+                arguments.add(i == 0 ? "" : ", ");
+                if (type.equals(TypeName.OBJECT)) {
+                    arguments.add("$N[$L]", pendingField, i);
+                } else {
+                    arguments.add("($T) $N[$L]", type, pendingField, i);
+                }
+            }
+            builder.beginControlFlow("if ($N != null)", pendingField);
+            builder.addStatement("$N.$N($L)", targetParam, needsMethod.getMethodName(), arguments.build());
+            builder.endControlFlow();
         } else {
-            builder.addStatement("target.$N()", needsMethod.getSimpleName().toString());
+            builder.addStatement("target.$N()", needsMethod.getMethodName());
         }
         // Add the conditional for "permission denied" and/or "never ask again", if present
-        ExecutableElement onNeverAsk = rpe.findOnNeverAskForNeeds(needsPermissionParameter);
+        PermissionMethodElement onNeverAsk = needsMethod.getOnNeverAsk();
         boolean hasNeverAsk = onNeverAsk != null;
 
         if (hasDenied || hasNeverAsk) {
@@ -337,8 +623,8 @@ public class JavaFileBuilder {
         }
         if (hasNeverAsk) {
             // Split up the "else" case with another if condition checking for "never ask again" first
-            addShouldShowRequestPermissionRationaleCondition(builder, targetParam, permissionFieldName(needsMethod), false, rpe.getClassType());
-            builder.addStatement("target.$N()", onNeverAsk != null ? onNeverAsk.getSimpleName().toString() : "");
+            addShouldShowRequestPermissionRationaleCondition(builder, targetParam, needsMethod, false, rpe.getClassType());
+            builder.addStatement("target.$N()", onNeverAsk.getMethodName());
 
             // If a "permission denied" is present as well, go into an else case, otherwise close this temporary branch
             if (hasDenied) {
@@ -350,7 +636,7 @@ public class JavaFileBuilder {
 
         if (hasDenied) {
             // Add the "permissionDenied" statement
-            builder.addStatement("$N.$N()", targetParam, onDenied != null ? onDenied.getSimpleName().toString() : "");
+            builder.addStatement("$N.$N()", targetParam, onDenied.getMethodName());
 
             // Close the additional control flow potentially opened by a "never ask again" method
             if (hasNeverAsk) {
@@ -362,99 +648,137 @@ public class JavaFileBuilder {
 
         // Remove the temporary pending request field, in case it was used for a method with parameters
         if (!hasParameters) {
-            builder.addStatement("$N = null", ProcessorUtil.pendingRequestFieldName(needsMethod));
+            builder.addStatement("$N = null", needsMethod.getPendingRequestFieldName());
         }
         builder.addStatement("break");
     }
 
 
-    private static MethodSpec createWithCheckMethod(RuntimePermissionsElement element,
-                                                    ExecutableElement method) {
+    private MethodSpec createWithCheckMethod(RuntimePermissionsElement element,
+                                             NeedsPermissionMethodElement method) {
         String targetParam = "target";
 
-        MethodSpec.Builder builder = MethodSpec.methodBuilder(withCheckMethodName(method))
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(method.getWithCheckMethodName())
                 .addTypeVariables(element.getTypeVariables())
                 .addModifiers(Modifier.STATIC)
                 .returns(TypeName.VOID)
-                .addParameter(element.getTypeName(), targetParam);
-
-        // If the method has parameters, add those as well
-        List<? extends VariableElement> parameters = method.getParameters();
-        for (VariableElement element1 : parameters) {
-            builder.addParameter(TypeName.get(element1.asType()), element1.getSimpleName().toString());
-        }
+                .addParameter(element.getTypeName(), targetParam)
+                // If the method has parameters, add those as well
+                .addParameters(method.getParameters());
 
         // Delegate method body generation to implementing classes
+        beginTraceSection(builder, element, method.getWithCheckMethodName());
         addWithCheckBody(builder, method, element, targetParam);
+        endTraceSection(builder);
         return builder.build();
     }
 
-    private static void addWithCheckBody(MethodSpec.Builder builder,
-                                         ExecutableElement needsMethod,
-                                         RuntimePermissionsElement element,
-                                         String targetParam) {
+    /**
+     * Opens a trace section, closed by {@link #endTraceSection(MethodSpec.Builder)} in a
+     * {@code finally} block, when tracing. The name is a literal, e.g.
+     * {@code "MainActivityPermissionsDispatcher.showCameraWithCheck"}, so nothing is built at runtime.
+     */
+    private void beginTraceSection(MethodSpec.Builder builder, RuntimePermissionsElement element, String section) {
+        if (!trace) {
+            return;
+        }
+        String name = element.getGeneratedClassName() + "." + section;
+        if (name.length() > MAX_SECTION_NAME_LENGTH) {
+            name = name.substring(0, MAX_SECTION_NAME_LENGTH);
+        }
+        addTraceStatement(builder, CodeBlock.of("$T.beginSection($S)", TRACE, name));
+        builder.beginControlFlow("try");
+    }
+
+    private void endTraceSection(MethodSpec.Builder builder) {
+        if (!trace) {
+            return;
+        }
+        builder.nextControlFlow("finally");
+        addTraceStatement(builder, CodeBlock.of("$T.endSection()", TRACE));
+        builder.endControlFlow();
+    }
+
+    private void addTraceStatement(MethodSpec.Builder builder, CodeBlock statement) {
+        if (minSdk >= TRACE_SDK) {
+            builder.addStatement("$L", statement);
+        } else {
+            builder.beginControlFlow("if ($T.VERSION.SDK_INT >= $L)", ConstantsProvider.BUILD, TRACE_SDK)
+                    .addStatement("$L", statement)
+                    .endControlFlow();
+        }
+    }
+
+    private void addWithCheckBody(MethodSpec.Builder builder,
+                                  NeedsPermissionMethodElement needsMethod,
+                                  RuntimePermissionsElement element,
+                                  String targetParam) {
         // Create field names for the constants to use
-        String requestCodeField = requestCodeFieldName(needsMethod);
-        String permissionField = permissionFieldName(needsMethod);
+        String requestCodeField = needsMethod.getRequestCodeFieldName();
+        CodeBlock permissions = permissionsOf(needsMethod);
 
         // Add the conditional for when permission has already been granted
-        String[] needsPermissionParameter = needsMethod.getAnnotation(NeedsPermission.class).value();
         String activityVar = element.getClassType().getActivity();
-        SensitivePermissionInterface sensitivePermissionInterface = getSensitivePermission(ADD_WITH_CHECK_BODY_MAP,needsPermissionParameter);
+        SensitivePermissionInterface sensitivePermissionInterface = sensitivePermissions.get(needsMethod.getPermissionKey());
         if (sensitivePermissionInterface != null) {
 
-            sensitivePermissionInterface.addHasSelfPermissionsCondition(builder, activityVar, permissionField);
+            sensitivePermissionInterface.addHasSelfPermissionsCondition(builder, activityVar, permissions);
         } else {
-            builder.beginControlFlow("if ($T.hasSelfPermissions($N, $N))", PERMISSION_UTILS,
-                    activityVar, permissionField);
+            builder.beginControlFlow("if ($L)", hasSelfPermissionsCall(needsMethod, activityVar));
         }
 
         builder.addCode(CodeBlock.builder()
-                .add("$N.$N(", targetParam, needsMethod.getSimpleName().toString())
-                .add(varargsParametersCodeBlock(needsMethod))
+                .add("$N.$N(", targetParam, needsMethod.getMethodName())
+                .add(needsMethod.getArguments())
                 .addStatement(")")
                 .build()
         );
         builder.nextControlFlow("else");
 
         // Add the conditional for "OnShowRationale", if present
-        ExecutableElement onRationale = element.findOnRationaleForNeeds(needsPermissionParameter);
-        boolean hasParameters = needsMethod.getParameters().isEmpty();
-        if (!hasParameters) {
+        PermissionMethodElement onRationale = needsMethod.getOnRationale();
+        boolean hasParameters = !needsMethod.hasParameters();
+        if (!hasParameters && !hasRequestClass(element, needsMethod)) {
+            // Without a request class, keep the arguments for the result case in an array
+            builder.addCode(CodeBlock.builder()
+                    .add("$N = new Object[]{", needsMethod.getPendingRequestFieldName())
+                    .add(needsMethod.getArguments())
+                    .addStatement("}")
+                    .build());
+        } else if (!hasParameters) {
             // If the method has parameters, precede the potential OnRationale call with
             // an instantiation of the temporary Request object
             CodeBlock.Builder varargsCall = CodeBlock.builder()
                     .add("$N = new $N($N, ",
-                            ProcessorUtil.pendingRequestFieldName(needsMethod),
-                            ProcessorUtil.permissionRequestTypeName(needsMethod),
+                            needsMethod.getPendingRequestFieldName(),
+                            needsMethod.getPermissionRequestTypeName(),
                             targetParam
                     )
-                    .add(varargsParametersCodeBlock(needsMethod))
+                    .add(needsMethod.getArguments())
                     .addStatement(")");
             builder.addCode(varargsCall.build());
         }
 
         if (onRationale != null) {
-            addShouldShowRequestPermissionRationaleCondition(builder, targetParam, permissionField,
+            addShouldShowRequestPermissionRationaleCondition(builder, targetParam, needsMethod,
                     true, element.getClassType());
             if (!hasParameters) {
                 // For methods with parameters, use the PermissionRequest instantiated above
-                builder.addStatement("$N.$N($N)", targetParam, onRationale.getSimpleName().toString(),
-                        ProcessorUtil.pendingRequestFieldName(needsMethod));
+                builder.addStatement("$N.$N($N)", targetParam, onRationale.getMethodName(),
+                        needsMethod.getPendingRequestFieldName());
             } else {
                 // Otherwise, create a new PermissionRequest on-the-fly
-                builder.addStatement("$N.$N(new $N($N))", targetParam, onRationale.getSimpleName().toString(),
-                        ProcessorUtil.permissionRequestTypeName(needsMethod), targetParam);
+                builder.addStatement("$N.$N(new $N($N))", targetParam, onRationale.getMethodName(),
+                        needsMethod.getPermissionRequestTypeName(), targetParam);
             }
             builder.nextControlFlow("else");
         }
 
         // Add the branch for "request permission"
-        SensitivePermissionInterface sensitivePermissionInterface1 = getSensitivePermission(ADD_WITH_CHECK_BODY_MAP,needsPermissionParameter);
-        if (sensitivePermissionInterface1 != null) {
+        if (sensitivePermissionInterface != null) {
             sensitivePermissionInterface.addRequestPermissionsStatement(builder, activityVar, requestCodeField);
         } else {
-            addRequestPermissionsStatement(builder, targetParam, permissionField, requestCodeField,
+            addRequestPermissionsStatement(builder, targetParam, permissions, requestCodeField,
                     element.getClassType());
         }
         if (onRationale != null) {
@@ -466,102 +790,232 @@ public class JavaFileBuilder {
     }
 
 
-    private static List<FieldSpec> createFields(List<ExecutableElement> needsPermissionsMethods) {
+    private List<FieldSpec> createFields(RuntimePermissionsElement rpe, int firstRequestCode) {
         List<FieldSpec> fields = new ArrayList<>();
-        int index = 0;
-        for (ExecutableElement element : needsPermissionsMethods) {
+        int index = firstRequestCode;
+        for (NeedsPermissionMethodElement element : ownMethodsOf(rpe)) {
             // For each method annotated with @NeedsPermission, add REQUEST integer and PERMISSION String[] fields
-            fields.add(createRequestCodeField(requestCodeFieldName(element), index));
+            fields.add(createRequestCodeField(element.getRequestCodeFieldName(), index));
 
-            String[] value = element.getAnnotation(NeedsPermission.class).value();
-            fields.add(createPermissionField(permissionFieldName(element), value));
+            // With a shared constants class, the permissions are read from there instead
+            if (constantsClassName == null) {
+                fields.add(createPermissionField(element.getPermissionFieldName(), element.getPermissions()));
+            }
 
-            if (!element.getParameters().isEmpty()) {
-                fields.add(createPendingRequestField(element));
+            if (element.hasParameters()) {
+                fields.add(createPendingRequestField(element, hasRequestClass(rpe, element)));
             }
             index++;
         }
         return fields;
     }
 
-    private static FieldSpec createPendingRequestField(ExecutableElement element) {
-
-        return FieldSpec.builder(ClassName.get("org.jokar.permissiondispatcher.library", "GrantableRequest"),
-                ConstantsProvider.GEN_PENDING_PREFIX + element.getSimpleName().toString().toUpperCase())
+    /**
+     * The pending request of a method with parameters: its request object, or the array of its
+     * arguments when it has no request class.
+     */
+    private FieldSpec createPendingRequestField(NeedsPermissionMethodElement element, boolean hasRequestClass) {
+        TypeName type = hasRequestClass ? ClassName.get("org.jokar.permissiondispatcher.library", "GrantableRequest")
+                : ArrayTypeName.of(Object.class);
+        return FieldSpec.builder(type, element.getPendingRequestFieldName())
                 .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
                 .build();
     }
 
-    private static FieldSpec createRequestCodeField(String name, int index) {
+    private FieldSpec createRequestCodeField(String name, int index) {
         return FieldSpec
                 .builder(int.class, name, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
                 .initializer("$L", index)
                 .build();
     }
 
-    private static FieldSpec createPermissionField(String name, String... value) {
+    private FieldSpec createPermissionField(String name, String... value) {
         return FieldSpec
                 .builder(String[].class, name)
                 .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
-                .initializer("$N", "new String[]" + ProcessorUtil.toString(value))
+                .initializer(PermissionSdkLevels.permissionsArray(value, minSdk, declaredTargetSdk))
                 .build();
     }
 
-    private static void addShouldShowRequestPermissionRationaleCondition(MethodSpec.Builder builder,
-                                                                         String targetParam,
-                                                                         String permissionField,
-                                                                         Boolean isPositiveCondition,
-                                                                         ClassType classType) {
+    private boolean existOnAllSdks(String[] permissions) {
+        for (String permission : permissions) {
+            if (PermissionSdkLevels.existsOnDevice(permission, minSdk, declaredTargetSdk) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addShouldShowRequestPermissionRationaleCondition(MethodSpec.Builder builder,
+                                                                  String targetParam,
+                                                                  NeedsPermissionMethodElement needsMethod,
+                                                                  Boolean isPositiveCondition,
+                                                                  ClassType classType) {
+        String activity;
         if (classType == ClassType.ACTIVITY) {
-            builder.beginControlFlow("if ($N$T.shouldShowRequestPermissionRationale($N, $N))",
-                    isPositiveCondition ? "" : "!", PERMISSION_UTILS, targetParam, permissionField);
+            activity = targetParam;
         } else if (classType == ClassType.V4FRAGMENT) {
-            builder.beginControlFlow("if ($N$T.shouldShowRequestPermissionRationale($N.getActivity(), $N))", isPositiveCondition ? "" : "!",
-                    PERMISSION_UTILS, targetParam, permissionField);
-
+            activity = targetParam + ".getActivity()";
+        } else {
+            return;
+        }
+        if (registryClassName != null) {
+            builder.beginControlFlow("if ($N$T.$N.shouldShowRequestPermissionRationale($L, $L))",
+                    isPositiveCondition ? "" : "!", registryClassName, PermissionRegistryBuilder.STATE_FIELD,
+                    activity, maskOf(needsMethod));
+        } else {
+            builder.beginControlFlow("if ($N$T.shouldShowRequestPermissionRationale($L, $L))",
+                    isPositiveCondition ? "" : "!", PERMISSION_UTILS, activity, permissionsOf(needsMethod));
         }
     }
 
-    private static void addRequestPermissionsStatement(MethodSpec.Builder builder, String targetParam,
-                                                       String permissionField, String requestCodeField,
-                                                       ClassType classType) {
+    private void addRequestPermissionsStatement(MethodSpec.Builder builder, String targetParam,
+                                                CodeBlock permissions, String requestCodeField,
+                                                ClassType classType) {
         if (classType == ClassType.ACTIVITY) {
-            builder.addStatement("$T.requestPermissions($N, $N, $N)", ACTIVITY_COMPAT,
-                    targetParam, permissionField, requestCodeField);
+            builder.addStatement("$T.requestPermissions($N, $L, $N)", ACTIVITY_COMPAT,
+                    targetParam, permissions, requestCodeField);
         } else if (classType == ClassType.V4FRAGMENT) {
-            builder.addStatement("$N.requestPermissions($N, $N)", targetParam, permissionField, requestCodeField);
+            builder.addStatement("$N.requestPermissions($L, $N)", targetParam, permissions, requestCodeField);
 
         }
     }
 
-    private static boolean hasNormalPermission(RuntimePermissionsElement element) {
+    /**
+     * The expression reading the permissions of the method: the shared constant when a
+     * constants class is configured, otherwise the dispatcher's own field.
+     */
+    private CodeBlock permissionsOf(NeedsPermissionMethodElement needsMethod) {
+        if (constantsClassName != null) {
+            return CodeBlock.of("$T.$N", constantsClassName,
+                    PermissionConstantsBuilder.fieldNameOf(needsMethod.getPermissionKey()));
+        }
+        return CodeBlock.of("$N", needsMethod.getPermissionFieldName());
+    }
 
-        List<ExecutableElement> needsPermissionsMethods = element.getNeedsPermissionsMethods();
-        for (ExecutableElement executableElement : needsPermissionsMethods) {
-            List<String> permissionValue = getValueFromAnnotation(executableElement, NeedsPermission.class);
-            if (!permissionValue.contains(MANIFEST_SYSTEM_ALERT_WINDOW) && !permissionValue.contains(MANIFEST_WRITE_SETTING)) {
-                return true;
-            }
+    /**
+     * The mask of the permissions of the method in the registry, e.g. {@code Registry.A | Registry.B}.
+     * The bits are constants, so javac folds the mask into a single literal.
+     */
+    private CodeBlock maskOf(NeedsPermissionMethodElement needsMethod) {
+        CodeBlock.Builder mask = CodeBlock.builder();
+        String[] permissions = needsMethod.getPermissionKey().getPermissions();
+        for (int i = 0; i < permissions.length; i++) {
+            mask.add(i == 0 ? "$T.$N" : " | $T.$N", registryClassName,
+                    PermissionRegistryBuilder.fieldNameOf(permissions[i]));
+        }
+        return mask.build();
+    }
 
+    /**
+     * The check for the permissions of the method: a mask check on the registry when one is
+     * configured, otherwise {@code PermissionUtils}. The permission arrays only hold the
+     * permissions that exist on the device, so there is no per-permission SDK lookup left.
+     */
+    private CodeBlock hasSelfPermissionsCall(NeedsPermissionMethodElement needsMethod, String activityVar) {
+        if (registryClassName != null) {
+            return CodeBlock.of("$T.$N.hasSelfPermissions($N, $L)", registryClassName,
+                    PermissionRegistryBuilder.STATE_FIELD, activityVar, maskOf(needsMethod));
         }
-        return false;
+        return CodeBlock.of("$T.hasExistingSelfPermissions($N, $L)", PERMISSION_UTILS, activityVar,
+                permissionsOf(needsMethod));
     }
 
-    private static boolean hasSystemAlertWindowPermission(RuntimePermissionsElement rpe) {
-        return isDefinePermission(rpe, MANIFEST_SYSTEM_ALERT_WINDOW);
+    /**
+     * Whether the method needs its {@code PermissionRequest} class: to hand to its
+     * {@code @OnShowRationale} method, or to hold the arguments of a method of a generic class,
+     * as the static dispatcher cannot name its type variables. Other methods with parameters keep
+     * their arguments in a single {@code Object[]}, and the others need nothing past the check and
+     * the request.
+     */
+    private boolean hasRequestClass(RuntimePermissionsElement element, NeedsPermissionMethodElement needsMethod) {
+        return needsMethod.getOnRationale() != null
+                || needsMethod.hasParameters() && !element.getTypeVariables().isEmpty();
     }
 
-    private static boolean hasWriteSettingPermission(RuntimePermissionsElement rpe) {
+    /**
+     * Whether the result case of the method passes an argument kept in its {@code Object[]} with a
+     * cast that erasure made unchecked.
+     */
+    private boolean hasUncheckedPendingCasts(RuntimePermissionsElement element,
+                                             NeedsPermissionMethodElement needsMethod) {
+        return needsMethod.hasUncheckedCasts() && !hasRequestClass(element, needsMethod);
+    }
+
+    private void suppressUncheckedWarnings(MethodSpec.Builder builder) {
+        builder.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                .addMember("value", "$S", "unchecked")
+                .build());
+    }
 
-        return isDefinePermission(rpe, MANIFEST_WRITE_SETTING);
+    /**
+     * Whether the element gets a compact dispatcher. Settings-based permissions are requested
+     * through onActivityResult, which the interpreter does not handle, so those classes keep the
+     * regular dispatcher.
+     */
+    private boolean isCompact(RuntimePermissionsElement element) {
+        return compact && !anySensitive(keysOf(element.getNeedsPermissionsMethods()));
+    }
+
+    /**
+     * Whether the dispatcher leaves the methods the superclass dispatcher handles to it. Compact
+     * dispatchers handle every method in their own table.
+     */
+    private boolean delegatesToSuper(RuntimePermissionsElement element) {
+        return element.getSuperDispatcherName() != null && !isCompact(element);
+    }
+
+    /**
+     * The first request code of the dispatcher when the module does not allocate them: 0, or the
+     * code after those of the superclass dispatcher it calls.
+     */
+    int getDefaultFirstRequestCode(RuntimePermissionsElement element) {
+        return delegatesToSuper(element) ? element.getRequestCodeOffset() : 0;
     }
 
+    /**
+     * The methods the dispatcher handles itself, with a request code and fields of their own.
+     */
+    List<NeedsPermissionMethodElement> ownMethodsOf(RuntimePermissionsElement element) {
+        return delegatesToSuper(element) ? element.getOwnNeedsPermissionsMethods() : element.getNeedsPermissionsMethods();
+    }
+
+    /**
+     * Whether the dispatcher of the element has an {@code onRequestPermissionsResult} method.
+     */
+    boolean hasRequestPermissionsResult(RuntimePermissionsElement element) {
+        return anyNotSensitive(keysOf(ownMethodsOf(element)))
+                || delegatesToSuper(element) && anyNotSensitive(element.getSuperDispatcherKeys());
+    }
+
+    /**
+     * Whether the dispatcher of the element has an {@code onActivityResult} method.
+     */
+    boolean hasActivityResult(RuntimePermissionsElement element) {
+        return anySensitive(keysOf(ownMethodsOf(element)))
+                || delegatesToSuper(element) && anySensitive(element.getSuperDispatcherKeys());
+    }
+
+    private static List<PermissionKey> keysOf(List<NeedsPermissionMethodElement> needsMethods) {
+        List<PermissionKey> keys = new ArrayList<>(needsMethods.size());
+        for (NeedsPermissionMethodElement needsMethod : needsMethods) {
+            keys.add(needsMethod.getPermissionKey());
+        }
+        return keys;
+    }
+
+    private boolean anySensitive(List<PermissionKey> keys) {
+        for (PermissionKey key : keys) {
+            if (sensitivePermissions.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-    private static boolean isDefinePermission(RuntimePermissionsElement rpe, String[] permissionName) {
-        List<ExecutableElement> needsPermissionsMethods = rpe.getNeedsPermissionsMethods();
-        for (ExecutableElement executableElement : needsPermissionsMethods) {
-            List<String> permissionValue = getValueFromAnnotation(executableElement, NeedsPermission.class);
-            if (permissionValue.contains(permissionName)) {
+    private boolean anyNotSensitive(List<PermissionKey> keys) {
+        for (PermissionKey key : keys) {
+            if (!sensitivePermissions.contains(key)) {
                 return true;
             }
         }
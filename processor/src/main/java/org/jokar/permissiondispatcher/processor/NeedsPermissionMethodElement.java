@@ -0,0 +1,174 @@
+package org.jokar.permissiondispatcher.processor;
+
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.TypeName;
+
+import org.jokar.permissiondispatcher.processor.utils.ProcessorUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * A {@code @NeedsPermission} method with its matched callbacks and everything the
+ * code generator needs to know about it.
+ * <p>
+ * Instances are immutable and built once per method; {@link JavaFileBuilder} only reads from them.
+ */
+public final class NeedsPermissionMethodElement {
+
+    private final PermissionMethodElement method;
+    private final PermissionMethodElement onRationale;
+    private final PermissionMethodElement onDenied;
+    private final PermissionMethodElement onNeverAsk;
+    private final List<ParameterSpec> parameters;
+    private final List<TypeName> castTypes;
+    private final boolean uncheckedCasts;
+    private final CodeBlock arguments;
+
+    private final String requestCodeFieldName;
+    private final String permissionFieldName;
+    private final String pendingRequestFieldName;
+    private final String permissionRequestTypeName;
+    private final String withCheckMethodName;
+
+    public NeedsPermissionMethodElement(PermissionMethodElement method,
+                                        PermissionMethodElement onRationale,
+                                        PermissionMethodElement onDenied,
+                                        PermissionMethodElement onNeverAsk) {
+        this(method, onRationale, onDenied, onNeverAsk, null);
+    }
+
+    /**
+     * @param parameterTypes the parameter types of the method as a member of the annotated class,
+     *                       when it is inherited from a generic superclass; {@code null} to use the
+     *                       declared types
+     */
+    public NeedsPermissionMethodElement(PermissionMethodElement method,
+                                        PermissionMethodElement onRationale,
+                                        PermissionMethodElement onDenied,
+                                        PermissionMethodElement onNeverAsk,
+                                        List<? extends TypeMirror> parameterTypes) {
+        this.method = method;
+        this.onRationale = onRationale;
+        this.onDenied = onDenied;
+        this.onNeverAsk = onNeverAsk;
+
+        ExecutableElement element = method.getElement();
+        List<ParameterSpec> parameters = new ArrayList<>();
+        List<TypeName> castTypes = new ArrayList<>();
+        boolean uncheckedCasts = false;
+        List<? extends VariableElement> variableElements = element.getParameters();
+        for (int i = 0; i < variableElements.size(); i++) {
+            VariableElement variableElement = variableElements.get(i);
+            TypeMirror type = parameterTypes == null ? variableElement.asType() : parameterTypes.get(i);
+            TypeName typeName = TypeName.get(type);
+            parameters.add(ParameterSpec.builder(typeName, variableElement.getSimpleName().toString()).build());
+            TypeName castType = ProcessorUtil.erasure(type).box();
+            castTypes.add(castType);
+            uncheckedCasts |= !castType.equals(typeName.box());
+        }
+        this.parameters = Collections.unmodifiableList(parameters);
+        this.castTypes = Collections.unmodifiableList(castTypes);
+        this.uncheckedCasts = uncheckedCasts;
+        this.arguments = ProcessorUtil.varargsParametersCodeBlock(element);
+
+        this.requestCodeFieldName = ProcessorUtil.requestCodeFieldName(element);
+        this.permissionFieldName = ProcessorUtil.permissionFieldName(element);
+        this.pendingRequestFieldName = ProcessorUtil.pendingRequestFieldName(element);
+        this.permissionRequestTypeName = ProcessorUtil.permissionRequestTypeName(element);
+        this.withCheckMethodName = ProcessorUtil.withCheckMethodName(element);
+    }
+
+    public String getMethodName() {
+        return method.getMethodName();
+    }
+
+    public String[] getPermissions() {
+        return method.getPermissions();
+    }
+
+    public List<String> getPermissionList() {
+        return method.getPermissionList();
+    }
+
+    public PermissionKey getPermissionKey() {
+        return method.getPermissionKey();
+    }
+
+    /**
+     * Returns the matching {@code @OnShowRationale} method, or {@code null} if there is none.
+     */
+    public PermissionMethodElement getOnRationale() {
+        return onRationale;
+    }
+
+    /**
+     * Returns the matching {@code @OnPermissionDenied} method, or {@code null} if there is none.
+     */
+    public PermissionMethodElement getOnDenied() {
+        return onDenied;
+    }
+
+    /**
+     * Returns the matching {@code @OnNeverAskAgain} method, or {@code null} if there is none.
+     */
+    public PermissionMethodElement getOnNeverAsk() {
+        return onNeverAsk;
+    }
+
+    /**
+     * The erased, boxed parameter types, which the arguments kept as {@code Object} are cast to.
+     */
+    public List<TypeName> getCastTypes() {
+        return castTypes;
+    }
+
+    /**
+     * Whether a type in {@link #getCastTypes()} lost type arguments or a type variable to erasure,
+     * so passing the cast argument is an unchecked conversion.
+     */
+    public boolean hasUncheckedCasts() {
+        return uncheckedCasts;
+    }
+
+    public List<ParameterSpec> getParameters() {
+        return parameters;
+    }
+
+    public boolean hasParameters() {
+        return !parameters.isEmpty();
+    }
+
+    /**
+     * The parameter names joined as a call argument list, e.g. {@code url, index}.
+     */
+    public CodeBlock getArguments() {
+        return arguments;
+    }
+
+    public String getRequestCodeFieldName() {
+        return requestCodeFieldName;
+    }
+
+    public String getPermissionFieldName() {
+        return permissionFieldName;
+    }
+
+    public String getPendingRequestFieldName() {
+        return pendingRequestFieldName;
+    }
+
+    public String getPermissionRequestTypeName() {
+        return permissionRequestTypeName;
+    }
+
+    public String getWithCheckMethodName() {
+        return withCheckMethodName;
+    }
+}
@@ -0,0 +1,118 @@
+package org.jokar.permissiondispatcher.processor;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeSpec;
+
+import org.jokar.permissiondispatcher.processor.event.ConstantsProvider;
+import org.jokar.permissiondispatcher.processor.helper.PermissionSdkLevels;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Collects the permission sets of a module and builds the constants class configured with
+ * {@link ProcessorOptions#CONSTANTS}: one {@code String[]} per distinct set, shared by every
+ * dispatcher instead of each dispatcher allocating its own copy.
+ * <p>
+ * The constants class is its own holder: the JVM initializes it the first time a dispatcher
+ * reads one of its fields, so the arrays are allocated once and only when permissions are
+ * actually used. Not thread-safe; only use it on the processing thread.
+ */
+final class PermissionConstantsBuilder {
+
+    private static final String ANDROID_PERMISSION_PREFIX = "android.permission.";
+
+    private final ClassName className;
+    private final int minSdk;
+    private final int targetSdk;
+    // Sorted by field name, so the generated class does not depend on round or element order
+    private final Map<String, PermissionKey> constants = new TreeMap<>();
+    private final List<TypeElement> originatingElements = new ArrayList<>();
+
+    /**
+     * @param minSdk    the min SDK of the module, or {@link ProcessorOptions#UNKNOWN_SDK}
+     * @param targetSdk the target SDK of the module, or {@link ProcessorOptions#UNKNOWN_SDK}
+     */
+    PermissionConstantsBuilder(ClassName className, int minSdk, int targetSdk) {
+        this.className = className;
+        this.minSdk = minSdk;
+        this.targetSdk = targetSdk;
+    }
+
+    ClassName getClassName() {
+        return className;
+    }
+
+    /**
+     * Name of the constant holding the given permissions, e.g. {@code READ_CONTACTS__WRITE_CONTACTS}.
+     * It only depends on the permissions, so dispatchers can reference the constant before the
+     * constants class is built.
+     */
+    static String fieldNameOf(PermissionKey key) {
+        StringBuilder builder = new StringBuilder();
+        for (String permission : key.getPermissions()) {
+            if (builder.length() > 0) {
+                builder.append("__");
+            }
+            String name = permission.startsWith(ANDROID_PERMISSION_PREFIX)
+                    ? permission.substring(ANDROID_PERMISSION_PREFIX.length()) : permission;
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                builder.append(Character.isJavaIdentifierPart(c) ? c : '_');
+            }
+        }
+        if (builder.length() == 0 || !Character.isJavaIdentifierStart(builder.charAt(0))) {
+            builder.insert(0, '_');
+        }
+        return builder.toString().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds the permission sets of the given element.
+     *
+     * @return the first permission set whose constant name is already taken by a different set,
+     * or {@code null}
+     */
+    PermissionKey add(RuntimePermissionsElement element) {
+        originatingElements.add(element.getElement());
+        for (NeedsPermissionMethodElement needsMethod : element.getNeedsPermissionsMethods()) {
+            PermissionKey key = needsMethod.getPermissionKey();
+            String name = fieldNameOf(key);
+            PermissionKey existing = constants.get(name);
+            if (existing == null) {
+                constants.put(name, key);
+            } else if (!existing.equals(key)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    JavaFile createJavaFile() {
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build());
+        for (Map.Entry<String, PermissionKey> constant : constants.entrySet()) {
+            // Shared arrays, read but never written by the dispatchers
+            builder.addField(FieldSpec.builder(String[].class, constant.getKey())
+                    .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                    .initializer(PermissionSdkLevels.permissionsArray(constant.getValue().getPermissions(), minSdk, targetSdk))
+                    .build());
+        }
+        for (TypeElement element : originatingElements) {
+            builder.addOriginatingElement(element);
+        }
+        return JavaFile.builder(className.packageName(), builder.build())
+                .addFileComment(ConstantsProvider.FILE_COMMENT)
+                .build();
+    }
+}
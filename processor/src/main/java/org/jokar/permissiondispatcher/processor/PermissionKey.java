@@ -0,0 +1,76 @@
+package org.jokar.permissiondispatcher.processor;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Canonical, order-insensitive key of a set of permissions.
+ * <p>
+ * The permissions are de-duplicated and sorted once, and the hash code is computed up front,
+ * so the key can be used to look up callbacks in O(1) regardless of the order in which the
+ * permissions were written in the annotation.
+ */
+public final class PermissionKey implements Comparable<PermissionKey> {
+
+    private final String[] permissions;
+    private final String canonical;
+    private final int hashCode;
+
+    private PermissionKey(String[] permissions, String canonical) {
+        this.permissions = permissions;
+        this.canonical = canonical;
+        this.hashCode = canonical.hashCode();
+    }
+
+    public static PermissionKey of(String... permissions) {
+        String[] sorted = new TreeSet<>(Arrays.asList(permissions)).toArray(new String[0]);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < sorted.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(sorted[i]);
+        }
+        // Interned, so that keys built from equal sets share one canonical string
+        return new PermissionKey(sorted, builder.toString().intern());
+    }
+
+    /**
+     * Returns a copy of the sorted, de-duplicated permissions of this key.
+     */
+    public String[] getPermissions() {
+        return permissions.clone();
+    }
+
+    public int size() {
+        return permissions.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PermissionKey)) {
+            return false;
+        }
+        PermissionKey other = (PermissionKey) o;
+        // Canonical strings are interned, an identity check is enough
+        return hashCode == other.hashCode && canonical == other.canonical;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public int compareTo(PermissionKey o) {
+        return canonical.compareTo(o.canonical);
+    }
+
+    @Override
+    public String toString() {
+        return canonical;
+    }
+}
@@ -0,0 +1,57 @@
+package org.jokar.permissiondispatcher.processor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.lang.model.element.ExecutableElement;
+
+/**
+ * A method annotated with one of the permission annotations, together with the
+ * permissions read from that annotation.
+ * <p>
+ * The annotation value is read exactly once, when the model is built, so code generation
+ * never has to go back to {@link ExecutableElement#getAnnotation(Class)}.
+ */
+public final class PermissionMethodElement {
+
+    private final ExecutableElement element;
+    private final String methodName;
+    private final String[] permissions;
+    private final List<String> permissionList;
+    private final PermissionKey permissionKey;
+
+    public PermissionMethodElement(ExecutableElement element, String[] permissions) {
+        this.element = element;
+        this.methodName = element.getSimpleName().toString();
+        this.permissions = permissions.clone();
+        this.permissionList = Collections.unmodifiableList(Arrays.asList(this.permissions));
+        this.permissionKey = PermissionKey.of(this.permissions);
+    }
+
+    public ExecutableElement getElement() {
+        return element;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * Returns a copy of the annotation value, safe to hand out to callers that mutate arrays.
+     */
+    public String[] getPermissions() {
+        return permissions.clone();
+    }
+
+    public List<String> getPermissionList() {
+        return permissionList;
+    }
+
+    /**
+     * The order-insensitive key used to match this method with its callbacks.
+     */
+    public PermissionKey getPermissionKey() {
+        return permissionKey;
+    }
+}
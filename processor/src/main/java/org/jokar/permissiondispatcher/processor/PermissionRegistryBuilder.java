@@ -0,0 +1,122 @@
+package org.jokar.permissiondispatcher.processor;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeSpec;
+
+import org.jokar.permissiondispatcher.processor.event.ConstantsProvider;
+import org.jokar.permissiondispatcher.processor.helper.PermissionSdkLevels;
+import org.jokar.permissiondispatcher.processor.utils.ProcessorUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Collects the permissions of a module and builds the registry class configured with
+ * {@link ProcessorOptions#REGISTRY}: one {@code long} bit per distinct permission, assigned in
+ * sorted order, and the {@code PermissionState} checking masks of those bits at runtime.
+ * <p>
+ * The bits are compile-time constants, so the masks of the dispatchers are folded by javac and
+ * only reading {@code STATE} initializes the registry. Not thread-safe; only use it on the
+ * processing thread.
+ */
+final class PermissionRegistryBuilder {
+
+    static final String STATE_FIELD = "STATE";
+
+    private final ClassName className;
+    private final int minSdk;
+    private final int targetSdk;
+    private final TreeSet<String> permissions = new TreeSet<>();
+    private final Map<String, String> permissionsByName = new HashMap<>();
+    private final List<TypeElement> originatingElements = new ArrayList<>();
+
+    /**
+     * @param minSdk    the min SDK of the module, or {@link ProcessorOptions#UNKNOWN_SDK}
+     * @param targetSdk the target SDK of the module, or {@link ProcessorOptions#UNKNOWN_SDK}
+     */
+    PermissionRegistryBuilder(ClassName className, int minSdk, int targetSdk) {
+        this.className = className;
+        this.minSdk = minSdk;
+        this.targetSdk = targetSdk;
+    }
+
+    ClassName getClassName() {
+        return className;
+    }
+
+    /**
+     * Name of the bit of the given permission, e.g. {@code CAMERA}. It only depends on the
+     * permission, so dispatchers can reference the bit before the registry is built.
+     */
+    static String fieldNameOf(String permission) {
+        return PermissionConstantsBuilder.fieldNameOf(PermissionKey.of(permission));
+    }
+
+    /**
+     * Adds the permissions of the given element.
+     *
+     * @return the first permission whose bit name is already taken by another permission,
+     * or {@code null}
+     */
+    String add(RuntimePermissionsElement element) {
+        originatingElements.add(element.getElement());
+        for (NeedsPermissionMethodElement needsMethod : element.getNeedsPermissionsMethods()) {
+            for (String permission : needsMethod.getPermissionList()) {
+                String existing = permissionsByName.get(fieldNameOf(permission));
+                if (existing == null) {
+                    permissionsByName.put(fieldNameOf(permission), permission);
+                    permissions.add(permission);
+                } else if (!existing.equals(permission)) {
+                    return permission;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the permissions added so far all fit in a {@code long} mask.
+     */
+    boolean fitsInMask() {
+        return permissions.size() <= Long.SIZE;
+    }
+
+    JavaFile createJavaFile() {
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL);
+        int id = 0;
+        for (String permission : permissions) {
+            builder.addField(FieldSpec.builder(long.class, fieldNameOf(permission),
+                    Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("1L << $L", id++)
+                    .build());
+        }
+        // The permissions missing on the device are resolved from the SDK checks, not looked up
+        String[] permissionArray = permissions.toArray(new String[0]);
+        builder.addField(FieldSpec.builder(ConstantsProvider.PERMISSION_STATE, STATE_FIELD,
+                Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer(permissions.isEmpty()
+                        ? CodeBlock.of("new $T()", ConstantsProvider.PERMISSION_STATE)
+                        : CodeBlock.of("new $T($L, new String[]$L)", ConstantsProvider.PERMISSION_STATE,
+                        PermissionSdkLevels.existingMask(permissionArray, minSdk, targetSdk),
+                        ProcessorUtil.toString(permissionArray)))
+                .build());
+        builder.addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build());
+        for (TypeElement element : originatingElements) {
+            builder.addOriginatingElement(element);
+        }
+        return JavaFile.builder(className.packageName(), builder.build())
+                .addFileComment(ConstantsProvider.FILE_COMMENT)
+                .build();
+    }
+}
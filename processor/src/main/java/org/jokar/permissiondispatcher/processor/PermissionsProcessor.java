@@ -5,13 +5,34 @@ import com.google.common.collect.ImmutableSet;
 import com.squareup.javapoet.JavaFile;
 
 import org.jokar.permissiondispatcher.annotation.RuntimePermissions;
+import org.jokar.permissiondispatcher.processor.cache.ContentManifest;
+import org.jokar.permissiondispatcher.processor.cache.OutputCache;
+import org.jokar.permissiondispatcher.processor.event.CachingTypeResolver;
 import org.jokar.permissiondispatcher.processor.event.TypeResolver;
+import org.jokar.permissiondispatcher.processor.exception.ValidationException;
+import org.jokar.permissiondispatcher.processor.helper.SensitivePermissions;
+import org.jokar.permissiondispatcher.processor.metrics.ClassMetrics;
+import org.jokar.permissiondispatcher.processor.metrics.FootprintReport;
+import org.jokar.permissiondispatcher.processor.metrics.ProcessingMetrics;
 
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.getAnnotatedClasses;
+import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.classNameOf;
+import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.createRuntimePermissionsElement;
+import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.hasUnresolvedTypes;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.ServiceConfigurationError;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Filer;
@@ -20,23 +41,57 @@ import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.Processor;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
-import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
 
 /**
  * Created by JokAr on 16/8/23.
  */
 @AutoService(Processor.class)
-public class PermissionsProcessor extends AbstractProcessor implements TypeResolver {
+public class PermissionsProcessor extends AbstractProcessor {
+
+    private static final String METRICS_PACKAGE = "org.jokar.permissiondispatcher";
+    private static final String METRICS_FILE_NAME = "metrics.json";
+    private static final String MANIFEST_FILE_NAME = "generated.sha256";
+    private static final String FOOTPRINT_FILE_NAME = "footprint.json";
+    private static final String REQUEST_CODES_FILE_NAME = "requestCodes.json";
+    private static final Comparator<TypeElement> BY_QUALIFIED_NAME = new Comparator<TypeElement>() {
+        @Override
+        public int compare(TypeElement o1, TypeElement o2) {
+            return o1.getQualifiedName().toString().compareTo(o2.getQualifiedName().toString());
+        }
+    };
+    // Enough classes per batch to keep the fork/join pool busy without holding the whole round
+    private static final int PARALLEL_BATCH_SIZE = 4 * Runtime.getRuntime().availableProcessors();
 
     private Types mTypes;
     private Elements mElements;
 
     private Filer mFiler;
     private Messager mMessager;
+    private ProcessorOptions mOptions;
+    private JavaFileBuilder mJavaFileBuilder;
+    private ProcessingMetrics mMetrics;
+    private DispatcherIndexBuilder mIndex;
+    private PermissionConstantsBuilder mConstants;
+    private PermissionRegistryBuilder mRegistry;
+    private RequestCodeAllocator mRequestCodes;
+    private OutputCache mCache;
+    private ContentManifest mManifest;
+    private FootprintReport mFootprint;
+    private SensitivePermissions mSensitivePermissions;
+    private boolean mModuleFilesWritten;
+    // Qualified names, elements are only valid in the round they were returned in
+    private final Set<String> mProcessed = new HashSet<>();
+    // Every annotated class of this compilation, whose dispatcher is generated by this run
+    private final Set<String> mTargets = new HashSet<>();
+    private Set<String> mDeferred = new LinkedHashSet<>();
 
     @Override
     public synchronized void init(ProcessingEnvironment processingEnv) {
@@ -45,20 +100,482 @@ public class PermissionsProcessor extends AbstractProcessor implements TypeResol
         mElements = processingEnv.getElementUtils();
         mFiler = processingEnv.getFiler();
         mMessager = processingEnv.getMessager();
+        mOptions = new ProcessorOptions(processingEnv.getOptions());
+        mSensitivePermissions = loadSensitivePermissions();
+        mJavaFileBuilder = new JavaFileBuilder(mSensitivePermissions, mOptions);
+        mMetrics = mOptions.isMetrics() ? new ProcessingMetrics() : null;
+        if (mOptions.getFirstRequestCode() == ProcessorOptions.INVALID_REQUEST_CODES) {
+            error("%s must be <first>-<last> or <first>, with 0 <= first <= last <= %d", ProcessorOptions.REQUEST_CODES,
+                    ProcessorOptions.MAX_REQUEST_CODE);
+        } else if (mOptions.getFirstRequestCode() != ProcessorOptions.NO_REQUEST_CODES) {
+            mRequestCodes = new RequestCodeAllocator(mOptions.getFirstRequestCode(), mOptions.getLastRequestCode(),
+                    mJavaFileBuilder);
+        }
+        mIndex = mOptions.getIndexClassName() == null ? null
+                : new DispatcherIndexBuilder(classNameOf(mOptions.getIndexClassName()), mJavaFileBuilder, mRequestCodes);
+        mConstants = mOptions.getConstantsClassName() == null ? null
+                : new PermissionConstantsBuilder(classNameOf(mOptions.getConstantsClassName()), mOptions.getMinSdk(),
+                mOptions.getTargetSdk());
+        mCache = mOptions.getCacheDir() == null ? null
+                : new OutputCache(new File(mOptions.getCacheDir()), mOptions.getGenerationKey(), mSensitivePermissions);
+        mRegistry = mOptions.getRegistryClassName() == null ? null
+                : new PermissionRegistryBuilder(classNameOf(mOptions.getRegistryClassName()), mOptions.getMinSdk(),
+                mOptions.getTargetSdk());
+        mManifest = mOptions.isManifest() ? new ContentManifest() : null;
+        mFootprint = mOptions.isFootprintMeasured() ? new FootprintReport() : null;
+        if (mOptions.getMethodBudget() < 0 || mOptions.getSizeBudget() < 0) {
+            error("%s and %s must be positive numbers", ProcessorOptions.METHOD_BUDGET, ProcessorOptions.SIZE_BUDGET);
+        }
+        if (mOptions.isCompact() && mOptions.getRegistryClassName() != null) {
+            warning("%s is ignored by compact dispatchers, which check their permissions in the interpreter",
+                    ProcessorOptions.REGISTRY);
+        }
+        if (mOptions.isCompact() && mOptions.getTargetSdk() != ProcessorOptions.UNKNOWN_SDK) {
+            warning("%s is ignored by compact dispatchers, which keep the pre-23 fallback in the interpreter",
+                    ProcessorOptions.TARGET_SDK);
+        }
+    }
+
+    /**
+     * Loads the built-in special-access strategies and the ones other jars on the processor path add.
+     */
+    private SensitivePermissions loadSensitivePermissions() {
+        try {
+            return SensitivePermissions.load(PermissionsProcessor.class.getClassLoader());
+        } catch (IllegalStateException | ServiceConfigurationError e) {
+            error("Cannot load the special-access permission strategies: %s", e.getMessage());
+            return SensitivePermissions.NONE;
+        }
     }
 
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
-        List<RuntimePermissionsElement> elements = getAnnotatedClasses(roundEnv, this);
-        for (RuntimePermissionsElement element : elements) {
-            JavaFile javaFile = JavaFileBuilder.createJavaFile(element, this);
+        if (mMetrics != null) {
+            mMetrics.newRound();
+        }
+        if (roundEnv.processingOver()) {
+            // Files generated now would not be compiled, so the last round only reports
+            reportDeferred(roundEnv.errorRaised());
+        } else {
+            processRound(roundEnv);
+        }
+        if (mCache != null && roundEnv.processingOver()) {
+            mMessager.printMessage(Diagnostic.Kind.NOTE, String.format("PermissionsDispatcher cache: %d hits, %d misses",
+                    mCache.getHits(), mCache.getMisses()));
+        }
+        if (mMetrics != null) {
+            mMetrics.commitRound();
+            if (roundEnv.processingOver()) {
+                writeMetrics();
+            }
+        }
+        if (mManifest != null && roundEnv.processingOver()) {
+            writeManifest();
+        }
+        if (mFootprint != null && roundEnv.processingOver()) {
+            if (mOptions.isFootprint()) {
+                writeFootprint();
+            }
+            checkBudget();
+        }
+        return true;
+    }
+
+    /**
+     * Generates the dispatchers of the classes deferred by earlier rounds whose types resolve now,
+     * then of the classes annotated in this round. Classes with types that still don't resolve are
+     * deferred again; every class is generated at most once.
+     */
+    private void processRound(RoundEnvironment roundEnv) {
+        // Resolved types are cached for the duration of this round only
+        TypeResolver typeResolver = new CachingTypeResolver(mTypes, mElements);
+        // Classes are modeled, generated and written a batch at a time, and their models dropped
+        // before the next batch, so memory does not grow with the number of annotated classes
+        int batchSize = mOptions.isParallel() ? PARALLEL_BATCH_SIZE : 1;
+        List<TypeElement> batch = new ArrayList<>(batchSize);
+        Set<String> deferred = new LinkedHashSet<>();
+        List<TypeElement> candidates = new ArrayList<>();
+        for (String name : mDeferred) {
+            TypeElement typeElement = mElements.getTypeElement(name);
+            if (typeElement != null) {
+                candidates.add(typeElement);
+            }
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(RuntimePermissions.class)) {
+            candidates.add((TypeElement) element);
+            mTargets.add(((TypeElement) element).getQualifiedName().toString());
+        }
+        // So are the annotated methods of superclasses, shared by the classes extending them
+        HierarchyScanner scanner = new HierarchyScanner(typeResolver, mTargets);
+        // The annotated elements come as an unordered set; a fixed order keeps the diagnostics,
+        // the metrics and the order in which files are written the same from build to build
+        Collections.sort(candidates, BY_QUALIFIED_NAME);
+        boolean processed = false;
+        for (TypeElement typeElement : candidates) {
+            String name = typeElement.getQualifiedName().toString();
+            if (mProcessed.contains(name)) {
+                continue;
+            }
+            if (hasUnresolvedTypes(typeElement)) {
+                deferred.add(name);
+                continue;
+            }
+            mProcessed.add(name);
+            processed = true;
+            batch.add(typeElement);
+            if (batch.size() == batchSize) {
+                processBatch(batch, typeResolver, scanner);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            processBatch(batch, typeResolver, scanner);
+        }
+        mDeferred = deferred;
+        // Deferred classes still belong in the module-wide classes, which wait for them
+        if (!processed && mDeferred.isEmpty() && !mModuleFilesWritten
+                && (mIndex != null || mConstants != null || mRegistry != null || mRequestCodes != null)) {
+            writeModuleFiles();
+        }
+    }
+
+    /**
+     * Reports the classes whose types never resolved. When another processor already failed,
+     * those types are most likely missing because of it, so they are not reported again.
+     */
+    private void reportDeferred(boolean errorRaised) {
+        if (errorRaised) {
+            return;
+        }
+        for (String name : mDeferred) {
+            TypeElement typeElement = mElements.getTypeElement(name);
+            error(typeElement, "%s refers to types that could not be resolved, no dispatcher was generated", name);
+        }
+    }
+
+    private void processBatch(List<TypeElement> batch, TypeResolver typeResolver, HierarchyScanner scanner) {
+        List<RuntimePermissionsElement> elements = new ArrayList<>(batch.size());
+        for (TypeElement typeElement : batch) {
+            RuntimePermissionsElement element = createRuntimePermissionsElement(typeElement, typeResolver, scanner,
+                    mSensitivePermissions, mMetrics);
+            // Invalid classes get their errors instead of a dispatcher; the rest are still generated
+            if (element.isValid()) {
+                allocateRequestCodes(element);
+                elements.add(element);
+            } else {
+                reportErrors(element);
+            }
+        }
+        List<RuntimePermissionsElement> toGenerate = mCache == null ? elements : replayCached(elements);
+        List<JavaFile> javaFiles = createJavaFiles(toGenerate);
+        for (int i = 0; i < javaFiles.size(); i++) {
+            JavaFile javaFile = javaFiles.get(i);
+            long start = System.nanoTime();
             try {
                 javaFile.writeTo(mFiler);
             } catch (IOException e) {
                 error("Generate file failed, reason: %s", e.getMessage());
             }
+            addToManifest(javaFile);
+            if (mFootprint != null) {
+                mFootprint.add(toGenerate.get(i).getElement().getQualifiedName().toString(), javaFile.typeSpec);
+            }
+            if (mMetrics != null) {
+                ClassMetrics classMetrics = metricsOf(toGenerate.get(i));
+                classMetrics.addWriteNanos(System.nanoTime() - start);
+                classMetrics.countGenerated(javaFile.typeSpec);
+            }
+            if (mCache != null) {
+                putCached(toGenerate.get(i), javaFile);
+            }
         }
-        return true;
+        for (RuntimePermissionsElement element : elements) {
+            addToModuleFiles(element);
+        }
+    }
+
+    /**
+     * Allocates the request codes of the dispatcher when the module has a range, and checks that
+     * the codes of a support fragment fit in the 16 bits it may use.
+     */
+    private void allocateRequestCodes(RuntimePermissionsElement element) {
+        TypeElement typeElement = element.getElement();
+        if (mRequestCodes != null) {
+            if (mModuleFilesWritten) {
+                warning(typeElement, "%s was generated after the request code map had been written and is not listed in it",
+                        typeElement.getQualifiedName());
+            }
+            if (mRequestCodes.allocate(element) == RequestCodeAllocator.NOT_ALLOCATED) {
+                error(typeElement, "No request codes left for %s in %d-%d set with %s", typeElement.getQualifiedName(),
+                        mRequestCodes.getFirstRequestCode(), mRequestCodes.getLastRequestCode(),
+                        ProcessorOptions.REQUEST_CODES);
+                return;
+            }
+        }
+        int lastRequestCode = firstRequestCodeOf(element) + mJavaFileBuilder.ownMethodsOf(element).size() - 1;
+        if (lastRequestCode > ProcessorOptions.MAX_REQUEST_CODE) {
+            error(typeElement, "%s uses request codes up to %d, request codes must fit in 16 bits, up to %d",
+                    typeElement.getQualifiedName(), lastRequestCode, ProcessorOptions.MAX_REQUEST_CODE);
+        }
+    }
+
+    private int firstRequestCodeOf(RuntimePermissionsElement element) {
+        int allocated = mRequestCodes == null ? RequestCodeAllocator.NOT_ALLOCATED
+                : mRequestCodes.getFirstRequestCode(element);
+        return allocated == RequestCodeAllocator.NOT_ALLOCATED ? mJavaFileBuilder.getDefaultFirstRequestCode(element)
+                : allocated;
+    }
+
+    private void reportErrors(RuntimePermissionsElement element) {
+        for (ValidationException e : element.getErrors()) {
+            mMessager.printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.getElement());
+        }
+    }
+
+    /**
+     * Writes the cached dispatcher of every element with a cache entry for its current model.
+     *
+     * @return the elements without an entry, which still have to be generated
+     */
+    private List<RuntimePermissionsElement> replayCached(List<RuntimePermissionsElement> elements) {
+        List<RuntimePermissionsElement> misses = new ArrayList<>();
+        for (RuntimePermissionsElement element : elements) {
+            String source = mCache.get(mCache.keyOf(element, firstRequestCodeOf(element)));
+            if (source == null) {
+                misses.add(element);
+                continue;
+            }
+            long start = System.nanoTime();
+            String name = element.getPackageName() + '.' + element.getGeneratedClassName();
+            try {
+                JavaFileObject sourceFile = mFiler.createSourceFile(name, element.getElement());
+                try (Writer writer = sourceFile.openWriter()) {
+                    writer.write(source);
+                }
+            } catch (IOException e) {
+                error("Generate file failed, reason: %s", e.getMessage());
+            }
+            if (mManifest != null) {
+                mManifest.add(name, source);
+            }
+            if (mFootprint != null) {
+                // Only the source is cached, the specs are built again to be measured
+                mFootprint.add(element.getElement().getQualifiedName().toString(),
+                        mJavaFileBuilder.createJavaFile(element, firstRequestCodeOf(element)).typeSpec);
+            }
+            if (mMetrics != null) {
+                metricsOf(element).addWriteNanos(System.nanoTime() - start);
+            }
+        }
+        return misses;
+    }
+
+    private void putCached(RuntimePermissionsElement element, JavaFile javaFile) {
+        try {
+            mCache.put(mCache.keyOf(element, firstRequestCodeOf(element)), javaFile.toString());
+        } catch (IOException e) {
+            // The dispatcher was written, it just is not cached
+            mMessager.printMessage(Diagnostic.Kind.WARNING, "PermissionsDispatcher cache write failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a dispatcher to the module-wide index, constants and registry classes. Only the few
+     * names and permissions those need are kept, not the model of the class.
+     */
+    private void addToModuleFiles(RuntimePermissionsElement element) {
+        if (mIndex == null && mConstants == null && mRegistry == null) {
+            return;
+        }
+        TypeElement typeElement = element.getElement();
+        if (mModuleFilesWritten) {
+            // The dispatcher still works without the index, but not without its constants or bits
+            if (mConstants != null || mRegistry != null) {
+                error(typeElement, "%s was generated after the module-wide classes had been written",
+                        typeElement.getQualifiedName());
+            } else {
+                warning(typeElement, "%s was generated after %s had been written and is not indexed",
+                        typeElement.getQualifiedName(), mIndex.getIndexClassName());
+            }
+            return;
+        }
+        if (mIndex != null && !mIndex.add(element)) {
+            warning(typeElement, "%s is not visible from %s and is not indexed",
+                    typeElement.getQualifiedName(), mIndex.getIndexClassName());
+        }
+        PermissionKey conflict = mConstants == null ? null : mConstants.add(element);
+        if (conflict != null) {
+            error(typeElement, "The constant name of %s in %s is already used by other permissions",
+                    conflict, mConstants.getClassName());
+        }
+        String conflictingPermission = mRegistry == null ? null : mRegistry.add(element);
+        if (conflictingPermission != null) {
+            error(typeElement, "The bit name of %s in %s is already used by another permission",
+                    conflictingPermission, mRegistry.getClassName());
+        }
+        if (mRegistry != null && !mRegistry.fitsInMask()) {
+            error(typeElement, "%s supports at most %d permissions", mRegistry.getClassName(), Long.SIZE);
+        }
+    }
+
+    /**
+     * Writes the module-wide classes. Called in the first round that brings no new annotated
+     * class, usually the round after the dispatchers were generated.
+     */
+    private void writeModuleFiles() {
+        mModuleFilesWritten = true;
+        if (mIndex != null) {
+            writeModuleFile(mIndex.createJavaFile());
+        }
+        if (mConstants != null) {
+            writeModuleFile(mConstants.createJavaFile());
+        }
+        if (mRegistry != null) {
+            writeModuleFile(mRegistry.createJavaFile());
+        }
+        if (mRequestCodes != null) {
+            writeRequestCodes();
+        }
+    }
+
+    private void writeRequestCodes() {
+        try {
+            FileObject map = mFiler.createResource(StandardLocation.SOURCE_OUTPUT,
+                    METRICS_PACKAGE, REQUEST_CODES_FILE_NAME);
+            try (Writer writer = map.openWriter()) {
+                writer.write(mRequestCodes.toJson());
+            }
+        } catch (IOException e) {
+            error("Write request codes failed, reason: %s", e.getMessage());
+        }
+    }
+
+    private void writeModuleFile(JavaFile javaFile) {
+        try {
+            javaFile.writeTo(mFiler);
+        } catch (IOException e) {
+            error("Generate file failed, reason: %s", e.getMessage());
+        }
+        addToManifest(javaFile);
+        if (mFootprint != null) {
+            mFootprint.add(javaFile.packageName + '.' + javaFile.typeSpec.name, javaFile.typeSpec);
+        }
+    }
+
+    private void addToManifest(JavaFile javaFile) {
+        if (mManifest != null) {
+            // JavaFile writes the same text to the Filer as toString() returns
+            mManifest.add(javaFile.packageName + '.' + javaFile.typeSpec.name, javaFile.toString());
+        }
+    }
+
+    private void writeFootprint() {
+        try {
+            FileObject report = mFiler.createResource(StandardLocation.SOURCE_OUTPUT,
+                    METRICS_PACKAGE, FOOTPRINT_FILE_NAME);
+            try (Writer writer = report.openWriter()) {
+                writer.write(mFootprint.toJson());
+            }
+            mMessager.printMessage(Diagnostic.Kind.NOTE, String.format(
+                    "PermissionsDispatcher generated %d methods, about %d bytes, report written to %s",
+                    mFootprint.getTotalMethods(), mFootprint.getTotalBytes(), report.toUri()));
+        } catch (IOException e) {
+            error("Write footprint failed, reason: %s", e.getMessage());
+        }
+    }
+
+    private void checkBudget() {
+        long methodBudget = mOptions.getMethodBudget();
+        if (methodBudget > 0 && mFootprint.getTotalMethods() > methodBudget) {
+            error("PermissionsDispatcher generated %d methods, over the budget of %d set with %s",
+                    mFootprint.getTotalMethods(), methodBudget, ProcessorOptions.METHOD_BUDGET);
+        }
+        long sizeBudget = mOptions.getSizeBudget();
+        if (sizeBudget > 0 && mFootprint.getTotalBytes() > sizeBudget) {
+            error("PermissionsDispatcher generated about %d bytes of code, over the budget of %d set with %s",
+                    mFootprint.getTotalBytes(), sizeBudget, ProcessorOptions.SIZE_BUDGET);
+        }
+    }
+
+    private void writeManifest() {
+        try {
+            FileObject manifest = mFiler.createResource(StandardLocation.SOURCE_OUTPUT,
+                    METRICS_PACKAGE, MANIFEST_FILE_NAME);
+            try (Writer writer = manifest.openWriter()) {
+                writer.write(mManifest.toString());
+            }
+        } catch (IOException e) {
+            error("Write manifest failed, reason: %s", e.getMessage());
+        }
+    }
+
+    private ClassMetrics metricsOf(RuntimePermissionsElement element) {
+        return mMetrics == null ? null : mMetrics.forClass(element.getElement().getQualifiedName().toString());
+    }
+
+    private void writeMetrics() {
+        try {
+            FileObject report = mFiler.createResource(StandardLocation.SOURCE_OUTPUT,
+                    METRICS_PACKAGE, METRICS_FILE_NAME);
+            try (Writer writer = report.openWriter()) {
+                writer.write(mMetrics.toJson());
+            }
+            mMessager.printMessage(Diagnostic.Kind.NOTE, "PermissionsDispatcher metrics written to " + report.toUri());
+        } catch (IOException e) {
+            error("Write metrics failed, reason: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Builds the JavaFile of every element, in the order of the elements.
+     * <p>
+     * Every type name the specs need is computed while the model is built, on the processing
+     * thread, so with {@link ProcessorOptions#PARALLEL} the JavaPoet specs are built on the common
+     * fork/join pool without calling into javac; the files are still written by the caller, in
+     * order, on the processing thread.
+     */
+    private List<JavaFile> createJavaFiles(List<RuntimePermissionsElement> elements) {
+        List<JavaFile> javaFiles = new ArrayList<>(elements.size());
+        if (!mOptions.isParallel() || elements.size() < 2) {
+            for (RuntimePermissionsElement element : elements) {
+                javaFiles.add(createJavaFile(element, firstRequestCodeOf(element), metricsOf(element)));
+            }
+            return javaFiles;
+        }
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        List<ForkJoinTask<JavaFile>> tasks = new ArrayList<>(elements.size());
+        for (final RuntimePermissionsElement element : elements) {
+            // Looked up here, the metrics map must only be touched by the processing thread
+            final ClassMetrics classMetrics = metricsOf(element);
+            // So must the allocator
+            final int firstRequestCode = firstRequestCodeOf(element);
+            tasks.add(pool.submit(new Callable<JavaFile>() {
+                @Override
+                public JavaFile call() {
+                    return createJavaFile(element, firstRequestCode, classMetrics);
+                }
+            }));
+        }
+        for (ForkJoinTask<JavaFile> task : tasks) {
+            javaFiles.add(task.join());
+        }
+        return javaFiles;
+    }
+
+    private JavaFile createJavaFile(RuntimePermissionsElement element, int firstRequestCode,
+                                    ClassMetrics classMetrics) {
+        long start = System.nanoTime();
+        JavaFile javaFile = mJavaFileBuilder.createJavaFile(element, firstRequestCode);
+        if (classMetrics != null) {
+            classMetrics.addGenerationNanos(System.nanoTime() - start);
+        }
+        return javaFile;
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return mOptions == null ? ProcessorOptions.SUPPORTED : mOptions.getSupportedOptions();
     }
 
     @Override
@@ -71,27 +588,19 @@ public class PermissionsProcessor extends AbstractProcessor implements TypeResol
         return SourceVersion.latestSupported();
     }
 
-    @Override
-    public boolean isSubTypeOf(String subTypeClass, String superTypeClass) {
-        Types types = processingEnv.getTypeUtils();
-        Elements elements = processingEnv.getElementUtils();
-        TypeMirror subType = types.getDeclaredType(elements.getTypeElement(subTypeClass));
-        TypeMirror superType = types.getDeclaredType(elements.getTypeElement(superTypeClass));
-        return types.isSubtype(subType, superType);
+    private void error(String msg, Object... args) {
+        mMessager.printMessage(Diagnostic.Kind.ERROR, String.format(msg, args));
     }
 
-    @Override
-    public boolean isSameType(TypeMirror t1, TypeMirror t2) {
-
-        return mTypes.isSameType(t1, t2);
+    private void error(Element element, String msg, Object... args) {
+        mMessager.printMessage(Diagnostic.Kind.ERROR, String.format(msg, args), element);
     }
 
-    @Override
-    public TypeMirror typeMirrorOf(String className) {
-
-        return mElements.getTypeElement(className).asType();
+    private void warning(String msg, Object... args) {
+        mMessager.printMessage(Diagnostic.Kind.WARNING, String.format(msg, args));
     }
-    private void error(String msg, Object... args) {
-        mMessager.printMessage(Diagnostic.Kind.ERROR, String.format(msg, args));
+
+    private void warning(Element element, String msg, Object... args) {
+        mMessager.printMessage(Diagnostic.Kind.WARNING, String.format(msg, args), element);
     }
 }
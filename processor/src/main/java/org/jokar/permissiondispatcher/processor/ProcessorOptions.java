@@ -0,0 +1,377 @@
+package org.jokar.permissiondispatcher.processor;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Options passed to {@link PermissionsProcessor} with {@code -A<key>=<value>}, e.g. in Gradle:
+ * <pre>
+ * javaCompileOptions {
+ *     annotationProcessorOptions {
+ *         arguments = ["permissiondispatcher.parallel": "true"]
+ *     }
+ * }
+ * </pre>
+ */
+public final class ProcessorOptions {
+
+    /**
+     * Builds the dispatchers of all annotated classes of a round on a fork/join pool.
+     */
+    public static final String PARALLEL = "permissiondispatcher.parallel";
+
+    /**
+     * Records per-round, per-class processing times and generated code counts, writes them to
+     * {@code org/jokar/permissiondispatcher/metrics.json} in the generated sources directory and
+     * commits them as JFR events when a recording is running.
+     */
+    public static final String METRICS = "permissiondispatcher.metrics";
+
+    /**
+     * Fully qualified name of a class to generate that routes permission and activity results
+     * to the dispatcher of any annotated class of the module, e.g.
+     * {@code com.example.app.PermissionsDispatcherIndex}. When set, dispatchers and their result
+     * methods are public, so the index can reach them from its own package.
+     */
+    public static final String INDEX = "permissiondispatcher.index";
+
+    /**
+     * Fully qualified name of a class to generate that holds one {@code String[]} per distinct
+     * permission set of the module, e.g. {@code com.example.app.PermissionsDispatcherConstants}.
+     * When set, dispatchers read their permissions from it instead of declaring their own arrays.
+     */
+    public static final String CONSTANTS = "permissiondispatcher.constants";
+
+    /**
+     * Fully qualified name of a class to generate that assigns a {@code long} bit to each distinct
+     * permission of the module, e.g. {@code com.example.app.PermissionsDispatcherRegistry}. When
+     * set, dispatchers check permissions with masks on the registry's {@code PermissionState},
+     * which remembers granted permissions as a bitset. At most 64 permissions per module.
+     */
+    public static final String REGISTRY = "permissiondispatcher.registry";
+
+    /**
+     * Directory of an on-disk cache of generated dispatchers, keyed by a hash of the model of each
+     * annotated class. Unchanged classes replay the cached source instead of being generated again.
+     * Use an absolute path, e.g. {@code "$rootDir/.gradle/permissiondispatcher"}.
+     */
+    public static final String CACHE_DIR = "permissiondispatcher.cacheDir";
+
+    /**
+     * Writes {@code org/jokar/permissiondispatcher/generated.sha256} to the generated sources
+     * directory: the SHA-256 of every generated source file, sorted by path. Identical inputs
+     * give an identical manifest, so comparing manifests shows whether outputs are cacheable.
+     */
+    public static final String MANIFEST = "permissiondispatcher.manifest";
+
+    /**
+     * Writes {@code org/jokar/permissiondispatcher/footprint.json} to the generated sources
+     * directory: the classes, methods, fields and estimated bytecode size generated for each
+     * target of the module.
+     */
+    public static final String FOOTPRINT = "permissiondispatcher.footprint";
+
+    /**
+     * Maximum number of methods the processor may generate in the module. The build fails when
+     * the generated code goes over it.
+     */
+    public static final String METHOD_BUDGET = "permissiondispatcher.methodBudget";
+
+    /**
+     * Maximum estimated bytecode size, in bytes, of the code the processor generates in the
+     * module, as reported with {@link #FOOTPRINT}. The build fails when the generated code goes
+     * over it.
+     */
+    public static final String SIZE_BUDGET = "permissiondispatcher.sizeBudget";
+
+    /**
+     * Value of {@link #getMethodBudget()} and {@link #getSizeBudget()} when the option is not set.
+     */
+    public static final long NO_BUDGET = 0;
+
+    // A bad budget must not turn the check off silently, the processor reports it instead
+    static final long INVALID_BUDGET = -1;
+
+    /**
+     * Generates compact dispatchers: a descriptor table per class and one int-switch calling the
+     * annotated methods, run by the library's {@code DispatcherInterpreter}, instead of the full
+     * check and result code plus one request class per method. Classes with settings-based
+     * permissions keep the regular dispatcher. Compact dispatchers do not use {@link #REGISTRY}
+     * nor fold the pre-23 fallback for {@link #TARGET_SDK}; the processor warns when they are set.
+     */
+    public static final String COMPACT = "permissiondispatcher.compact";
+
+    /**
+     * The {@code minSdkVersion} of the module. Lets the generated code drop the SDK checks of
+     * permissions that exist on every supported SDK, and, with {@link #TARGET_SDK} past them,
+     * permissions retired before it.
+     */
+    public static final String MIN_SDK = "permissiondispatcher.minSdk";
+
+    /**
+     * The {@code targetSdkVersion} of the module. Lets the generated result code drop the
+     * pre-23 {@code hasSelfPermissions} fallback, or its {@code getTargetSdkVersion} lookup. The
+     * platform keeps enforcing retired permissions, like {@code READ_EXTERNAL_STORAGE}, for apps
+     * targeting an SDK they exist on, so they are only skipped on newer devices when it is set
+     * past their last SDK.
+     */
+    public static final String TARGET_SDK = "permissiondispatcher.targetSdk";
+
+    /**
+     * Wraps the generated {@code WithCheck} methods and result cases in {@code android.os.Trace}
+     * sections, named after the dispatcher and the method, to see them in systrace or Perfetto.
+     * Without it, the dispatchers have no tracing code at all.
+     */
+    public static final String TRACE = "permissiondispatcher.trace";
+
+    /**
+     * Range of request codes of the module, {@code "<first>-<last>"}, e.g. {@code "1000-1999"}, or
+     * {@code "<first>"} for the codes up to {@link #MAX_REQUEST_CODE}, which no range may pass.
+     * When set, each dispatcher of the module gets a block of codes of its own from the range
+     * instead of numbering from 0, and {@code org/jokar/permissiondispatcher/requestCodes.json} in
+     * the generated sources directory lists the method of every code. Give each module a range
+     * that no other module uses.
+     */
+    public static final String REQUEST_CODES = "permissiondispatcher.requestCodes";
+
+    /**
+     * Highest request code of a range. {@code FragmentActivity} keeps the index of the requesting
+     * fragment in the upper 16 bits, so every request code must fit in the lower 16.
+     */
+    public static final int MAX_REQUEST_CODE = 0xFFFF;
+
+    /**
+     * Value of {@link #getFirstRequestCode()} and {@link #getLastRequestCode()} when the option is
+     * not set.
+     */
+    public static final int NO_REQUEST_CODES = -1;
+
+    // A bad range must not fall back to overlapping codes silently, the processor reports it instead
+    static final int INVALID_REQUEST_CODES = -2;
+
+    /**
+     * Value of {@link #getMinSdk()} and {@link #getTargetSdk()} when the option is not set.
+     */
+    public static final int UNKNOWN_SDK = 0;
+
+    static final Set<String> SUPPORTED = ImmutableSet.of(PARALLEL, METRICS, INDEX, CONSTANTS, REGISTRY, CACHE_DIR, MANIFEST, FOOTPRINT,
+            METHOD_BUDGET, SIZE_BUDGET, COMPACT, MIN_SDK, TARGET_SDK, TRACE,
+            REQUEST_CODES);
+
+    // Reported to Gradle, which runs the processor as a "dynamic" incremental processor
+    static final String GRADLE_ISOLATING = "org.gradle.annotation.processing.isolating";
+    static final String GRADLE_AGGREGATING = "org.gradle.annotation.processing.aggregating";
+
+    private final boolean parallel;
+    private final boolean metrics;
+    private final boolean manifest;
+    private final boolean footprint;
+    private final long methodBudget;
+    private final long sizeBudget;
+    private final boolean compact;
+    private final boolean trace;
+    private final String indexClassName;
+    private final String constantsClassName;
+    private final String registryClassName;
+    private final String cacheDir;
+    private final int minSdk;
+    private final int targetSdk;
+    private final int firstRequestCode;
+    private final int lastRequestCode;
+
+    ProcessorOptions(Map<String, String> options) {
+        parallel = Boolean.parseBoolean(options.get(PARALLEL));
+        metrics = Boolean.parseBoolean(options.get(METRICS));
+        manifest = Boolean.parseBoolean(options.get(MANIFEST));
+        footprint = Boolean.parseBoolean(options.get(FOOTPRINT));
+        methodBudget = parseBudget(options.get(METHOD_BUDGET));
+        sizeBudget = parseBudget(options.get(SIZE_BUDGET));
+        compact = Boolean.parseBoolean(options.get(COMPACT));
+        trace = Boolean.parseBoolean(options.get(TRACE));
+        indexClassName = parseClassName(options.get(INDEX));
+        constantsClassName = parseClassName(options.get(CONSTANTS));
+        registryClassName = parseClassName(options.get(REGISTRY));
+        String cacheDir = options.get(CACHE_DIR);
+        this.cacheDir = cacheDir == null || cacheDir.trim().isEmpty() ? null : cacheDir.trim();
+        minSdk = parseSdk(options.get(MIN_SDK));
+        targetSdk = parseSdk(options.get(TARGET_SDK));
+        int[] requestCodes = parseRequestCodes(options.get(REQUEST_CODES));
+        firstRequestCode = requestCodes[0];
+        lastRequestCode = requestCodes[1];
+    }
+
+    private static int[] parseRequestCodes(String value) {
+        if (value == null) {
+            return new int[]{NO_REQUEST_CODES, NO_REQUEST_CODES};
+        }
+        try {
+            String[] bounds = value.trim().split("-", -1);
+            int first = Integer.parseInt(bounds[0].trim());
+            int last = bounds.length == 1 ? MAX_REQUEST_CODE : Integer.parseInt(bounds[1].trim());
+            if (bounds.length <= 2 && first >= 0 && last >= first && last <= MAX_REQUEST_CODE) {
+                return new int[]{first, last};
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        return new int[]{INVALID_REQUEST_CODES, INVALID_REQUEST_CODES};
+    }
+
+    private static String parseClassName(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    private static int parseSdk(String value) {
+        if (value == null) {
+            return UNKNOWN_SDK;
+        }
+        try {
+            return Math.max(UNKNOWN_SDK, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            // A bad value only costs the folding, so the code is generated as without the option
+            return UNKNOWN_SDK;
+        }
+    }
+
+    private static long parseBudget(String value) {
+        if (value == null) {
+            return NO_BUDGET;
+        }
+        try {
+            long budget = Long.parseLong(value.trim());
+            return budget > NO_BUDGET ? budget : INVALID_BUDGET;
+        } catch (NumberFormatException e) {
+            return INVALID_BUDGET;
+        }
+    }
+
+    /**
+     * Returns the options supported by the processor, including the Gradle incremental
+     * processing type matching these options.
+     */
+    Set<String> getSupportedOptions() {
+        // The module-wide classes and the reports depend on every annotated class, not just one
+        boolean aggregating = metrics || manifest || isFootprintMeasured() || indexClassName != null || constantsClassName != null
+                || registryClassName != null || firstRequestCode != NO_REQUEST_CODES;
+        return ImmutableSet.<String>builder()
+                .addAll(SUPPORTED)
+                .add(aggregating ? GRADLE_AGGREGATING : GRADLE_ISOLATING)
+                .build();
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public boolean isMetrics() {
+        return metrics;
+    }
+
+    public boolean isManifest() {
+        return manifest;
+    }
+
+    public boolean isFootprint() {
+        return footprint;
+    }
+
+    /**
+     * Returns the maximum number of generated methods, {@link #NO_BUDGET}, or a negative value
+     * when the option is not a positive number.
+     */
+    public long getMethodBudget() {
+        return methodBudget;
+    }
+
+    /**
+     * Returns the maximum estimated size of the generated code, {@link #NO_BUDGET}, or a negative
+     * value when the option is not a positive number.
+     */
+    public long getSizeBudget() {
+        return sizeBudget;
+    }
+
+    /**
+     * Whether the generated code has to be measured, for the report or for a budget.
+     */
+    public boolean isFootprintMeasured() {
+        return footprint || methodBudget != NO_BUDGET || sizeBudget != NO_BUDGET;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public boolean isTrace() {
+        return trace;
+    }
+
+    /**
+     * Returns the fully qualified name of the index class to generate, or {@code null}.
+     */
+    public String getIndexClassName() {
+        return indexClassName;
+    }
+
+    /**
+     * Returns the fully qualified name of the constants class to generate, or {@code null}.
+     */
+    public String getConstantsClassName() {
+        return constantsClassName;
+    }
+
+    /**
+     * Returns the fully qualified name of the registry class to generate, or {@code null}.
+     */
+    public String getRegistryClassName() {
+        return registryClassName;
+    }
+
+    /**
+     * Returns the directory of the output cache, or {@code null}.
+     */
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Returns the values of the options that change the generated dispatchers.
+     */
+    public String getGenerationKey() {
+        return "index=" + indexClassName + ",constants=" + constantsClassName + ",registry=" + registryClassName
+                + ",compact=" + compact + ",minSdk=" + minSdk + ",targetSdk=" + targetSdk
+                + ",trace=" + trace + ",requestCodes=" + firstRequestCode + "-" + lastRequestCode;
+    }
+
+    /**
+     * Returns the first request code of the module, {@link #NO_REQUEST_CODES}, or a negative
+     * value when the option is not a valid range.
+     */
+    public int getFirstRequestCode() {
+        return firstRequestCode;
+    }
+
+    /**
+     * Returns the last request code of the module, or a negative value when
+     * {@link #getFirstRequestCode()} is one.
+     */
+    public int getLastRequestCode() {
+        return lastRequestCode;
+    }
+
+    /**
+     * Returns the {@code minSdkVersion} of the module, or {@link #UNKNOWN_SDK}.
+     */
+    public int getMinSdk() {
+        return minSdk;
+    }
+
+    /**
+     * Returns the {@code targetSdkVersion} of the module, or {@link #UNKNOWN_SDK}.
+     */
+    public int getTargetSdk() {
+        return targetSdk;
+    }
+}
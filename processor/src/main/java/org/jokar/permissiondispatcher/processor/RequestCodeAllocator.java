@@ -0,0 +1,142 @@
+package org.jokar.permissiondispatcher.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Allocates the request codes of a module from the range configured with
+ * {@link ProcessorOptions#REQUEST_CODES}: each dispatcher gets a block of consecutive codes, one
+ * per method it requests itself, in the order the classes are processed. No two dispatchers of
+ * the module share a code, so the results of an Activity and of the Fragments it hosts cannot
+ * reach the wrong case, and the owner of a code is found by its offset in the range.
+ * <p>
+ * Not thread-safe; only use it on the processing thread.
+ */
+final class RequestCodeAllocator {
+
+    /**
+     * Returned by {@link #allocate(RuntimePermissionsElement)} when the range has no room left.
+     */
+    static final int NOT_ALLOCATED = -1;
+
+    private final int firstRequestCode;
+    private final int lastRequestCode;
+    private final JavaFileBuilder javaFileBuilder;
+    private final Map<String, Integer> firstRequestCodes = new HashMap<>();
+    // In code order, as codes are handed out in increasing order
+    private final List<Allocation> allocations = new ArrayList<>();
+    private int next;
+
+    RequestCodeAllocator(int firstRequestCode, int lastRequestCode, JavaFileBuilder javaFileBuilder) {
+        this.firstRequestCode = firstRequestCode;
+        this.lastRequestCode = lastRequestCode;
+        this.javaFileBuilder = javaFileBuilder;
+        next = firstRequestCode;
+    }
+
+    int getFirstRequestCode() {
+        return firstRequestCode;
+    }
+
+    int getLastRequestCode() {
+        return lastRequestCode;
+    }
+
+    /**
+     * Allocates the codes of the dispatcher of the given element, or returns the ones it already has.
+     *
+     * @return the first code of the dispatcher, or {@link #NOT_ALLOCATED}
+     */
+    int allocate(RuntimePermissionsElement element) {
+        String target = element.getElement().getQualifiedName().toString();
+        Integer allocated = firstRequestCodes.get(target);
+        if (allocated != null) {
+            return allocated;
+        }
+        List<NeedsPermissionMethodElement> methods = javaFileBuilder.ownMethodsOf(element);
+        // A superclass dispatcher from another module numbers its codes from 0
+        long first = Math.max(next, javaFileBuilder.getDefaultFirstRequestCode(element));
+        if (first + methods.size() - 1 > lastRequestCode) {
+            return NOT_ALLOCATED;
+        }
+        String dispatcher = element.getPackageName().isEmpty() ? element.getGeneratedClassName()
+                : element.getPackageName() + '.' + element.getGeneratedClassName();
+        for (int i = 0; i < methods.size(); i++) {
+            allocations.add(new Allocation((int) first + i, target, dispatcher, methods.get(i).getMethodName()));
+        }
+        next = (int) first + methods.size();
+        firstRequestCodes.put(target, (int) first);
+        return (int) first;
+    }
+
+    /**
+     * Returns the first code allocated to the dispatcher of the given element, or {@link #NOT_ALLOCATED}.
+     */
+    int getFirstRequestCode(RuntimePermissionsElement element) {
+        Integer allocated = firstRequestCodes.get(element.getElement().getQualifiedName().toString());
+        return allocated == null ? NOT_ALLOCATED : allocated;
+    }
+
+    /**
+     * The allocated codes, in increasing order.
+     */
+    List<Allocation> getAllocations() {
+        return Collections.unmodifiableList(allocations);
+    }
+
+    /**
+     * The allocation map: the target, dispatcher and method of every allocated code.
+     */
+    String toJson() {
+        StringBuilder json = new StringBuilder("{\n")
+                .append("  \"first\": ").append(firstRequestCode).append(",\n")
+                .append("  \"last\": ").append(lastRequestCode).append(",\n")
+                .append("  \"requestCodes\": [");
+        for (int i = 0; i < allocations.size(); i++) {
+            Allocation allocation = allocations.get(i);
+            json.append(i == 0 ? "\n" : ",\n")
+                    .append("    {")
+                    .append("\"code\": ").append(allocation.requestCode).append(", ")
+                    .append("\"target\": \"").append(escape(allocation.target)).append("\", ")
+                    .append("\"dispatcher\": \"").append(escape(allocation.dispatcher)).append("\", ")
+                    .append("\"method\": \"").append(escape(allocation.method)).append("\"")
+                    .append("}");
+        }
+        return json.append(allocations.isEmpty() ? "]\n}\n" : "\n  ]\n}\n").toString();
+    }
+
+    /**
+     * Escapes a name for a JSON string, so the map stays valid whatever the names hold.
+     */
+    private static String escape(String name) {
+        StringBuilder escaped = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static final class Allocation {
+        final int requestCode;
+        final String target;
+        final String dispatcher;
+        final String method;
+
+        Allocation(int requestCode, String target, String dispatcher, String method) {
+            this.requestCode = requestCode;
+            this.target = target;
+            this.dispatcher = dispatcher;
+            this.method = method;
+        }
+    }
+}
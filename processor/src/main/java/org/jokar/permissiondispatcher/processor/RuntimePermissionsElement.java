@@ -1,5 +1,6 @@
 package org.jokar.permissiondispatcher.processor;
 
+import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeVariableName;
 
@@ -10,116 +11,191 @@ import org.jokar.permissiondispatcher.annotation.OnShowRationale;
 import org.jokar.permissiondispatcher.processor.event.ClassType;
 import org.jokar.permissiondispatcher.processor.event.ConstantsProvider;
 import org.jokar.permissiondispatcher.processor.event.TypeResolver;
+import org.jokar.permissiondispatcher.processor.exception.ValidationException;
+import org.jokar.permissiondispatcher.processor.helper.SensitivePermissions;
+import org.jokar.permissiondispatcher.processor.metrics.ClassMetrics;
 import org.jokar.permissiondispatcher.processor.utils.ProcessorUtil;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.type.TypeMirror;
 
 import static org.jokar.permissiondispatcher.processor.utils.ValidatorUtils.checkActivity;
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.findMethods;
+import static org.jokar.permissiondispatcher.processor.utils.ValidatorUtils.checkInheritedMethods;
 import static org.jokar.permissiondispatcher.processor.utils.ValidatorUtils.checkNotEmpty;
+import static org.jokar.permissiondispatcher.processor.utils.ValidatorUtils.checkOverloadedMethods;
 import static org.jokar.permissiondispatcher.processor.utils.ValidatorUtils.checkPrivateMethods;
 import static org.jokar.permissiondispatcher.processor.utils.ValidatorUtils.checkMethodSignature;
 import static org.jokar.permissiondispatcher.processor.utils.ValidatorUtils.checkMixPermissionType;
 import static org.jokar.permissiondispatcher.processor.utils.ValidatorUtils.checkDuplicatedValue;
 import static org.jokar.permissiondispatcher.processor.utils.ValidatorUtils.checkMethodParameters;
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.findOnRationaleMatchingMethod;
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.findOnDeniedMatchingMethod;
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.findOnNeverAskMatchingMethod;
+import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.indexByPermissionKey;
 
 /**
  * Created by JokAr on 16/8/23.
+ * <p>
+ * Immutable model of one {@code @RuntimePermissions} class. The enclosed elements are scanned
+ * once and every annotation value is read once; code generation only reads from this model.
+ * <p>
+ * Annotated methods inherited from superclasses are part of the model. When the nearest
+ * annotated superclass is in the same package and compiled along with this class, the methods
+ * its dispatcher already handles are listed apart, so the dispatcher of this class can call that
+ * one instead of repeating them.
+ * <p>
+ * Validation problems are collected in {@link #getErrors()} rather than thrown; no code must be
+ * generated for an element that is not {@link #isValid() valid}.
  */
 public class RuntimePermissionsElement {
-    private String packageName;
+    private final TypeElement element;
 
-    private String className;
-    private String generatedClassName;
+    private final String packageName;
 
-    private ClassType classType;
+    private final String className;
+    private final String generatedClassName;
 
-    private TypeResolver mTypeResolver;
-    private TypeName mTypeName;
-    private List<TypeVariableName> typeVariables;
+    private final ClassType classType;
 
-    private List<ExecutableElement> needsPermissionsMethods;
+    private final TypeName mTypeName;
+    private final ClassName mRawTypeName;
+    private final List<TypeVariableName> typeVariables;
 
-    private List<ExecutableElement> showsRationaleMethods;
+    private final List<NeedsPermissionMethodElement> needsPermissionsMethods;
+    private final List<NeedsPermissionMethodElement> ownNeedsPermissionsMethods;
+    private final List<NeedsPermissionMethodElement> delegatedNeedsPermissionsMethods;
+    private final ClassName superDispatcherName;
+    private final List<PermissionKey> superDispatcherKeys;
+    private final int requestCodeOffset;
 
-    private List<ExecutableElement> deniedPermissionMethods;
+    private final List<PermissionMethodElement> showsRationaleMethods;
 
-    private List<ExecutableElement> neverAskMethods;
+    private final List<PermissionMethodElement> deniedPermissionMethods;
 
-    public RuntimePermissionsElement(TypeElement element, TypeResolver resolver) {
-        mTypeResolver = resolver;
+    private final List<PermissionMethodElement> neverAskMethods;
+
+    private final List<ValidationException> errors;
+
+    /**
+     * @param scanner              shares the annotated methods of superclasses between the classes of a round
+     * @param sensitivePermissions the special-access permissions, which cannot be mixed with others
+     * @param metrics              receives the time spent in validation, may be {@code null}
+     */
+    public RuntimePermissionsElement(TypeElement element, TypeResolver resolver, HierarchyScanner scanner,
+                                     SensitivePermissions sensitivePermissions, ClassMetrics metrics) {
+        this.element = element;
         mTypeName = TypeName.get(element.asType());
-        typeVariables = new ArrayList<>();
+        mRawTypeName = ClassName.get(element);
+        List<TypeVariableName> typeVariables = new ArrayList<>();
         List<? extends TypeParameterElement> typeParameters = element.getTypeParameters();
         for (TypeParameterElement element1 : typeParameters) {
             typeVariables.add(TypeVariableName.get(element1));
         }
+        this.typeVariables = Collections.unmodifiableList(typeVariables);
         String claseName = element.getQualifiedName().toString();
         packageName = ProcessorUtil.getPackageName(claseName);
         className = ProcessorUtil.getClassName(claseName);
-        classType = checkActivity(element, resolver);
+        List<ValidationException> errors = new ArrayList<>();
+        classType = checkActivity(element, resolver, errors);
         generatedClassName = element.getSimpleName().toString() + ConstantsProvider.GEN_CLASS_SUFFIX;
-        needsPermissionsMethods = findMethods(element, NeedsPermission.class);
-        validateNeedsMethods();
-
-        showsRationaleMethods = findMethods(element, OnShowRationale.class);
-        validateRationaleMethods();
 
-        deniedPermissionMethods = findMethods(element, OnPermissionDenied.class);
-        validateDeniedMethods();
+        HierarchyScanner.Hierarchy hierarchy = scanner.hierarchyOf(element);
+        List<PermissionMethodElement> needsMethods = hierarchy.getNeedsMethods();
+        showsRationaleMethods = hierarchy.getRationaleMethods();
+        deniedPermissionMethods = hierarchy.getDeniedMethods();
+        this.neverAskMethods = hierarchy.getNeverAskMethods();
+
+        long validationStart = System.nanoTime();
+        validateNeedsMethods(needsMethods, sensitivePermissions, errors);
+        validateRationaleMethods(resolver, errors);
+        validateDeniedMethods(resolver, errors);
+        validateNeverAskMethods(resolver, errors);
+        this.errors = Collections.unmodifiableList(errors);
+        if (metrics != null) {
+            metrics.addValidationNanos(System.nanoTime() - validationStart);
+        }
 
-        neverAskMethods = findMethods(element, OnNeverAskAgain.class);
-        validateNeverAskMethods();
+        // Hash index of the callbacks by permission set, so each match below is a single lookup
+        Map<PermissionKey, PermissionMethodElement> rationaleIndex = indexByPermissionKey(showsRationaleMethods);
+        Map<PermissionKey, PermissionMethodElement> deniedIndex = indexByPermissionKey(deniedPermissionMethods);
+        Map<PermissionKey, PermissionMethodElement> neverAskIndex = indexByPermissionKey(this.neverAskMethods);
+
+        List<NeedsPermissionMethodElement> needsPermissionsMethods = new ArrayList<>(needsMethods.size());
+        List<NeedsPermissionMethodElement> ownMethods = new ArrayList<>(needsMethods.size());
+        List<NeedsPermissionMethodElement> delegatedMethods = new ArrayList<>();
+        for (PermissionMethodElement needsMethod : needsMethods) {
+            PermissionKey key = needsMethod.getPermissionKey();
+            ExecutableElement method = needsMethod.getElement();
+            // Inherited methods are called with the type arguments the class gives their superclass
+            List<? extends TypeMirror> parameterTypes = method.getEnclosingElement() == element
+                    || method.getParameters().isEmpty()
+                    ? null : resolver.asMemberOf(element, method).getParameterTypes();
+            NeedsPermissionMethodElement needsPermissionMethod = new NeedsPermissionMethodElement(needsMethod,
+                    rationaleIndex.get(key), deniedIndex.get(key), neverAskIndex.get(key), parameterTypes);
+            needsPermissionsMethods.add(needsPermissionMethod);
+            if (hierarchy.isDelegated(method)) {
+                delegatedMethods.add(needsPermissionMethod);
+            } else {
+                ownMethods.add(needsPermissionMethod);
+            }
+        }
+        this.needsPermissionsMethods = Collections.unmodifiableList(needsPermissionsMethods);
+        ownNeedsPermissionsMethods = Collections.unmodifiableList(ownMethods);
+        delegatedNeedsPermissionsMethods = Collections.unmodifiableList(delegatedMethods);
+        TypeElement superTarget = hierarchy.getSuperTarget();
+        superDispatcherName = superTarget == null ? null : ClassName.get(packageName,
+                superTarget.getSimpleName().toString() + ConstantsProvider.GEN_CLASS_SUFFIX);
+        superDispatcherKeys = hierarchy.getSuperTargetKeys();
+        requestCodeOffset = hierarchy.getRequestCodeOffset();
     }
 
 
-    private void validateNeedsMethods() {
-        checkNotEmpty(needsPermissionsMethods, this, NeedsPermission.class);
-        checkPrivateMethods(needsPermissionsMethods, NeedsPermission.class);
-        checkMethodSignature(needsPermissionsMethods);
-        checkMixPermissionType(needsPermissionsMethods, NeedsPermission.class);
+    private void validateNeedsMethods(List<PermissionMethodElement> needsMethods,
+                                      SensitivePermissions sensitivePermissions,
+                                      List<ValidationException> errors) {
+        checkNotEmpty(needsMethods, this, NeedsPermission.class, errors);
+        checkPrivateMethods(needsMethods, NeedsPermission.class, errors);
+        checkInheritedMethods(needsMethods, element, NeedsPermission.class, errors);
+        checkOverloadedMethods(needsMethods, NeedsPermission.class, errors);
+        checkMethodSignature(needsMethods, errors);
+        checkMixPermissionType(needsMethods, sensitivePermissions, errors);
     }
 
-    private void validateRationaleMethods() {
-        checkDuplicatedValue(showsRationaleMethods, OnShowRationale.class);
-        checkPrivateMethods(showsRationaleMethods, OnShowRationale.class);
-        checkMethodSignature(showsRationaleMethods);
+    private void validateRationaleMethods(TypeResolver resolver, List<ValidationException> errors) {
+        checkDuplicatedValue(showsRationaleMethods, OnShowRationale.class, errors);
+        checkPrivateMethods(showsRationaleMethods, OnShowRationale.class, errors);
+        checkInheritedMethods(showsRationaleMethods, element, OnShowRationale.class, errors);
+        checkMethodSignature(showsRationaleMethods, errors);
         checkMethodParameters(showsRationaleMethods, 1,
-                "org.jokar.permissiondispatcher.library.PermissionRequest", mTypeResolver);
-    }
-
-    private void validateDeniedMethods() {
-        checkDuplicatedValue(deniedPermissionMethods, OnPermissionDenied.class);
-        checkPrivateMethods(deniedPermissionMethods, OnPermissionDenied.class);
-        checkMethodSignature(deniedPermissionMethods);
-        checkMethodParameters(deniedPermissionMethods, 0, "", mTypeResolver);
-    }
-
-    public void validateNeverAskMethods() {
-        checkDuplicatedValue(neverAskMethods, OnNeverAskAgain.class);
-        checkPrivateMethods(neverAskMethods, OnNeverAskAgain.class);
-        checkMethodSignature(neverAskMethods);
-        checkMethodParameters(neverAskMethods, 0, "", mTypeResolver);
+                "org.jokar.permissiondispatcher.library.PermissionRequest", resolver, errors);
     }
 
-    public ExecutableElement findOnRationaleForNeeds(String[] value) {
-        return findOnRationaleMatchingMethod(value, showsRationaleMethods);
+    private void validateDeniedMethods(TypeResolver resolver, List<ValidationException> errors) {
+        checkDuplicatedValue(deniedPermissionMethods, OnPermissionDenied.class, errors);
+        checkPrivateMethods(deniedPermissionMethods, OnPermissionDenied.class, errors);
+        checkInheritedMethods(deniedPermissionMethods, element, OnPermissionDenied.class, errors);
+        checkMethodSignature(deniedPermissionMethods, errors);
+        checkMethodParameters(deniedPermissionMethods, 0, "", resolver, errors);
     }
 
-    public ExecutableElement findOnDeniedForNeeds(String[] value) {
-        return findOnDeniedMatchingMethod(value, deniedPermissionMethods);
+    private void validateNeverAskMethods(TypeResolver resolver, List<ValidationException> errors) {
+        checkDuplicatedValue(neverAskMethods, OnNeverAskAgain.class, errors);
+        checkPrivateMethods(neverAskMethods, OnNeverAskAgain.class, errors);
+        checkInheritedMethods(neverAskMethods, element, OnNeverAskAgain.class, errors);
+        checkMethodSignature(neverAskMethods, errors);
+        checkMethodParameters(neverAskMethods, 0, "", resolver, errors);
     }
 
-    public ExecutableElement findOnNeverAskForNeeds(String[] value) {
-        return findOnNeverAskMatchingMethod(value, neverAskMethods);
+    /**
+     * The annotated class this element was built from. It is the single originating element
+     * of the generated dispatcher, which lets Gradle treat the processor as isolating.
+     */
+    public TypeElement getElement() {
+        return element;
     }
 
     public String getPackageName() {
@@ -138,30 +214,84 @@ public class RuntimePermissionsElement {
         return generatedClassName;
     }
 
-    public List<ExecutableElement> getNeedsPermissionsMethods() {
+    public List<NeedsPermissionMethodElement> getNeedsPermissionsMethods() {
         return needsPermissionsMethods;
     }
 
-    public TypeResolver getTypeResolver() {
-        return mTypeResolver;
+    /**
+     * The {@code @NeedsPermission} methods the dispatcher of this class handles itself: all of
+     * them, but those in {@link #getDelegatedNeedsPermissionsMethods()}.
+     */
+    public List<NeedsPermissionMethodElement> getOwnNeedsPermissionsMethods() {
+        return ownNeedsPermissionsMethods;
     }
 
-    public List<ExecutableElement> getShowsRationaleMethods() {
+    /**
+     * The inherited {@code @NeedsPermission} methods that the dispatcher named by
+     * {@link #getSuperDispatcherName()} handles exactly as the dispatcher of this class would.
+     */
+    public List<NeedsPermissionMethodElement> getDelegatedNeedsPermissionsMethods() {
+        return delegatedNeedsPermissionsMethods;
+    }
+
+    /**
+     * The dispatcher of the nearest annotated superclass, when it is in the same package and
+     * compiled along with this class, otherwise {@code null}.
+     */
+    public ClassName getSuperDispatcherName() {
+        return superDispatcherName;
+    }
+
+    /**
+     * The permissions of every {@code @NeedsPermission} method handled by the dispatcher named by
+     * {@link #getSuperDispatcherName()}.
+     */
+    public List<PermissionKey> getSuperDispatcherKeys() {
+        return superDispatcherKeys;
+    }
+
+    /**
+     * The first request code of the dispatcher when it calls the dispatcher of its superclass,
+     * whose request codes are all lower.
+     */
+    public int getRequestCodeOffset() {
+        return requestCodeOffset;
+    }
+
+    public List<PermissionMethodElement> getShowsRationaleMethods() {
         return showsRationaleMethods;
     }
 
-    public List<ExecutableElement> getDeniedPermissionMethods() {
+    public List<PermissionMethodElement> getDeniedPermissionMethods() {
         return deniedPermissionMethods;
     }
 
-    public List<ExecutableElement> getNeverAskMethods() {
+    public List<PermissionMethodElement> getNeverAskMethods() {
         return neverAskMethods;
     }
 
+    /**
+     * Every validation problem found in the annotated class, in the order of the checks.
+     */
+    public List<ValidationException> getErrors() {
+        return errors;
+    }
+
+    public boolean isValid() {
+        return errors.isEmpty();
+    }
+
     public TypeName getTypeName() {
         return mTypeName;
     }
 
+    /**
+     * The annotated class without its type variables.
+     */
+    public ClassName getRawTypeName() {
+        return mRawTypeName;
+    }
+
     public List<TypeVariableName> getTypeVariables() {
         return typeVariables;
     }
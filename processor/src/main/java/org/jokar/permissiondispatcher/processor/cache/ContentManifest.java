@@ -0,0 +1,33 @@
+package org.jokar.permissiondispatcher.processor.cache;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SHA-256 hashes of every source file the processor generated, in {@code sha256sum} format and
+ * sorted by path, so two builds can be compared file by file and {@code sha256sum -c} can check
+ * a generated sources directory against it. Not thread-safe; only use it on the processing thread.
+ */
+public final class ContentManifest {
+
+    private final Map<String, String> hashes = new TreeMap<>();
+
+    /**
+     * Records a generated source file.
+     *
+     * @param qualifiedName the name of the top level class of the file
+     * @param source        the content written to the file
+     */
+    public void add(String qualifiedName, String source) {
+        hashes.put(qualifiedName.replace('.', '/') + ".java", OutputCache.sha256(source));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder manifest = new StringBuilder();
+        for (Map.Entry<String, String> entry : hashes.entrySet()) {
+            manifest.append(entry.getValue()).append("  ").append(entry.getKey()).append('\n');
+        }
+        return manifest.toString();
+    }
+}
@@ -0,0 +1,160 @@
+package org.jokar.permissiondispatcher.processor.cache;
+
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeVariableName;
+
+import org.jokar.permissiondispatcher.processor.NeedsPermissionMethodElement;
+import org.jokar.permissiondispatcher.processor.PermissionMethodElement;
+import org.jokar.permissiondispatcher.processor.RuntimePermissionsElement;
+import org.jokar.permissiondispatcher.processor.helper.SensitivePermissions;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * On-disk cache of generated dispatcher sources, keyed by a SHA-256 hash of the model of the
+ * annotated class and of everything else the generated code depends on: the options that change
+ * the output, the special-access permission strategies and the processor build itself.
+ * <p>
+ * Entries are written to a temporary file and moved in place, so several compilations can share
+ * a directory. Not thread-safe; only use it on the processing thread.
+ */
+public final class OutputCache {
+
+    private static final String EXTENSION = ".java";
+
+    private final Path directory;
+    private final String salt;
+    private int hits;
+    private int misses;
+
+    /**
+     * @param generationKey        the processor options that change the generated code
+     * @param sensitivePermissions the strategies generating the code of the special-access permissions
+     */
+    public OutputCache(File directory, String generationKey, SensitivePermissions sensitivePermissions) {
+        this.directory = directory.toPath();
+        this.salt = processorVersion() + '\n' + generationKey + '\n' + sensitivePermissions.getKey();
+    }
+
+    /**
+     * Returns the key of the dispatcher of the given element, numbering its request codes from
+     * {@code firstRequestCode}.
+     */
+    public String keyOf(RuntimePermissionsElement element, int firstRequestCode) {
+        StringBuilder model = new StringBuilder(salt)
+                .append('\n').append(element.getElement().getQualifiedName())
+                .append('\n').append(element.getTypeName())
+                .append('\n').append(element.getGeneratedClassName())
+                .append('\n').append(element.getClassType());
+        for (TypeVariableName typeVariable : element.getTypeVariables()) {
+            model.append('\n').append(typeVariable).append(" extends");
+            for (TypeName bound : typeVariable.bounds) {
+                model.append(' ').append(bound);
+            }
+        }
+        // The superclass dispatcher, the methods left to it and the first request code change the output
+        model.append("\nsuper ").append(element.getSuperDispatcherName())
+                .append(' ').append(element.getSuperDispatcherKeys())
+                .append(' ').append(firstRequestCode);
+        for (NeedsPermissionMethodElement needsMethod : element.getDelegatedNeedsPermissionsMethods()) {
+            model.append(' ').append(needsMethod.getMethodName());
+        }
+        for (NeedsPermissionMethodElement needsMethod : element.getNeedsPermissionsMethods()) {
+            model.append("\n@").append(needsMethod.getMethodName())
+                    .append(needsMethod.getPermissionList());
+            for (ParameterSpec parameter : needsMethod.getParameters()) {
+                model.append(' ').append(parameter.type).append(' ').append(parameter.name);
+            }
+            appendCallback(model, "rationale", needsMethod.getOnRationale());
+            appendCallback(model, "denied", needsMethod.getOnDenied());
+            appendCallback(model, "neverAsk", needsMethod.getOnNeverAsk());
+        }
+        return sha256(model.toString());
+    }
+
+    private static void appendCallback(StringBuilder model, String kind, PermissionMethodElement callback) {
+        if (callback != null) {
+            model.append(' ').append(kind).append('=').append(callback.getMethodName());
+        }
+    }
+
+    /**
+     * Returns the cached source for the key, or {@code null} on a miss.
+     */
+    public String get(String key) {
+        try {
+            String source = new String(Files.readAllBytes(directory.resolve(key + EXTENSION)),
+                    StandardCharsets.UTF_8);
+            hits++;
+            return source;
+        } catch (NoSuchFileException e) {
+            misses++;
+            return null;
+        } catch (IOException e) {
+            // An unreadable entry is regenerated and overwritten
+            misses++;
+            return null;
+        }
+    }
+
+    public void put(String key, String source) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.write(temp, source.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, directory.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Identifies the processor build, so that entries written by another version are not reused.
+     */
+    private static String processorVersion() {
+        CodeSource codeSource = OutputCache.class.getProtectionDomain().getCodeSource();
+        if (codeSource == null || codeSource.getLocation() == null) {
+            return "unknown";
+        }
+        try {
+            File location = new File(codeSource.getLocation().toURI());
+            return location + ":" + location.length() + ":" + location.lastModified();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return codeSource.getLocation().toString();
+        }
+    }
+
+    static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.jokar.permissiondispatcher.processor.event;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * {@link TypeResolver} that remembers every type it resolves.
+ * <p>
+ * The processor creates one instance per round, so {@code android.app.Activity}, the support
+ * {@code Fragment} and {@code PermissionRequest} hit the javac symbol table once per round
+ * instead of once per annotated class. Not thread-safe; only use it on the processing thread.
+ */
+public final class CachingTypeResolver implements TypeResolver {
+
+    private final Types mTypes;
+    private final Elements mElements;
+
+    private final Map<String, TypeElement> typeElements = new HashMap<>();
+    private final Map<String, TypeMirror> declaredTypes = new HashMap<>();
+    private final Map<String, Boolean> subTypes = new HashMap<>();
+
+    public CachingTypeResolver(Types types, Elements elements) {
+        mTypes = types;
+        mElements = elements;
+    }
+
+    @Override
+    public boolean isSubTypeOf(String subTypeClass, String superTypeClass) {
+        String key = subTypeClass + ':' + superTypeClass;
+        Boolean result = subTypes.get(key);
+        if (result == null) {
+            TypeMirror subType = declaredTypeOf(subTypeClass);
+            TypeMirror superType = declaredTypeOf(superTypeClass);
+            result = subType != null && superType != null && mTypes.isSubtype(subType, superType);
+            subTypes.put(key, result);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isSameType(TypeMirror t1, TypeMirror t2) {
+        return mTypes.isSameType(t1, t2);
+    }
+
+    @Override
+    public TypeMirror typeMirrorOf(String className) {
+        TypeElement typeElement = typeElementOf(className);
+        return typeElement == null ? null : typeElement.asType();
+    }
+
+    @Override
+    public ExecutableType asMemberOf(TypeElement container, ExecutableElement method) {
+        return (ExecutableType) mTypes.asMemberOf((DeclaredType) container.asType(), method);
+    }
+
+    private TypeElement typeElementOf(String className) {
+        // Classes missing from the classpath are cached as well, as null
+        if (typeElements.containsKey(className)) {
+            return typeElements.get(className);
+        }
+        TypeElement typeElement = mElements.getTypeElement(className);
+        typeElements.put(className, typeElement);
+        return typeElement;
+    }
+
+    private TypeMirror declaredTypeOf(String className) {
+        if (declaredTypes.containsKey(className)) {
+            return declaredTypes.get(className);
+        }
+        TypeElement typeElement = typeElementOf(className);
+        TypeMirror declaredType = typeElement == null ? null : mTypes.getDeclaredType(typeElement);
+        declaredTypes.put(className, declaredType);
+        return declaredType;
+    }
+}
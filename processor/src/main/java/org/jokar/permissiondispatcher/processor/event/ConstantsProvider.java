@@ -9,6 +9,12 @@ public interface ConstantsProvider {
 
     ClassName ACTIVITY_COMPAT = ClassName.get("android.support.v4.app", "ActivityCompat");
     ClassName PERMISSION_UTILS = ClassName.get("org.jokar.permissiondispatcher.library", "PermissionUtils");
+    ClassName PERMISSION_REQUEST = ClassName.get("org.jokar.permissiondispatcher.library", "PermissionRequest");
+    ClassName PERMISSION_STATE = ClassName.get("org.jokar.permissiondispatcher.library", "PermissionState");
+    ClassName DISPATCHER_TABLE = ClassName.get("org.jokar.permissiondispatcher.library", "DispatcherTable");
+    ClassName DISPATCHER_INTERPRETER = ClassName.get("org.jokar.permissiondispatcher.library", "DispatcherInterpreter");
+    ClassName BUILD = ClassName.get("android.os", "Build");
+    ClassName TRACE = ClassName.get("android.os", "Trace");
     String ACTIVITY = "android.app.Activity";
     String V4FRAGMENT = "android.support.v4.app.Fragment";
     String CLASS_SUFFIX = "PermissionsDispatcher";
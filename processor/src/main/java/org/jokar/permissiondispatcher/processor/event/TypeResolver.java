@@ -1,5 +1,8 @@
 package org.jokar.permissiondispatcher.processor.event;
 
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ExecutableType;
 import javax.lang.model.type.TypeMirror;
 
 /**
@@ -11,4 +14,10 @@ public interface TypeResolver {
     boolean isSameType(TypeMirror t1, TypeMirror t2);
 
     TypeMirror typeMirrorOf(String className);
+
+    /**
+     * The type of a method as a member of the given class, e.g. with the type arguments the
+     * class passes to the generic superclass declaring the method.
+     */
+    ExecutableType asMemberOf(TypeElement container, ExecutableElement method);
 }
@@ -7,11 +7,11 @@ import javax.lang.model.element.ExecutableElement;
 /**
  * Created by JokAr on 16/8/23.
  */
-public class DuplicatedValueException extends RuntimeException {
+public class DuplicatedValueException extends ValidationException {
 
     public DuplicatedValueException(List<String> value, ExecutableElement element,
                                     Class clazz) {
         super(value +" is duplicated in '"+element.getSimpleName().toString()+"()' annotated with '@"
-                + clazz.getSimpleName() +"'");
+                + clazz.getSimpleName() +"'", element);
     }
 }
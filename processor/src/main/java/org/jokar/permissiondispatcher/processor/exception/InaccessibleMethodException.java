@@ -0,0 +1,16 @@
+package org.jokar.permissiondispatcher.processor.exception;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * An annotated method inherited from a superclass in another package that the generated
+ * dispatcher cannot call.
+ */
+public class InaccessibleMethodException extends ValidationException {
+
+    public InaccessibleMethodException(ExecutableElement element, TypeElement target, Class clazz) {
+        super("Method '" + element.getSimpleName().toString() + "()' annotated with '@" + clazz.getSimpleName()
+                + "' is inherited by '" + target.getSimpleName() + "' from another package and must be public", element);
+    }
+}
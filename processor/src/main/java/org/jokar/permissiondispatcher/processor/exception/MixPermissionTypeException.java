@@ -5,10 +5,10 @@ import javax.lang.model.element.ExecutableElement;
 /**
  * Created by JokAr on 16/8/23.
  */
-public class MixPermissionTypeException extends RuntimeException {
+public class MixPermissionTypeException extends ValidationException {
 
     public MixPermissionTypeException(ExecutableElement element,String permissionName) {
         super("Method '"+element.getSimpleName().toString()+"()' defines "+permissionName
-        +" with other permissions at the same time.");
+        +" with other permissions at the same time.", element);
     }
 }
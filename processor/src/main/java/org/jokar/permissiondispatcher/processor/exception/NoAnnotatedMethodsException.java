@@ -5,9 +5,9 @@ import org.jokar.permissiondispatcher.processor.RuntimePermissionsElement;
 /**
  * Created by JokAr on 16/8/23.
  */
-public class NoAnnotatedMethodsException extends RuntimeException {
+public class NoAnnotatedMethodsException extends ValidationException {
 
     public NoAnnotatedMethodsException(RuntimePermissionsElement element,Class clazz) {
-        super("Annotated class '"+element.getClassName()+"' doesn't have any method annotated with '@"+ clazz.getSimpleName() +"'");
+        super("Annotated class '"+element.getClassName()+"' doesn't have any method annotated with '@"+ clazz.getSimpleName() +"'", element.getElement());
     }
 }
@@ -5,9 +5,9 @@ import javax.lang.model.element.ExecutableElement;
 /**
  * Created by JokAr on 16/8/24.
  */
-public class NoParametersAllowedException extends RuntimeException {
+public class NoParametersAllowedException extends ValidationException {
 
     public NoParametersAllowedException(ExecutableElement element) {
-        super("Method '"+element.getSimpleName().toString()+"()' must not have any parameters");
+        super("Method '"+element.getSimpleName().toString()+"()' must not have any parameters", element);
     }
 }
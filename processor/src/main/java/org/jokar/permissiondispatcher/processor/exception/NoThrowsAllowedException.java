@@ -5,9 +5,9 @@ import javax.lang.model.element.ExecutableElement;
 /**
  * Created by JokAr on 16/8/23.
  */
-public class NoThrowsAllowedException extends RuntimeException {
+public class NoThrowsAllowedException extends ValidationException {
 
     public NoThrowsAllowedException(ExecutableElement element) {
-        super("Method '"+element.getSimpleName().toString()+"()'  must not have any 'throws' declaration in its signature");
+        super("Method '"+element.getSimpleName().toString()+"()'  must not have any 'throws' declaration in its signature", element);
     }
 }
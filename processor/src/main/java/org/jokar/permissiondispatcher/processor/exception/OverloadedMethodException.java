@@ -0,0 +1,16 @@
+package org.jokar.permissiondispatcher.processor.exception;
+
+import javax.lang.model.element.ExecutableElement;
+
+/**
+ * An annotated method sharing its name with another one of the class, declared or inherited.
+ * The dispatcher names its request codes and pending requests after the method, so those
+ * would clash.
+ */
+public class OverloadedMethodException extends ValidationException {
+
+    public OverloadedMethodException(ExecutableElement element, Class clazz) {
+        super("Method '" + element.getSimpleName().toString() + "()' annotated with '@" + clazz.getSimpleName()
+                + "' must not be overloaded", element);
+    }
+}
@@ -5,9 +5,9 @@ import javax.lang.model.element.ExecutableElement;
 /**
  * Created by JokAr on 16/8/23.
  */
-public class PrivateMethodException extends RuntimeException {
+public class PrivateMethodException extends ValidationException {
 
     public PrivateMethodException(ExecutableElement element,Class clazz) {
-        super("Method '"+element.getSimpleName().toString()+"()' annotated with '@"+ clazz.getSimpleName() +"' must not be private");
+        super("Method '"+element.getSimpleName().toString()+"()' annotated with '@"+ clazz.getSimpleName() +"' must not be private", element);
     }
 }
@@ -0,0 +1,23 @@
+package org.jokar.permissiondispatcher.processor.exception;
+
+import javax.lang.model.element.Element;
+
+/**
+ * A problem found while validating an annotated class, reported on the element it was found on.
+ * <p>
+ * Validation collects these instead of throwing them, so every problem of a round is reported
+ * at once. They carry no stack trace, which would only point into the processor.
+ */
+public class ValidationException extends RuntimeException {
+
+    private final Element element;
+
+    public ValidationException(String message, Element element) {
+        super(message, null, false, false);
+        this.element = element;
+    }
+
+    public Element getElement() {
+        return element;
+    }
+}
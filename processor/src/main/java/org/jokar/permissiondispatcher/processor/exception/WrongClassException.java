@@ -5,8 +5,8 @@ import javax.lang.model.element.TypeElement;
 /**
  * Created by JokAr on 16/8/23.
  */
-public class WrongClassException extends RuntimeException {
+public class WrongClassException extends ValidationException {
     public WrongClassException(TypeElement message) {
-        super("Class '"+message.getSimpleName().toString()+"' can't be annotated with '@RuntimePermissions");
+        super("Class '"+message.getSimpleName().toString()+"' can't be annotated with '@RuntimePermissions", message);
     }
 }
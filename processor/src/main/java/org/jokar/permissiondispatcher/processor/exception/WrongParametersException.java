@@ -6,9 +6,9 @@ import javax.lang.model.type.TypeMirror;
 /**
  * Created by JokAr on 16/8/24.
  */
-public class WrongParametersException extends RuntimeException {
+public class WrongParametersException extends ValidationException {
     public WrongParametersException(ExecutableElement element, String clazz) {
-        super("Method '" + element.getSimpleName().toString() + "()' must declare parameters of type " + clazz);
+        super("Method '" + element.getSimpleName().toString() + "()' must declare parameters of type " + clazz, element);
 
     }
 }
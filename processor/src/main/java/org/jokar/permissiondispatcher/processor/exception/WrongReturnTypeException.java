@@ -5,8 +5,8 @@ import javax.lang.model.element.ExecutableElement;
 /**
  * Created by JokAr on 16/8/23.
  */
-public class WrongReturnTypeException extends RuntimeException {
+public class WrongReturnTypeException extends ValidationException {
     public WrongReturnTypeException(ExecutableElement element) {
-        super("Method '"+element.getSimpleName().toString()+"()' must specify return type 'void', not '"+element.getReturnType()+"'");
+        super("Method '"+element.getSimpleName().toString()+"()' must specify return type 'void', not '"+element.getReturnType()+"'", element);
     }
 }
@@ -0,0 +1,34 @@
+package org.jokar.permissiondispatcher.processor.helper;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+
+/**
+ * Exemption from battery optimizations, asked for with a system dialog since API 23.
+ */
+public class BatteryOptimizationsHelper implements SensitivePermissionInterface {
+
+    private static final ClassName PERMISSION_UTILS = ClassName.get("org.jokar.permissiondispatcher.library", "PermissionUtils");
+    private static final ClassName INTENT = ClassName.get("android.content", "Intent");
+    private static final ClassName URI = ClassName.get("android.net", "Uri");
+    // A literal, so the generated code also compiles against SDKs older than API 23
+    private static final String ACTION = "android.settings.REQUEST_IGNORE_BATTERY_OPTIMIZATIONS";
+
+    @Override
+    public String getPermission() {
+        return SensitivePermissions.REQUEST_IGNORE_BATTERY_OPTIMIZATIONS;
+    }
+
+    @Override
+    public void addHasSelfPermissionsCondition(MethodSpec.Builder builder, String activityVar, CodeBlock permissions) {
+        builder.beginControlFlow("if ($T.isIgnoringBatteryOptimizations($N))", PERMISSION_UTILS, activityVar);
+    }
+
+    @Override
+    public void addRequestPermissionsStatement(MethodSpec.Builder builder, String activityVar, String requestCodeField) {
+        builder.addStatement("$T intent = new $T($S, $T.parse(\"package:\" + $N.getPackageName()))",
+                INTENT, INTENT, ACTION, URI, activityVar);
+        builder.addStatement("$N.startActivityForResult(intent, $N)", activityVar, requestCodeField);
+    }
+}
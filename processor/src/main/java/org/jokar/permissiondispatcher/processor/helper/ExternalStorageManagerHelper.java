@@ -0,0 +1,34 @@
+package org.jokar.permissiondispatcher.processor.helper;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+
+/**
+ * All files access, granted on the "All files access" screen since API 30.
+ */
+public class ExternalStorageManagerHelper implements SensitivePermissionInterface {
+
+    private static final ClassName PERMISSION_UTILS = ClassName.get("org.jokar.permissiondispatcher.library", "PermissionUtils");
+    private static final ClassName INTENT = ClassName.get("android.content", "Intent");
+    private static final ClassName URI = ClassName.get("android.net", "Uri");
+    // A literal, so the generated code also compiles against SDKs older than API 30
+    private static final String ACTION = "android.settings.MANAGE_APP_ALL_FILES_ACCESS_PERMISSION";
+
+    @Override
+    public String getPermission() {
+        return SensitivePermissions.MANAGE_EXTERNAL_STORAGE;
+    }
+
+    @Override
+    public void addHasSelfPermissionsCondition(MethodSpec.Builder builder, String activityVar, CodeBlock permissions) {
+        builder.beginControlFlow("if ($T.isExternalStorageManager($N))", PERMISSION_UTILS, activityVar);
+    }
+
+    @Override
+    public void addRequestPermissionsStatement(MethodSpec.Builder builder, String activityVar, String requestCodeField) {
+        builder.addStatement("$T intent = new $T($S, $T.parse(\"package:\" + $N.getPackageName()))",
+                INTENT, INTENT, ACTION, URI, activityVar);
+        builder.addStatement("$N.startActivityForResult(intent, $N)", activityVar, requestCodeField);
+    }
+}
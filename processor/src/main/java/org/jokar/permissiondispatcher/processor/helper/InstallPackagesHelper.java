@@ -0,0 +1,34 @@
+package org.jokar.permissiondispatcher.processor.helper;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+
+/**
+ * Installing other apps, granted on the "Install unknown apps" screen since API 26.
+ */
+public class InstallPackagesHelper implements SensitivePermissionInterface {
+
+    private static final ClassName PERMISSION_UTILS = ClassName.get("org.jokar.permissiondispatcher.library", "PermissionUtils");
+    private static final ClassName INTENT = ClassName.get("android.content", "Intent");
+    private static final ClassName URI = ClassName.get("android.net", "Uri");
+    // A literal, so the generated code also compiles against SDKs older than API 26
+    private static final String ACTION = "android.settings.MANAGE_UNKNOWN_APP_SOURCES";
+
+    @Override
+    public String getPermission() {
+        return SensitivePermissions.REQUEST_INSTALL_PACKAGES;
+    }
+
+    @Override
+    public void addHasSelfPermissionsCondition(MethodSpec.Builder builder, String activityVar, CodeBlock permissions) {
+        builder.beginControlFlow("if ($T.canRequestPackageInstalls($N))", PERMISSION_UTILS, activityVar);
+    }
+
+    @Override
+    public void addRequestPermissionsStatement(MethodSpec.Builder builder, String activityVar, String requestCodeField) {
+        builder.addStatement("$T intent = new $T($S, $T.parse(\"package:\" + $N.getPackageName()))",
+                INTENT, INTENT, ACTION, URI, activityVar);
+        builder.addStatement("$N.startActivityForResult(intent, $N)", activityVar, requestCodeField);
+    }
+}
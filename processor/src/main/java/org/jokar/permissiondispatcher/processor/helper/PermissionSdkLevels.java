@@ -0,0 +1,265 @@
+package org.jokar.permissiondispatcher.processor.helper;
+
+import com.google.common.collect.ImmutableMap;
+import com.squareup.javapoet.CodeBlock;
+
+import org.jokar.permissiondispatcher.processor.event.ConstantsProvider;
+import org.jokar.permissiondispatcher.processor.utils.ProcessorUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compile-time table of the platform permissions that are requested at runtime: the API level
+ * each was introduced in, the last one it exists on when it was split or retired, and its group.
+ * <p>
+ * The generated code tests these levels against {@code Build.VERSION.SDK_INT} inline, folded with
+ * the min SDK of the module, and drops the permissions missing on the device from the arrays it
+ * checks and requests. A retired permission is still enforced for apps targeting an SDK it exists
+ * on, so it is only dropped when the target SDK of the module is known to be past it.
+ * <p>
+ * It replaces the runtime lookups of {@code PermissionUtils.MIN_SDK_PERMISSIONS}, which only old
+ * generated code still uses. Permissions that are not in the table, like custom ones, are taken
+ * to exist on every SDK.
+ */
+public final class PermissionSdkLevels {
+
+    /**
+     * {@code Build.VERSION_CODES.M}, the first release with runtime permissions.
+     */
+    public static final int RUNTIME_PERMISSIONS_SDK = 23;
+
+    /**
+     * Max SDK of the permissions that still exist on the latest release.
+     */
+    public static final int NO_MAX_SDK = Integer.MAX_VALUE;
+
+    private static final String CALENDAR = "android.permission-group.CALENDAR";
+    private static final String CALL_LOG = "android.permission-group.CALL_LOG";
+    private static final String CAMERA = "android.permission-group.CAMERA";
+    private static final String CONTACTS = "android.permission-group.CONTACTS";
+    private static final String LOCATION = "android.permission-group.LOCATION";
+    private static final String MICROPHONE = "android.permission-group.MICROPHONE";
+    private static final String PHONE = "android.permission-group.PHONE";
+    private static final String SENSORS = "android.permission-group.SENSORS";
+    private static final String ACTIVITY_RECOGNITION = "android.permission-group.ACTIVITY_RECOGNITION";
+    private static final String SMS = "android.permission-group.SMS";
+    private static final String STORAGE = "android.permission-group.STORAGE";
+    private static final String READ_MEDIA_AURAL = "android.permission-group.READ_MEDIA_AURAL";
+    private static final String READ_MEDIA_VISUAL = "android.permission-group.READ_MEDIA_VISUAL";
+    private static final String NEARBY_DEVICES = "android.permission-group.NEARBY_DEVICES";
+    private static final String NOTIFICATIONS = "android.permission-group.NOTIFICATIONS";
+    // Special-access permissions have no group, they are granted on their own settings screen
+    private static final String NO_GROUP = null;
+
+    private static final Entry[] ENTRIES = {
+            new Entry("android.permission.READ_CALENDAR", 1, NO_MAX_SDK, CALENDAR),
+            new Entry("android.permission.WRITE_CALENDAR", 1, NO_MAX_SDK, CALENDAR),
+            new Entry("android.permission.READ_CALL_LOG", 16, NO_MAX_SDK, CALL_LOG),
+            new Entry("android.permission.WRITE_CALL_LOG", 16, NO_MAX_SDK, CALL_LOG),
+            new Entry("android.permission.PROCESS_OUTGOING_CALLS", 1, NO_MAX_SDK, CALL_LOG),
+            new Entry("android.permission.CAMERA", 1, NO_MAX_SDK, CAMERA),
+            new Entry("android.permission.READ_CONTACTS", 1, NO_MAX_SDK, CONTACTS),
+            new Entry("android.permission.WRITE_CONTACTS", 1, NO_MAX_SDK, CONTACTS),
+            new Entry("android.permission.GET_ACCOUNTS", 1, NO_MAX_SDK, CONTACTS),
+            new Entry("android.permission.ACCESS_FINE_LOCATION", 1, NO_MAX_SDK, LOCATION),
+            new Entry("android.permission.ACCESS_COARSE_LOCATION", 1, NO_MAX_SDK, LOCATION),
+            new Entry("android.permission.ACCESS_BACKGROUND_LOCATION", 29, NO_MAX_SDK, LOCATION),
+            new Entry("android.permission.RECORD_AUDIO", 1, NO_MAX_SDK, MICROPHONE),
+            new Entry("android.permission.READ_PHONE_STATE", 1, NO_MAX_SDK, PHONE),
+            new Entry("android.permission.READ_PHONE_NUMBERS", 26, NO_MAX_SDK, PHONE),
+            new Entry("android.permission.CALL_PHONE", 1, NO_MAX_SDK, PHONE),
+            new Entry("android.permission.ANSWER_PHONE_CALLS", 26, NO_MAX_SDK, PHONE),
+            new Entry("android.permission.ACCEPT_HANDOVER", 28, NO_MAX_SDK, PHONE),
+            new Entry("android.permission.USE_SIP", 9, NO_MAX_SDK, PHONE),
+            new Entry("com.android.voicemail.permission.ADD_VOICEMAIL", 14, NO_MAX_SDK, PHONE),
+            new Entry("android.permission.BODY_SENSORS", 20, NO_MAX_SDK, SENSORS),
+            new Entry("android.permission.BODY_SENSORS_BACKGROUND", 33, NO_MAX_SDK, SENSORS),
+            new Entry("android.permission.ACTIVITY_RECOGNITION", 29, NO_MAX_SDK, ACTIVITY_RECOGNITION),
+            new Entry("android.permission.SEND_SMS", 1, NO_MAX_SDK, SMS),
+            new Entry("android.permission.RECEIVE_SMS", 1, NO_MAX_SDK, SMS),
+            new Entry("android.permission.READ_SMS", 1, NO_MAX_SDK, SMS),
+            new Entry("android.permission.RECEIVE_WAP_PUSH", 1, NO_MAX_SDK, SMS),
+            new Entry("android.permission.RECEIVE_MMS", 1, NO_MAX_SDK, SMS),
+            // Split into the READ_MEDIA_* permissions in API 33
+            new Entry("android.permission.READ_EXTERNAL_STORAGE", 16, 32, STORAGE),
+            // Grants nothing more than scoped storage from API 30 on
+            new Entry("android.permission.WRITE_EXTERNAL_STORAGE", 4, 29, STORAGE),
+            new Entry("android.permission.ACCESS_MEDIA_LOCATION", 29, NO_MAX_SDK, STORAGE),
+            new Entry("android.permission.READ_MEDIA_AUDIO", 33, NO_MAX_SDK, READ_MEDIA_AURAL),
+            new Entry("android.permission.READ_MEDIA_IMAGES", 33, NO_MAX_SDK, READ_MEDIA_VISUAL),
+            new Entry("android.permission.READ_MEDIA_VIDEO", 33, NO_MAX_SDK, READ_MEDIA_VISUAL),
+            new Entry("android.permission.READ_MEDIA_VISUAL_USER_SELECTED", 34, NO_MAX_SDK, READ_MEDIA_VISUAL),
+            new Entry("android.permission.BLUETOOTH_SCAN", 31, NO_MAX_SDK, NEARBY_DEVICES),
+            new Entry("android.permission.BLUETOOTH_CONNECT", 31, NO_MAX_SDK, NEARBY_DEVICES),
+            new Entry("android.permission.BLUETOOTH_ADVERTISE", 31, NO_MAX_SDK, NEARBY_DEVICES),
+            new Entry("android.permission.UWB_RANGING", 31, NO_MAX_SDK, NEARBY_DEVICES),
+            new Entry("android.permission.NEARBY_WIFI_DEVICES", 33, NO_MAX_SDK, NEARBY_DEVICES),
+            new Entry("android.permission.POST_NOTIFICATIONS", 33, NO_MAX_SDK, NOTIFICATIONS),
+            new Entry(SensitivePermissions.SYSTEM_ALERT_WINDOW, 23, NO_MAX_SDK, NO_GROUP),
+            new Entry(SensitivePermissions.WRITE_SETTINGS, 23, NO_MAX_SDK, NO_GROUP),
+            new Entry(SensitivePermissions.PACKAGE_USAGE_STATS, 21, NO_MAX_SDK, NO_GROUP),
+            new Entry(SensitivePermissions.REQUEST_IGNORE_BATTERY_OPTIMIZATIONS, 23, NO_MAX_SDK, NO_GROUP),
+            new Entry(SensitivePermissions.REQUEST_INSTALL_PACKAGES, 26, NO_MAX_SDK, NO_GROUP),
+            new Entry(SensitivePermissions.MANAGE_EXTERNAL_STORAGE, 30, NO_MAX_SDK, NO_GROUP),
+    };
+
+    private static final Map<String, Entry> PERMISSIONS;
+
+    static {
+        ImmutableMap.Builder<String, Entry> builder = ImmutableMap.builder();
+        for (Entry entry : ENTRIES) {
+            builder.put(entry.getName(), entry);
+        }
+        PERMISSIONS = builder.build();
+    }
+
+    private PermissionSdkLevels() {
+    }
+
+    /**
+     * Returns the entry of the given permission, or {@code null} if it is not a platform
+     * permission requested at runtime.
+     */
+    public static Entry get(String permission) {
+        return PERMISSIONS.get(permission);
+    }
+
+    /**
+     * Returns the condition under which the permission exists on the device, e.g.
+     * {@code Build.VERSION.SDK_INT >= 33}, or {@code null} if it exists on every SDK from
+     * {@code minSdk} on.
+     *
+     * @param targetSdk the target SDK of the module, or {@code ProcessorOptions.UNKNOWN_SDK}
+     */
+    public static CodeBlock existsOnDevice(String permission, int minSdk, int targetSdk) {
+        Entry entry = PERMISSIONS.get(permission);
+        if (entry == null) {
+            return null;
+        }
+        if (neverExists(permission, minSdk, targetSdk)) {
+            return CodeBlock.of("false");
+        }
+        // An unknown min SDK is API 1, so the permissions that always existed need no check
+        boolean checkMin = entry.getMinSdk() > Math.max(minSdk, 1);
+        boolean checkMax = isRetiredFor(entry, targetSdk);
+        if (checkMin && checkMax) {
+            return CodeBlock.of("$T.VERSION.SDK_INT >= $L && $T.VERSION.SDK_INT <= $L", ConstantsProvider.BUILD,
+                    entry.getMinSdk(), ConstantsProvider.BUILD, entry.getMaxSdk());
+        } else if (checkMin) {
+            return CodeBlock.of("$T.VERSION.SDK_INT >= $L", ConstantsProvider.BUILD, entry.getMinSdk());
+        } else if (checkMax) {
+            return CodeBlock.of("$T.VERSION.SDK_INT <= $L", ConstantsProvider.BUILD, entry.getMaxSdk());
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the permission was retired before {@code minSdk}, for an app targeting an
+     * SDK past it too.
+     */
+    public static boolean neverExists(String permission, int minSdk, int targetSdk) {
+        Entry entry = PERMISSIONS.get(permission);
+        return entry != null && isRetiredFor(entry, targetSdk) && minSdk > entry.getMaxSdk();
+    }
+
+    /**
+     * Whether the platform stops enforcing the permission past its max SDK for the app. Apps
+     * targeting its max SDK or lower, or whose target SDK is unknown, keep having to request it.
+     */
+    private static boolean isRetiredFor(Entry entry, int targetSdk) {
+        return entry.getMaxSdk() != NO_MAX_SDK && targetSdk > entry.getMaxSdk();
+    }
+
+    /**
+     * Returns the initializer of a {@code String[]} holding the given permissions that exist on
+     * the device. Permissions retired before {@code minSdk} are left out; a plain array is enough
+     * when the others all exist on every SDK from {@code minSdk} on, otherwise the array is
+     * filtered once with {@code PermissionUtils.existingPermissions}.
+     */
+    public static CodeBlock permissionsArray(String[] permissions, int minSdk, int targetSdk) {
+        List<String> kept = new ArrayList<>(permissions.length);
+        CodeBlock.Builder conditions = CodeBlock.builder();
+        boolean conditional = false;
+        for (String permission : permissions) {
+            if (neverExists(permission, minSdk, targetSdk)) {
+                continue;
+            }
+            kept.add(permission);
+            CodeBlock exists = existsOnDevice(permission, minSdk, targetSdk);
+            conditional |= exists != null;
+            conditions.add(", ").add(exists == null ? CodeBlock.of("true") : exists);
+        }
+        String array = kept.isEmpty() ? "new String[0]" : "new String[]" + ProcessorUtil.toString(kept.toArray(new String[0]));
+        if (!conditional) {
+            return CodeBlock.of("$L", array);
+        }
+        return CodeBlock.builder()
+                .add("$T.existingPermissions($L", ConstantsProvider.PERMISSION_UTILS, array)
+                .add(conditions.build())
+                .add(")")
+                .build();
+    }
+
+    /**
+     * Returns the mask of the given permissions that exist on the device, bit {@code i} standing
+     * for {@code permissions[i]}, e.g. {@code 0x3L | (Build.VERSION.SDK_INT >= 33 ? 0x4L : 0L)}.
+     */
+    public static CodeBlock existingMask(String[] permissions, int minSdk, int targetSdk) {
+        long always = 0;
+        CodeBlock.Builder conditional = CodeBlock.builder();
+        for (int i = 0; i < permissions.length; i++) {
+            CodeBlock exists = existsOnDevice(permissions[i], minSdk, targetSdk);
+            if (exists == null) {
+                always |= 1L << i;
+            } else if (!neverExists(permissions[i], minSdk, targetSdk)) {
+                conditional.add(" | ($L ? 0x$LL : 0L)", exists, Long.toHexString(1L << i));
+            }
+        }
+        return CodeBlock.builder().add("0x$LL", Long.toHexString(always)).add(conditional.build()).build();
+    }
+
+    /**
+     * A platform permission and the SDKs it exists on.
+     */
+    public static final class Entry {
+        private final String name;
+        private final int minSdk;
+        private final int maxSdk;
+        private final String group;
+
+        Entry(String name, int minSdk, int maxSdk, String group) {
+            this.name = name;
+            this.minSdk = minSdk;
+            this.maxSdk = maxSdk;
+            this.group = group;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The API level the permission was introduced in.
+         */
+        public int getMinSdk() {
+            return minSdk;
+        }
+
+        /**
+         * The last API level the permission exists on, or {@link #NO_MAX_SDK}.
+         */
+        public int getMaxSdk() {
+            return maxSdk;
+        }
+
+        /**
+         * The permission group, e.g. {@code android.permission-group.LOCATION}, or {@code null}
+         * for special-access permissions.
+         */
+        public String getGroup() {
+            return group;
+        }
+    }
+}
@@ -1,12 +1,23 @@
 package org.jokar.permissiondispatcher.processor.helper;
 
+import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.MethodSpec;
 
 /**
  * Created by JokAr on 16/8/26.
+ * <p>
+ * Generates the check and the settings request of one special-access permission. Implementations
+ * are loaded with {@link java.util.ServiceLoader}, so they need a public no-arg constructor and an
+ * entry in {@code META-INF/services/org.jokar.permissiondispatcher.processor.helper.SensitivePermissionInterface}.
  */
 public interface SensitivePermissionInterface {
-    void addHasSelfPermissionsCondition(MethodSpec.Builder builder, String activityVar, String permissionField);
+
+    /**
+     * The permission handled, e.g. {@code android.permission.WRITE_SETTINGS}.
+     */
+    String getPermission();
+
+    void addHasSelfPermissionsCondition(MethodSpec.Builder builder, String activityVar, CodeBlock permissions);
 
     void addRequestPermissionsStatement(MethodSpec.Builder builder, String activityVar, String requestCodeField);
 }
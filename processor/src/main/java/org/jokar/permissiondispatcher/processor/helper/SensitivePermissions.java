@@ -0,0 +1,116 @@
+package org.jokar.permissiondispatcher.processor.helper;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.jokar.permissiondispatcher.processor.PermissionKey;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Immutable table of the special-access permissions, granted through a system settings screen
+ * instead of the runtime permission dialog, keyed by {@link PermissionKey}.
+ * <p>
+ * Each permission is handled by a {@link SensitivePermissionInterface} strategy: the built-in
+ * ones are always registered, so they do not depend on a {@code META-INF/services} file surviving
+ * the build, and others are registered in {@code META-INF/services} by any jar on the annotation
+ * processor path. The processor loads the table once, then every lookup is a single hash lookup.
+ * The strategies are stateless, so a table is safely shared.
+ */
+public final class SensitivePermissions {
+
+    public static final String WRITE_SETTINGS = "android.permission.WRITE_SETTINGS";
+    public static final String SYSTEM_ALERT_WINDOW = "android.permission.SYSTEM_ALERT_WINDOW";
+    public static final String REQUEST_INSTALL_PACKAGES = "android.permission.REQUEST_INSTALL_PACKAGES";
+    public static final String MANAGE_EXTERNAL_STORAGE = "android.permission.MANAGE_EXTERNAL_STORAGE";
+    public static final String PACKAGE_USAGE_STATS = "android.permission.PACKAGE_USAGE_STATS";
+    public static final String REQUEST_IGNORE_BATTERY_OPTIMIZATIONS = "android.permission.REQUEST_IGNORE_BATTERY_OPTIMIZATIONS";
+
+    private static final List<SensitivePermissionInterface> BUILT_IN = Arrays.asList(
+            new WriteSettingsHelper(),
+            new SystemAlertWindowHelper(),
+            new InstallPackagesHelper(),
+            new ExternalStorageManagerHelper(),
+            new UsageStatsHelper(),
+            new BatteryOptimizationsHelper());
+
+    /**
+     * No special-access permission, for when the strategies cannot be loaded.
+     */
+    public static final SensitivePermissions NONE = new SensitivePermissions(
+            ImmutableMap.<PermissionKey, SensitivePermissionInterface>of());
+
+    private final Map<PermissionKey, SensitivePermissionInterface> helpers;
+
+    private SensitivePermissions(Map<PermissionKey, SensitivePermissionInterface> helpers) {
+        this.helpers = helpers;
+    }
+
+    /**
+     * Loads the built-in strategies and the ones registered with the given class loader.
+     *
+     * @throws IllegalStateException if two strategies handle the same permission
+     */
+    public static SensitivePermissions load(ClassLoader classLoader) {
+        Map<PermissionKey, SensitivePermissionInterface> helpers = new HashMap<>();
+        Set<String> builtIn = new HashSet<>();
+        for (SensitivePermissionInterface helper : BUILT_IN) {
+            register(helpers, helper);
+            builtIn.add(helper.getClass().getName());
+        }
+        for (SensitivePermissionInterface helper : ServiceLoader.load(SensitivePermissionInterface.class, classLoader)) {
+            // A services file of an older processor jar may still list a built-in strategy
+            if (!builtIn.contains(helper.getClass().getName())) {
+                register(helpers, helper);
+            }
+        }
+        return new SensitivePermissions(ImmutableMap.copyOf(helpers));
+    }
+
+    private static void register(Map<PermissionKey, SensitivePermissionInterface> helpers,
+                                 SensitivePermissionInterface helper) {
+        SensitivePermissionInterface existing = helpers.put(PermissionKey.of(helper.getPermission()), helper);
+        if (existing != null) {
+            throw new IllegalStateException(String.format("Both %s and %s handle %s",
+                    existing.getClass().getName(), helper.getClass().getName(), helper.getPermission()));
+        }
+    }
+
+    /**
+     * Returns the helper generating the code for the given permissions, or {@code null}
+     * if they are regular runtime permissions.
+     */
+    public SensitivePermissionInterface get(PermissionKey key) {
+        return helpers.get(key);
+    }
+
+    public boolean contains(PermissionKey key) {
+        return helpers.containsKey(key);
+    }
+
+    /**
+     * Returns whether the permission is a special-access one, which cannot be requested together
+     * with other permissions.
+     */
+    public boolean isSensitive(String permission) {
+        return helpers.containsKey(PermissionKey.of(permission));
+    }
+
+    /**
+     * Identifies the registered strategies, for the output cache: another set of strategies
+     * generates other code.
+     */
+    public String getKey() {
+        Map<String, String> classes = new TreeMap<>();
+        for (Map.Entry<PermissionKey, SensitivePermissionInterface> entry : helpers.entrySet()) {
+            classes.put(entry.getKey().toString(), entry.getValue().getClass().getName());
+        }
+        return classes.toString();
+    }
+}
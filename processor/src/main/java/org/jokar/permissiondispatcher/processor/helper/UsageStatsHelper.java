@@ -0,0 +1,32 @@
+package org.jokar.permissiondispatcher.processor.helper;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+
+/**
+ * Usage access, granted on the "Usage access" screen, which lists every app, since API 21.
+ */
+public class UsageStatsHelper implements SensitivePermissionInterface {
+
+    private static final ClassName PERMISSION_UTILS = ClassName.get("org.jokar.permissiondispatcher.library", "PermissionUtils");
+    private static final ClassName INTENT = ClassName.get("android.content", "Intent");
+    // A literal, so the generated code also compiles against SDKs older than API 21
+    private static final String ACTION = "android.settings.USAGE_ACCESS_SETTINGS";
+
+    @Override
+    public String getPermission() {
+        return SensitivePermissions.PACKAGE_USAGE_STATS;
+    }
+
+    @Override
+    public void addHasSelfPermissionsCondition(MethodSpec.Builder builder, String activityVar, CodeBlock permissions) {
+        builder.beginControlFlow("if ($T.hasUsageStatsAccess($N))", PERMISSION_UTILS, activityVar);
+    }
+
+    @Override
+    public void addRequestPermissionsStatement(MethodSpec.Builder builder, String activityVar, String requestCodeField) {
+        builder.addStatement("$T intent = new $T($S)", INTENT, INTENT, ACTION);
+        builder.addStatement("$N.startActivityForResult(intent, $N)", activityVar, requestCodeField);
+    }
+}
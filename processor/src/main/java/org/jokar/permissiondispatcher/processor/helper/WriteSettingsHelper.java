@@ -1,6 +1,7 @@
 package org.jokar.permissiondispatcher.processor.helper;
 
 import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.MethodSpec;
 
 /**
@@ -8,15 +9,20 @@ import com.squareup.javapoet.MethodSpec;
  */
 public class WriteSettingsHelper implements SensitivePermissionInterface {
 
-    private ClassName PERMISSION_UTILS = ClassName.get("org.jokar.permissiondispatcher.library", "PermissionUtils");
-    private ClassName SETTINGS = ClassName.get("android.provider", "Settings");
-    private ClassName INTENT = ClassName.get("android.content", "Intent");
-    private ClassName URI = ClassName.get("android.net", "Uri");
+    private static final ClassName PERMISSION_UTILS = ClassName.get("org.jokar.permissiondispatcher.library", "PermissionUtils");
+    private static final ClassName SETTINGS = ClassName.get("android.provider", "Settings");
+    private static final ClassName INTENT = ClassName.get("android.content", "Intent");
+    private static final ClassName URI = ClassName.get("android.net", "Uri");
 
     @Override
-    public void addHasSelfPermissionsCondition(MethodSpec.Builder builder, String activityVar, String permissionField) {
-        builder.beginControlFlow("if ($T.hasSelfPermissions($N, $N) || $T.System.canWrite($N))",
-                PERMISSION_UTILS, activityVar, permissionField, SETTINGS, activityVar);
+    public String getPermission() {
+        return SensitivePermissions.WRITE_SETTINGS;
+    }
+
+    @Override
+    public void addHasSelfPermissionsCondition(MethodSpec.Builder builder, String activityVar, CodeBlock permissions) {
+        builder.beginControlFlow("if ($T.hasExistingSelfPermissions($N, $L) || $T.System.canWrite($N))",
+                PERMISSION_UTILS, activityVar, permissions, SETTINGS, activityVar);
     }
 
     @Override
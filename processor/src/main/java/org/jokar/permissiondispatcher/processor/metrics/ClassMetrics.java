@@ -0,0 +1,90 @@
+package org.jokar.permissiondispatcher.processor.metrics;
+
+import com.squareup.javapoet.TypeSpec;
+
+/**
+ * Time spent on, and code generated for, one {@code @RuntimePermissions} class in one round.
+ * <p>
+ * Each phase is recorded by a single thread; the processing thread reads the values only after
+ * that phase has completed.
+ */
+public final class ClassMetrics {
+
+    private final String className;
+
+    private long validationNanos;
+    private long modelNanos;
+    private long generationNanos;
+    private long writeNanos;
+
+    private int generatedMethods;
+    private int generatedFields;
+    private int generatedTypes;
+
+    ClassMetrics(String className) {
+        this.className = className;
+    }
+
+    public void addValidationNanos(long nanos) {
+        validationNanos += nanos;
+    }
+
+    /**
+     * Records the time spent building the model, validation excluded.
+     */
+    public void addModelNanos(long nanos) {
+        modelNanos += nanos;
+    }
+
+    public void addGenerationNanos(long nanos) {
+        generationNanos += nanos;
+    }
+
+    public void addWriteNanos(long nanos) {
+        writeNanos += nanos;
+    }
+
+    /**
+     * Counts the methods, fields and nested classes of the generated dispatcher, recursively.
+     */
+    public void countGenerated(TypeSpec typeSpec) {
+        generatedMethods += typeSpec.methodSpecs.size();
+        generatedFields += typeSpec.fieldSpecs.size();
+        for (TypeSpec nested : typeSpec.typeSpecs) {
+            generatedTypes++;
+            countGenerated(nested);
+        }
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public long getValidationNanos() {
+        return validationNanos;
+    }
+
+    public long getModelNanos() {
+        return modelNanos;
+    }
+
+    public long getGenerationNanos() {
+        return generationNanos;
+    }
+
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    public int getGeneratedMethods() {
+        return generatedMethods;
+    }
+
+    public int getGeneratedFields() {
+        return generatedFields;
+    }
+
+    public int getGeneratedTypes() {
+        return generatedTypes;
+    }
+}
@@ -0,0 +1,125 @@
+package org.jokar.permissiondispatcher.processor.metrics;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JFR event committed once per {@code @RuntimePermissions} class and round.
+ * <p>
+ * The event type is defined at runtime through {@code jdk.jfr.EventFactory}, looked up by
+ * reflection, so the processor builds with {@code --release 8} and still runs on JVMs without
+ * the {@code jdk.jfr} module, where no event is ever committed.
+ */
+final class ClassProcessedEvent {
+
+    private static final ClassProcessedEvent INSTANCE = create();
+
+    private final Object factory;
+    private final Method newEvent;
+    private final Method isEnabled;
+    private final Method set;
+    private final Method commit;
+
+    private ClassProcessedEvent(Object factory, Method newEvent, Method isEnabled, Method set, Method commit) {
+        this.factory = factory;
+        this.newEvent = newEvent;
+        this.isEnabled = isEnabled;
+        this.set = set;
+        this.commit = commit;
+    }
+
+    static boolean isAvailable() {
+        return INSTANCE != null;
+    }
+
+    static void commit(int round, ClassMetrics metrics) {
+        if (INSTANCE != null) {
+            INSTANCE.commitEvent(round, metrics);
+        }
+    }
+
+    private void commitEvent(int round, ClassMetrics metrics) {
+        try {
+            Object event = newEvent.invoke(factory);
+            // Cheap no-op unless a recording with this event enabled is running
+            if (!(Boolean) isEnabled.invoke(event)) {
+                return;
+            }
+            // In the order of the fields given to the factory
+            Object[] values = {
+                    round,
+                    metrics.getClassName(),
+                    metrics.getValidationNanos(),
+                    metrics.getModelNanos(),
+                    metrics.getGenerationNanos(),
+                    metrics.getWriteNanos(),
+                    metrics.getGeneratedMethods(),
+                    metrics.getGeneratedFields(),
+                    metrics.getGeneratedTypes(),
+            };
+            for (int i = 0; i < values.length; i++) {
+                set.invoke(event, i, values[i]);
+            }
+            commit.invoke(event);
+        } catch (ReflectiveOperationException e) {
+            // The metrics must never fail the build
+        }
+    }
+
+    /**
+     * Defines the event type, or returns {@code null} when the JVM has no Flight Recorder.
+     */
+    private static ClassProcessedEvent create() {
+        try {
+            ClassLoader loader = ClassProcessedEvent.class.getClassLoader();
+            Constructor<?> annotation = Class.forName("jdk.jfr.AnnotationElement", false, loader)
+                    .getConstructor(Class.class, Object.class);
+            Constructor<?> field = Class.forName("jdk.jfr.ValueDescriptor", false, loader)
+                    .getConstructor(Class.class, String.class, List.class);
+            Class<?> label = Class.forName("jdk.jfr.Label", false, loader);
+            List<?> annotations = Arrays.asList(
+                    annotation.newInstance(Class.forName("jdk.jfr.Name", false, loader),
+                            "org.jokar.permissiondispatcher.ClassProcessed"),
+                    annotation.newInstance(label, "Dispatcher Generated"),
+                    annotation.newInstance(Class.forName("jdk.jfr.Category", false, loader),
+                            new String[]{"PermissionsDispatcher", "Annotation Processing"}),
+                    annotation.newInstance(Class.forName("jdk.jfr.Description", false, loader),
+                            "Time spent by PermissionsProcessor on one @RuntimePermissions class"));
+            Object nanoseconds = annotation.newInstance(Class.forName("jdk.jfr.Timespan", false, loader),
+                    "NANOSECONDS");
+            List<?> fields = Arrays.asList(
+                    field.newInstance(int.class, "round", labelled(annotation, label, "Round")),
+                    field.newInstance(String.class, "className", labelled(annotation, label, "Class")),
+                    field.newInstance(long.class, "validation", labelled(annotation, label, "Validation", nanoseconds)),
+                    field.newInstance(long.class, "model", labelled(annotation, label, "Model", nanoseconds)),
+                    field.newInstance(long.class, "generation", labelled(annotation, label, "Generation", nanoseconds)),
+                    field.newInstance(long.class, "write", labelled(annotation, label, "Write", nanoseconds)),
+                    field.newInstance(int.class, "generatedMethods", labelled(annotation, label, "Generated Methods")),
+                    field.newInstance(int.class, "generatedFields", labelled(annotation, label, "Generated Fields")),
+                    field.newInstance(int.class, "generatedTypes", labelled(annotation, label, "Generated Types")));
+
+            Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory", false, loader);
+            Class<?> event = Class.forName("jdk.jfr.Event", false, loader);
+            return new ClassProcessedEvent(
+                    eventFactory.getMethod("create", List.class, List.class).invoke(null, annotations, fields),
+                    eventFactory.getMethod("newEvent"),
+                    event.getMethod("isEnabled"),
+                    event.getMethod("set", int.class, Object.class),
+                    event.getMethod("commit"));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static List<Object> labelled(Constructor<?> annotation, Class<?> label, String value, Object... others)
+            throws ReflectiveOperationException {
+        List<Object> annotations = new ArrayList<>(others.length + 1);
+        annotations.add(annotation.newInstance(label, value));
+        Collections.addAll(annotations, others);
+        return annotations;
+    }
+}
@@ -0,0 +1,112 @@
+package org.jokar.permissiondispatcher.processor.metrics;
+
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Classes, methods, fields and estimated bytecode size of the code generated for each target
+ * of a module, enabled with
+ * {@link org.jokar.permissiondispatcher.processor.ProcessorOptions#FOOTPRINT} or one of the
+ * budget options.
+ * <p>
+ * The size is estimated from the JavaPoet specs, before javac runs: a fixed cost per class, field
+ * and method plus the length of the generated code. It is meant to compare modules and track
+ * growth, not to predict the size of the APK. Not thread-safe; only use it on the processing thread.
+ */
+public final class FootprintReport {
+
+    // Rough class file costs, fitted on generated dispatchers: headers and constant pool entries
+    private static final int CLASS_BYTES = 600;
+    private static final int FIELD_BYTES = 60;
+    private static final int METHOD_BYTES = 140;
+    // Characters of generated source per byte of bytecode and constant pool
+    private static final int CODE_CHARS_PER_BYTE = 2;
+
+    // Sorted by target, so the report does not depend on round or element order
+    private final Map<String, Footprint> footprints = new TreeMap<>();
+
+    /**
+     * Records the code generated for a target: its dispatcher, or a module-wide class.
+     */
+    public void add(String target, TypeSpec typeSpec) {
+        Footprint footprint = new Footprint();
+        footprint.add(typeSpec);
+        footprints.put(target, footprint);
+    }
+
+    public int getTotalMethods() {
+        int methods = 0;
+        for (Footprint footprint : footprints.values()) {
+            methods += footprint.methods;
+        }
+        return methods;
+    }
+
+    public long getTotalBytes() {
+        long bytes = 0;
+        for (Footprint footprint : footprints.values()) {
+            bytes += footprint.bytes;
+        }
+        return bytes;
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"targets\": [");
+        int classes = 0;
+        int fields = 0;
+        int i = 0;
+        for (Map.Entry<String, Footprint> entry : footprints.entrySet()) {
+            Footprint footprint = entry.getValue();
+            classes += footprint.classes;
+            fields += footprint.fields;
+            json.append(i++ == 0 ? "\n" : ",\n")
+                    .append("    {")
+                    .append("\"target\": \"").append(entry.getKey()).append("\", ")
+                    .append("\"classes\": ").append(footprint.classes).append(", ")
+                    .append("\"methods\": ").append(footprint.methods).append(", ")
+                    .append("\"fields\": ").append(footprint.fields).append(", ")
+                    .append("\"estimatedBytes\": ").append(footprint.bytes)
+                    .append("}");
+        }
+        return json.append(i == 0 ? "],\n" : "\n  ],\n")
+                .append("  \"total\": {")
+                .append("\"classes\": ").append(classes).append(", ")
+                .append("\"methods\": ").append(getTotalMethods()).append(", ")
+                .append("\"fields\": ").append(fields).append(", ")
+                .append("\"estimatedBytes\": ").append(getTotalBytes())
+                .append("}\n}\n")
+                .toString();
+    }
+
+    private static final class Footprint {
+        int classes;
+        int methods;
+        int fields;
+        long bytes;
+
+        void add(TypeSpec typeSpec) {
+            classes++;
+            bytes += CLASS_BYTES;
+            long codeChars = typeSpec.staticBlock.toString().length()
+                    + typeSpec.initializerBlock.toString().length();
+            for (FieldSpec field : typeSpec.fieldSpecs) {
+                fields++;
+                bytes += FIELD_BYTES;
+                codeChars += field.initializer.toString().length();
+            }
+            for (MethodSpec method : typeSpec.methodSpecs) {
+                methods++;
+                bytes += METHOD_BYTES;
+                codeChars += method.code.toString().length();
+            }
+            bytes += codeChars / CODE_CHARS_PER_BYTE;
+            for (TypeSpec nested : typeSpec.typeSpecs) {
+                add(nested);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.jokar.permissiondispatcher.processor.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-round, per-class metrics of a compilation, enabled with
+ * {@link org.jokar.permissiondispatcher.processor.ProcessorOptions#METRICS}.
+ */
+public final class ProcessingMetrics {
+
+    private final List<Map<String, ClassMetrics>> rounds = new ArrayList<>();
+
+    /**
+     * Starts a new round; {@link #forClass(String)} then records into that round.
+     */
+    public void newRound() {
+        rounds.add(new LinkedHashMap<String, ClassMetrics>());
+    }
+
+    public ClassMetrics forClass(String className) {
+        Map<String, ClassMetrics> round = rounds.get(rounds.size() - 1);
+        ClassMetrics metrics = round.get(className);
+        if (metrics == null) {
+            metrics = new ClassMetrics(className);
+            round.put(className, metrics);
+        }
+        return metrics;
+    }
+
+    public int getRound() {
+        return rounds.size();
+    }
+
+    /**
+     * Sends the metrics of every class of the current round to Java Flight Recorder,
+     * when the JVM has it.
+     */
+    public void commitRound() {
+        if (!ClassProcessedEvent.isAvailable()) {
+            return;
+        }
+        for (ClassMetrics metrics : rounds.get(rounds.size() - 1).values()) {
+            ClassProcessedEvent.commit(getRound(), metrics);
+        }
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"rounds\": [");
+        for (int i = 0; i < rounds.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\n      \"round\": ").append(i + 1).append(",\n      \"classes\": [");
+            int j = 0;
+            for (ClassMetrics metrics : rounds.get(i).values()) {
+                json.append(j++ == 0 ? "\n" : ",\n")
+                        .append("        {")
+                        .append("\"class\": \"").append(metrics.getClassName()).append("\", ")
+                        .append("\"validationNanos\": ").append(metrics.getValidationNanos()).append(", ")
+                        .append("\"modelNanos\": ").append(metrics.getModelNanos()).append(", ")
+                        .append("\"generationNanos\": ").append(metrics.getGenerationNanos()).append(", ")
+                        .append("\"writeNanos\": ").append(metrics.getWriteNanos()).append(", ")
+                        .append("\"methods\": ").append(metrics.getGeneratedMethods()).append(", ")
+                        .append("\"fields\": ").append(metrics.getGeneratedFields()).append(", ")
+                        .append("\"types\": ").append(metrics.getGeneratedTypes())
+                        .append("}");
+            }
+            json.append(j == 0 ? "]\n    }" : "\n      ]\n    }");
+        }
+        return json.append(rounds.isEmpty() ? "]\n}\n" : "\n  ]\n}\n").toString();
+    }
+}
@@ -1,50 +1,111 @@
 package org.jokar.permissiondispatcher.processor.utils;
 
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.TypeName;
 
 import org.jokar.permissiondispatcher.annotation.NeedsPermission;
 import org.jokar.permissiondispatcher.annotation.OnNeverAskAgain;
 import org.jokar.permissiondispatcher.annotation.OnPermissionDenied;
 import org.jokar.permissiondispatcher.annotation.OnShowRationale;
-import org.jokar.permissiondispatcher.annotation.RuntimePermissions;
+import org.jokar.permissiondispatcher.processor.HierarchyScanner;
+import org.jokar.permissiondispatcher.processor.PermissionKey;
+import org.jokar.permissiondispatcher.processor.PermissionMethodElement;
 import org.jokar.permissiondispatcher.processor.RuntimePermissionsElement;
 import org.jokar.permissiondispatcher.processor.event.ConstantsProvider;
 import org.jokar.permissiondispatcher.processor.event.TypeResolver;
-import org.jokar.permissiondispatcher.processor.helper.SensitivePermissionInterface;
-import org.jokar.permissiondispatcher.processor.helper.SystemAlertWindowHelper;
-import org.jokar.permissiondispatcher.processor.helper.WriteSettingsHelper;
+import org.jokar.permissiondispatcher.processor.helper.SensitivePermissions;
+import org.jokar.permissiondispatcher.processor.metrics.ClassMetrics;
+import org.jokar.permissiondispatcher.processor.metrics.ProcessingMetrics;
 
-import java.lang.annotation.Annotation;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.Set;
+import java.util.Map;
 
-import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
-
-import static java.util.Arrays.asList;
-import static java.util.Arrays.deepEquals;
-import static java.util.Collections.emptyList;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.IntersectionType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
 
 /**
  * Created by JokAr on 16/8/23.
  */
 public final class ProcessorUtil {
 
-    public static List<RuntimePermissionsElement> getAnnotatedClasses(RoundEnvironment roundEnv, TypeResolver typeResolver) {
-        List<RuntimePermissionsElement> runtimePermissionsElementList = new ArrayList<>();
+    /**
+     * Builds the model of one annotated class, recording the time spent in {@code metrics}
+     * when it is not {@code null}.
+     */
+    public static RuntimePermissionsElement createRuntimePermissionsElement(TypeElement typeElement, TypeResolver typeResolver,
+                                                                            HierarchyScanner scanner,
+                                                                            SensitivePermissions sensitivePermissions,
+                                                                            ProcessingMetrics metrics) {
+        if (metrics == null) {
+            return new RuntimePermissionsElement(typeElement, typeResolver, scanner, sensitivePermissions, null);
+        }
+        ClassMetrics classMetrics = metrics.forClass(typeElement.getQualifiedName().toString());
+        long start = System.nanoTime();
+        RuntimePermissionsElement element = new RuntimePermissionsElement(typeElement, typeResolver, scanner, sensitivePermissions,
+                classMetrics);
+        classMetrics.addModelNanos(System.nanoTime() - start - classMetrics.getValidationNanos());
+        return element;
+    }
+
+    /**
+     * Returns whether the superclasses of the annotated class or the parameters of its annotated
+     * methods refer to types that are not resolvable yet, e.g. because another processor only
+     * generates them in a later round.
+     */
+    public static boolean hasUnresolvedTypes(TypeElement typeElement) {
+        for (TypeMirror type = typeElement.getSuperclass(); type.getKind() != TypeKind.NONE;
+             type = ((TypeElement) ((DeclaredType) type).asElement()).getSuperclass()) {
+            if (type.getKind() == TypeKind.ERROR) {
+                return true;
+            }
+        }
+        for (Element enclosedElement : typeElement.getEnclosedElements()) {
+            if (enclosedElement.getKind() != ElementKind.METHOD || !isAnnotatedMethod(enclosedElement)) {
+                continue;
+            }
+            for (VariableElement parameter : ((ExecutableElement) enclosedElement).getParameters()) {
+                TypeMirror type = parameter.asType();
+                while (type.getKind() == TypeKind.ARRAY) {
+                    type = ((ArrayType) type).getComponentType();
+                }
+                if (type.getKind() == TypeKind.ERROR) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAnnotatedMethod(Element method) {
+        return method.getAnnotation(NeedsPermission.class) != null
+                || method.getAnnotation(OnShowRationale.class) != null
+                || method.getAnnotation(OnPermissionDenied.class) != null
+                || method.getAnnotation(OnNeverAskAgain.class) != null;
+    }
 
-        Set<? extends Element> elements = roundEnv.getElementsAnnotatedWith(RuntimePermissions.class);
-        for (Element element : elements) {
-            runtimePermissionsElementList.add(new RuntimePermissionsElement((TypeElement) element, typeResolver));
+    /**
+     * Returns the qualified name of the package the element is declared in.
+     */
+    public static String packageOf(Element element) {
+        Element e = element;
+        while (!(e instanceof PackageElement)) {
+            e = e.getEnclosingElement();
         }
-        return runtimePermissionsElementList;
+        return ((PackageElement) e).getQualifiedName().toString();
     }
 
     public static String getPackageName(String name) {
@@ -55,74 +116,47 @@ public final class ProcessorUtil {
         return name.substring(name.lastIndexOf(".") + 1);
     }
 
-    public static List<ExecutableElement> findMethods(Element element, Class<? extends Annotation> clazz) {
-        List<ExecutableElement> methods = new ArrayList<>();
-        for (Element enclosedElement : element.getEnclosedElements()) {
-            Annotation annotation = enclosedElement.getAnnotation(clazz);
-            if (annotation != null) {
-                methods.add((ExecutableElement) enclosedElement);
-            }
+    /**
+     * Returns the erasure of a type as a TypeName: type variables become their bound and
+     * parameterized types their raw type.
+     */
+    public static TypeName erasure(TypeMirror type) {
+        switch (type.getKind()) {
+            case TYPEVAR:
+                return erasure(((TypeVariable) type).getUpperBound());
+            case DECLARED:
+                return ClassName.get((TypeElement) ((DeclaredType) type).asElement());
+            case ARRAY:
+                return ArrayTypeName.of(erasure(((ArrayType) type).getComponentType()));
+            case INTERSECTION:
+                return erasure(((IntersectionType) type).getBounds().get(0));
+            default:
+                return TypeName.get(type);
         }
-        return methods;
     }
 
-    public static <A extends Annotation> List<String> getValueFromAnnotation(ExecutableElement element, Class<A> clazz) {
-
-        if (Objects.equals(clazz, NeedsPermission.class)) {
-            return asList(element.getAnnotation(NeedsPermission.class).value());
-        } else if (Objects.equals(clazz, OnShowRationale.class)) {
-            return asList(element.getAnnotation(OnShowRationale.class).value());
-        } else if (Objects.equals(clazz, OnPermissionDenied.class)) {
-            return asList(element.getAnnotation(OnPermissionDenied.class).value());
-        } else if (Objects.equals(clazz, OnNeverAskAgain.class)) {
-            return asList(element.getAnnotation(OnNeverAskAgain.class).value());
-        } else {
-            return emptyList();
-        }
+    /**
+     * Returns the ClassName of a top-level class, which may be in the default package.
+     */
+    public static ClassName classNameOf(String qualifiedName) {
+        return qualifiedName.indexOf('.') < 0 ? ClassName.get("", qualifiedName)
+                : ClassName.get(getPackageName(qualifiedName), getClassName(qualifiedName));
     }
 
     public static boolean isEmpty(Collection collection) {
         return collection == null || collection.isEmpty();
     }
 
-    public static ExecutableElement findOnRationaleMatchingMethod(String[] annotation1,
-                                                                  List<ExecutableElement> otherElements) {
-
-        for (ExecutableElement element : otherElements) {
-
-            String[] value = element.getAnnotation(OnShowRationale.class).value();
-
-            if (deepEquals(annotation1, value)) {
-                return element;
-            }
+    /**
+     * Indexes the given callbacks by their {@link PermissionKey}. Callbacks must have been
+     * checked with {@link ValidatorUtils#checkDuplicatedValue(List, Class, List)} first.
+     */
+    public static Map<PermissionKey, PermissionMethodElement> indexByPermissionKey(List<PermissionMethodElement> methods) {
+        Map<PermissionKey, PermissionMethodElement> index = new HashMap<>(methods.size() * 2);
+        for (PermissionMethodElement method : methods) {
+            index.put(method.getPermissionKey(), method);
         }
-
-        return null;
-    }
-
-
-    public static ExecutableElement findOnDeniedMatchingMethod(String[] value,
-                                                               List<ExecutableElement> elements) {
-        for (ExecutableElement element : elements) {
-            String[] value2 = element.getAnnotation(OnPermissionDenied.class).value();
-            if (deepEquals(value, value2)) {
-                return element;
-            }
-        }
-
-        return null;
-    }
-
-    public static ExecutableElement findOnNeverAskMatchingMethod(String[] value1,
-                                                                 List<ExecutableElement> elements) {
-        for (ExecutableElement element : elements) {
-            String[] value = element.getAnnotation(OnNeverAskAgain.class).value();
-            if (deepEquals(value1, value)) {
-                return element;
-            }
-        }
-
-        return null;
+        return index;
     }
 
     public static String toString(String... array) {
@@ -184,32 +218,4 @@ public final class ProcessorUtil {
     public static String withCheckMethodName(ExecutableElement element) {
         return element.getSimpleName().toString() + ConstantsProvider.METHOD_SUFFIX;
     }
-
-    public static boolean containsKey(List<String[]> ADD_WITH_CHECK_BODY_MAP, String[] value) {
-        for(String[] strings: ADD_WITH_CHECK_BODY_MAP){
-            if(Arrays.equals(strings,value)){
-                return true;
-            }
-        }
-        return false;
-    }
-
-    public static SensitivePermissionInterface getSensitivePermission(List<String[]> ADD_WITH_CHECK_BODY_MAP,
-                                                                      String[] value) {
-        if (containsKey(ADD_WITH_CHECK_BODY_MAP, value)) {
-            SensitivePermissionInterface permissionInterface;
-            String[] MANIFEST_WRITE_SETTING = new String[]{"android.permission.WRITE_SETTINGS"};
-            String MANIFEST_SYSTEM_ALERT_WINDOW[] = new String[]{"android.permission.SYSTEM_ALERT_WINDOW"};
-
-            if (deepEquals(MANIFEST_WRITE_SETTING, value)) {
-                permissionInterface = new WriteSettingsHelper();
-                return permissionInterface;
-            } else if (deepEquals(MANIFEST_SYSTEM_ALERT_WINDOW, value)) {
-                permissionInterface = new SystemAlertWindowHelper();
-                return permissionInterface;
-            }
-        }
-        return null;
-
-    }
 }
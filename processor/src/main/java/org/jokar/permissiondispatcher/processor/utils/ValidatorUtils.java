@@ -1,17 +1,22 @@
 package org.jokar.permissiondispatcher.processor.utils;
 
+import org.jokar.permissiondispatcher.processor.PermissionMethodElement;
 import org.jokar.permissiondispatcher.processor.RuntimePermissionsElement;
 import org.jokar.permissiondispatcher.processor.event.ClassType;
 import org.jokar.permissiondispatcher.processor.event.TypeResolver;
 import org.jokar.permissiondispatcher.processor.exception.DuplicatedValueException;
+import org.jokar.permissiondispatcher.processor.exception.InaccessibleMethodException;
 import org.jokar.permissiondispatcher.processor.exception.MixPermissionTypeException;
 import org.jokar.permissiondispatcher.processor.exception.NoAnnotatedMethodsException;
 import org.jokar.permissiondispatcher.processor.exception.NoParametersAllowedException;
 import org.jokar.permissiondispatcher.processor.exception.NoThrowsAllowedException;
+import org.jokar.permissiondispatcher.processor.exception.OverloadedMethodException;
 import org.jokar.permissiondispatcher.processor.exception.PrivateMethodException;
+import org.jokar.permissiondispatcher.processor.exception.ValidationException;
 import org.jokar.permissiondispatcher.processor.exception.WrongClassException;
 import org.jokar.permissiondispatcher.processor.exception.WrongParametersException;
 import org.jokar.permissiondispatcher.processor.exception.WrongReturnTypeException;
+import org.jokar.permissiondispatcher.processor.helper.SensitivePermissions;
 
 import java.util.HashSet;
 import java.util.List;
@@ -22,39 +27,76 @@ import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
 
 import static org.jokar.permissiondispatcher.processor.event.ClassType.getClassType;
-import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.getValueFromAnnotation;
 import static org.jokar.permissiondispatcher.processor.utils.ProcessorUtil.isEmpty;
 
 /**
  * Created by JokAr on 16/8/23.
+ * <p>
+ * Every check adds the problems it finds to {@code errors} instead of throwing the first one,
+ * so a single build reports all of them.
  */
 public final class ValidatorUtils {
-    private static String WRITE_SETTINGS = "android.permission.WRITE_SETTINGS";
-    private static String SYSTEM_ALERT_WINDOW = "android.permission.SYSTEM_ALERT_WINDOW";
-
-    public static ClassType checkActivity(TypeElement element, TypeResolver resolver) {
+    /**
+     * Returns the type of the annotated class, or {@code null} if it can't be annotated.
+     */
+    public static ClassType checkActivity(TypeElement element, TypeResolver resolver,
+                                          List<ValidationException> errors) {
         ClassType classType = getClassType(element.getQualifiedName().toString(), resolver);
 
         if (classType == null) {
-            throw new WrongClassException(element);
+            errors.add(new WrongClassException(element));
         }
 
         return classType;
     }
 
-    public static void checkNotEmpty(List<ExecutableElement> elements, RuntimePermissionsElement element,
-                                     Class clazz) {
+    public static void checkNotEmpty(List<PermissionMethodElement> elements, RuntimePermissionsElement element,
+                                     Class clazz, List<ValidationException> errors) {
         if (isEmpty(elements)) {
-            throw new NoAnnotatedMethodsException(element, clazz);
+            errors.add(new NoAnnotatedMethodsException(element, clazz));
         }
     }
 
-    public static void checkPrivateMethods(List<ExecutableElement> elements, Class clazz) {
-        for (ExecutableElement element : elements) {
+    public static void checkPrivateMethods(List<PermissionMethodElement> methods, Class clazz,
+                                           List<ValidationException> errors) {
+        for (PermissionMethodElement method : methods) {
+            ExecutableElement element = method.getElement();
             if (element.getModifiers().contains(Modifier.PRIVATE)) {
-                throw new PrivateMethodException(element, clazz);
+                errors.add(new PrivateMethodException(element, clazz));
+            }
+        }
+    }
+
+    /**
+     * Checks that the methods inherited from a superclass in another package are public, the
+     * dispatcher lives in the package of the annotated class.
+     */
+    public static void checkInheritedMethods(List<PermissionMethodElement> methods, TypeElement target,
+                                             Class clazz, List<ValidationException> errors) {
+        String targetPackage = ProcessorUtil.packageOf(target);
+        for (PermissionMethodElement method : methods) {
+            ExecutableElement element = method.getElement();
+            if (!element.getModifiers().contains(Modifier.PUBLIC)
+                    && !element.getModifiers().contains(Modifier.PRIVATE)
+                    && !ProcessorUtil.packageOf(element).equals(targetPackage)) {
+                errors.add(new InaccessibleMethodException(element, target, clazz));
+            }
+        }
+    }
+
+    /**
+     * Checks that no two methods share a name, declared or inherited: the generated fields are
+     * named after the method.
+     */
+    public static void checkOverloadedMethods(List<PermissionMethodElement> methods, Class clazz,
+                                              List<ValidationException> errors) {
+        Set<String> names = new HashSet<>();
+        for (PermissionMethodElement method : methods) {
+            if (!names.add(method.getMethodName())) {
+                errors.add(new OverloadedMethodException(method.getElement(), clazz));
             }
         }
     }
@@ -62,17 +104,19 @@ public final class ValidatorUtils {
     /**
      * Checks the return type of the elements in the provided list.
      * <p/>
-     * Raises an exception if any element specifies a return type other than 'void'.
+     * Reports every element that specifies a return type other than 'void'.
      */
-    public static void checkMethodSignature(List<ExecutableElement> elements) {
-        for (ExecutableElement element : elements) {
+    public static void checkMethodSignature(List<PermissionMethodElement> methods,
+                                            List<ValidationException> errors) {
+        for (PermissionMethodElement method : methods) {
+            ExecutableElement element = method.getElement();
             // Allow 'void' return type only
             if (element.getReturnType().getKind() != TypeKind.VOID) {
-                throw new WrongReturnTypeException(element);
+                errors.add(new WrongReturnTypeException(element));
             }
             // Allow methods without 'throws' declaration only
             if (!element.getThrownTypes().isEmpty()) {
-                throw new NoThrowsAllowedException(element);
+                errors.add(new NoThrowsAllowedException(element));
             }
         }
     }
@@ -80,49 +124,65 @@ public final class ValidatorUtils {
     /**
      * Checks the elements in the provided list annotated with an annotation against duplicate values.
      * <p/>
-     * Raises an exception if any annotation value is found multiple times.
+     * Reports every method whose permissions were all already found on previous methods, whether
+     * on one of them or spread over several.
      */
-    public static void checkDuplicatedValue(List<ExecutableElement> elements, Class clazz) {
+    public static void checkDuplicatedValue(List<PermissionMethodElement> methods, Class clazz,
+                                            List<ValidationException> errors) {
         Set<String> values = new HashSet<>();
-        for (ExecutableElement method : elements) {
-            List<String> value = getValueFromAnnotation(method, clazz);
-            if (!values.addAll(value)) {
-                throw new DuplicatedValueException(value, method, clazz);
+        for (PermissionMethodElement method : methods) {
+            if (!values.addAll(method.getPermissionList())) {
+                errors.add(new DuplicatedValueException(method.getPermissionList(), method.getElement(), clazz));
             }
         }
     }
 
 
-    public static void checkMethodParameters(List<ExecutableElement> elements, int methodCount,
-                                             String clazz, TypeResolver classType) {
-        for (ExecutableElement element : elements) {
+    public static void checkMethodParameters(List<PermissionMethodElement> methods, int methodCount,
+                                             String clazz, TypeResolver classType,
+                                             List<ValidationException> errors) {
+        // Resolved once for all methods, not once per parameter
+        TypeMirror expectedType = methodCount == 0 || methods.isEmpty() ? null : classType.typeMirrorOf(clazz);
+        for (PermissionMethodElement method : methods) {
+            ExecutableElement element = method.getElement();
             List<? extends VariableElement> parameters = element.getParameters();
+            // At most one problem per method, the parameters are wrong either way
             if (methodCount == 0 && !parameters.isEmpty()) {
-                throw new NoParametersAllowedException(element);
+                errors.add(new NoParametersAllowedException(element));
+                continue;
             }
 
             if (parameters.size() != methodCount) {
-                throw new WrongParametersException(element, clazz);
+                errors.add(new WrongParametersException(element, clazz));
+                continue;
             }
 
             for (VariableElement variableElement : parameters) {
-                if (!classType.isSameType(variableElement.asType(), classType.typeMirrorOf(clazz))) {
-                    throw new WrongParametersException(element, clazz);
+                if (expectedType == null || !classType.isSameType(variableElement.asType(), expectedType)) {
+                    errors.add(new WrongParametersException(element, clazz));
+                    break;
                 }
             }
         }
     }
 
 
-    public static void checkMixPermissionType(List<ExecutableElement> elements, Class clazz) {
-        for (ExecutableElement element : elements) {
+    /**
+     * Special-access permissions are granted on their own settings screen, so they cannot be
+     * requested together with other permissions.
+     */
+    public static void checkMixPermissionType(List<PermissionMethodElement> methods,
+                                              SensitivePermissions sensitivePermissions,
+                                              List<ValidationException> errors) {
+        for (PermissionMethodElement method : methods) {
 
-            List valueFromAnnotation = getValueFromAnnotation(element, clazz);
+            List<String> valueFromAnnotation = method.getPermissionList();
             if (valueFromAnnotation.size() > 1) {
-                if (valueFromAnnotation.contains(WRITE_SETTINGS)) {
-                    throw new MixPermissionTypeException(element, WRITE_SETTINGS);
-                } else if (valueFromAnnotation.contains(SYSTEM_ALERT_WINDOW)) {
-                    throw new MixPermissionTypeException(element, SYSTEM_ALERT_WINDOW);
+                for (String permission : valueFromAnnotation) {
+                    if (sensitivePermissions.isSensitive(permission)) {
+                        errors.add(new MixPermissionTypeException(method.getElement(), permission));
+                        break;
+                    }
                 }
             }
 
@@ -0,0 +1,102 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how callbacks are matched to their {@code @NeedsPermission} method by
+ * {@link PermissionKey}.
+ */
+public class CallbackMatchingTest {
+
+    private static final String[] CONTACTS_ACTIVITY = {
+            "com/example/ContactsActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class ContactsActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission({\"android.permission.READ_CONTACTS\", \"android.permission.CAMERA\"}) void contacts() {}\n"
+                    + "    @OnPermissionDenied(\"android.permission.CAMERA\") void deniedCameraOnly() {}\n"
+                    + "    @OnPermissionDenied({\"android.permission.CAMERA\", \"android.permission.READ_CONTACTS\"}) void denied() {}\n"
+                    + "    @OnNeverAskAgain({\"android.permission.CAMERA\", \"android.permission.READ_CONTACTS\", \"android.permission.CAMERA\"}) void neverAsk() {}\n"
+                    + "}\n",
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void keyIgnoresOrderAndRepetition() {
+        PermissionKey key = PermissionKey.of("b", "a", "b");
+        assertEquals(PermissionKey.of("a", "b"), key);
+        assertEquals(PermissionKey.of("a", "b").hashCode(), key.hashCode());
+        assertArrayEquals(new String[]{"a", "b"}, key.getPermissions());
+        assertEquals(2, key.size());
+        assertNotEquals(PermissionKey.of("a"), key);
+    }
+
+    @Test
+    public void callbacksMatchInAnyOrder() throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, CONTACTS_ACTIVITY);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        String dispatcher = compilation.generated("com/example/ContactsActivityPermissionsDispatcher.java");
+        assertTrue(dispatcher, dispatcher.contains("target.denied();"));
+        assertTrue(dispatcher, dispatcher.contains("target.neverAsk();"));
+        assertFalse(dispatcher, dispatcher.contains("deniedCameraOnly"));
+    }
+
+    @Test
+    public void matchedCallbacksCompile() throws IOException {
+        Compilation compilation = Compilation.compileFully(temporaryFolder, CONTACTS_ACTIVITY);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+    }
+
+    @Test
+    public void sameSetInAnotherOrderIsDuplicated() throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, new String[]{
+                "com/example/DuplicateActivity.java",
+                "package com.example;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "@RuntimePermissions\n"
+                        + "public class DuplicateActivity extends android.app.Activity {\n"
+                        + "    @NeedsPermission({\"android.permission.READ_CONTACTS\", \"android.permission.CAMERA\"}) void contacts() {}\n"
+                        + "    @OnPermissionDenied({\"android.permission.READ_CONTACTS\", \"android.permission.CAMERA\"}) void denied() {}\n"
+                        + "    @OnPermissionDenied({\"android.permission.CAMERA\", \"android.permission.READ_CONTACTS\"}) void deniedAgain() {}\n"
+                        + "}\n",
+        });
+        assertFalse(compilation.succeeded());
+        assertEquals(compilation.errors().toString(), 1, compilation.errors().size());
+        assertTrue(compilation.errors().get(0),
+                compilation.errors().get(0).contains("is duplicated in 'deniedAgain()' annotated with '@OnPermissionDenied'"));
+        assertFalse(compilation.generatedFiles().contains("com/example/DuplicateActivityPermissionsDispatcher.java"));
+    }
+
+    @Test
+    public void callbackWithOnlyPermissionsSeenBeforeIsDuplicated() throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, new String[]{
+                "com/example/OverlapActivity.java",
+                "package com.example;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "@RuntimePermissions\n"
+                        + "public class OverlapActivity extends android.app.Activity {\n"
+                        + "    @NeedsPermission({\"android.permission.READ_CONTACTS\", \"android.permission.CAMERA\"}) void contacts() {}\n"
+                        + "    @NeedsPermission(\"android.permission.CAMERA\") void camera() {}\n"
+                        + "    @OnPermissionDenied({\"android.permission.READ_CONTACTS\", \"android.permission.CAMERA\"}) void denied() {}\n"
+                        + "    @OnPermissionDenied(\"android.permission.CAMERA\") void deniedCamera() {}\n"
+                        + "}\n",
+        });
+        assertFalse(compilation.succeeded());
+        assertEquals(compilation.errors().toString(), 1, compilation.errors().size());
+        assertTrue(compilation.errors().get(0),
+                compilation.errors().get(0).contains("is duplicated in 'deniedCamera()' annotated with '@OnPermissionDenied'"));
+    }
+}
@@ -0,0 +1,98 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the compact dispatchers generated with {@link ProcessorOptions#COMPACT}.
+ */
+public class CompactDispatchTest {
+
+    private static final String COMPACT = "-A" + ProcessorOptions.COMPACT + "=true";
+
+    private static final String[] SOURCES = {
+            "com/example/CameraActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class CameraActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.ACCESS_FINE_LOCATION\") void locate(int a, String b) {}\n"
+                    + "    @OnNeverAskAgain(\"android.permission.ACCESS_FINE_LOCATION\") void neverLocate() {}\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void camera() {}\n"
+                    + "}\n",
+            "com/example/SettingsActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class SettingsActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.WRITE_SETTINGS\") void settings() {}\n"
+                    + "}\n",
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void compactDispatcherRunsTheInterpreter() throws IOException {
+        Compilation compilation = compile(COMPACT);
+        String dispatcher = compilation.generated("com/example/CameraActivityPermissionsDispatcher.java");
+        assertTrue(dispatcher, dispatcher.contains("implements DispatcherTable.Trampoline<CameraActivity>"));
+        assertTrue(dispatcher, dispatcher.contains("DispatcherInterpreter.withCheck(target, TABLE, 0, new Object[]{a, b});"));
+        assertTrue(dispatcher, dispatcher.contains("DispatcherInterpreter.withCheck(target, TABLE, 1);"));
+        assertTrue(dispatcher, dispatcher.contains("target.locate((Integer) args[0], (String) args[1]);"));
+        assertTrue(dispatcher, dispatcher.contains("switch (method << 2 | callback)"));
+        assertFalse(dispatcher, dispatcher.contains("PermissionRequest"));
+        assertEquals(Collections.emptyList(), compilation.warnings());
+    }
+
+    @Test
+    public void settingsBasedClassKeepsTheRegularDispatcher() throws IOException {
+        String dispatcher = compile(COMPACT).generated("com/example/SettingsActivityPermissionsDispatcher.java");
+        assertFalse(dispatcher, dispatcher.contains("DispatcherInterpreter"));
+        assertTrue(dispatcher, dispatcher.contains("static void onActivityResult("));
+    }
+
+    @Test
+    public void optionsIgnoredByCompactDispatchersAreReported() throws IOException {
+        Compilation compilation = compile(COMPACT,
+                "-A" + ProcessorOptions.REGISTRY + "=com.example.Registry",
+                "-A" + ProcessorOptions.TARGET_SDK + "=30");
+        assertEquals(compilation.warnings().toString(), 2, compilation.warnings().size());
+        assertTrue(compilation.warnings().get(0).startsWith(ProcessorOptions.REGISTRY + " is ignored"));
+        assertTrue(compilation.warnings().get(1).startsWith(ProcessorOptions.TARGET_SDK + " is ignored"));
+
+        compilation = compile("-A" + ProcessorOptions.REGISTRY + "=com.example.Registry",
+                "-A" + ProcessorOptions.TARGET_SDK + "=30");
+        assertEquals(Collections.emptyList(), compilation.warnings());
+    }
+
+    @Test
+    public void compactDispatchersCompileWithoutWarnings() throws IOException {
+        String[] sources = Arrays.copyOf(SOURCES, SOURCES.length + 2);
+        sources[SOURCES.length] = "com/example/ListActivity.java";
+        sources[SOURCES.length + 1] = "package com.example;\n"
+                + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                + "@RuntimePermissions\n"
+                + "public class ListActivity extends android.app.Activity {\n"
+                + "    @NeedsPermission(\"android.permission.READ_CONTACTS\") void pick(java.util.List<String> items) {}\n"
+                + "}\n";
+        Compilation compilation = Compilation.compileFully(temporaryFolder, sources, COMPACT, "-Xlint:unchecked");
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        assertEquals(Collections.emptyList(), compilation.warnings());
+    }
+
+    private Compilation compile(String... options) throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, SOURCES, options);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        return compilation;
+    }
+}
@@ -0,0 +1,364 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Runs the processor on a set of sources, the way {@link ReproducibleOutputTest} does, and keeps
+ * the generated files and the diagnostics for the tests to inspect. By default only annotation
+ * processing runs; {@link #compileFully(TemporaryFolder, String[], String...)} compiles the
+ * generated code as well.
+ */
+final class Compilation {
+
+    /**
+     * Stand-ins for the Android and library types the sources and the generated code refer to,
+     * with the members the generated code calls, so that code can be compiled as well.
+     */
+    private static final String[] STUB_SOURCES = {
+            "android/content/Context.java",
+            "package android.content;\n"
+                    + "public class Context {\n"
+                    + "    public String getPackageName() { return null; }\n"
+                    + "}\n",
+            "android/app/Activity.java",
+            "package android.app;\n"
+                    + "public class Activity extends android.content.Context {\n"
+                    + "    public void startActivityForResult(android.content.Intent intent, int requestCode) {}\n"
+                    + "}\n",
+            "android/content/Intent.java",
+            "package android.content;\n"
+                    + "public class Intent {\n"
+                    + "    public Intent(String action) {}\n"
+                    + "    public Intent(String action, android.net.Uri uri) {}\n"
+                    + "}\n",
+            "android/net/Uri.java",
+            "package android.net;\n"
+                    + "public class Uri {\n"
+                    + "    public static Uri parse(String uriString) { return null; }\n"
+                    + "}\n",
+            "android/os/Build.java",
+            "package android.os;\n"
+                    + "public class Build {\n"
+                    + "    public static class VERSION {\n"
+                    + "        public static final int SDK_INT = 0;\n"
+                    + "    }\n"
+                    + "}\n",
+            "android/os/Trace.java",
+            "package android.os;\n"
+                    + "public final class Trace {\n"
+                    + "    public static void beginSection(String sectionName) {}\n"
+                    + "    public static void endSection() {}\n"
+                    + "}\n",
+            "android/provider/Settings.java",
+            "package android.provider;\n"
+                    + "public final class Settings {\n"
+                    + "    public static final String ACTION_MANAGE_OVERLAY_PERMISSION = \"\";\n"
+                    + "    public static final String ACTION_MANAGE_WRITE_SETTINGS = \"\";\n"
+                    + "    public static boolean canDrawOverlays(android.content.Context context) { return false; }\n"
+                    + "    public static final class System {\n"
+                    + "        public static boolean canWrite(android.content.Context context) { return false; }\n"
+                    + "    }\n"
+                    + "}\n",
+            "android/support/v4/app/ActivityCompat.java",
+            "package android.support.v4.app;\n"
+                    + "public class ActivityCompat {\n"
+                    + "    public static void requestPermissions(android.app.Activity activity, String[] permissions, int requestCode) {}\n"
+                    + "}\n",
+            "android/support/v4/app/Fragment.java",
+            "package android.support.v4.app;\n"
+                    + "public class Fragment {\n"
+                    + "    public final android.app.Activity getActivity() { return null; }\n"
+                    + "    public final void requestPermissions(String[] permissions, int requestCode) {}\n"
+                    + "    public void startActivityForResult(android.content.Intent intent, int requestCode) {}\n"
+                    + "}\n",
+            "org/jokar/permissiondispatcher/library/PermissionRequest.java",
+            "package org.jokar.permissiondispatcher.library;\n"
+                    + "public interface PermissionRequest {\n"
+                    + "    void proceed();\n"
+                    + "    void cancel();\n"
+                    + "}\n",
+            "org/jokar/permissiondispatcher/library/GrantableRequest.java",
+            "package org.jokar.permissiondispatcher.library;\n"
+                    + "public interface GrantableRequest extends PermissionRequest {\n"
+                    + "    void grant();\n"
+                    + "}\n",
+            "org/jokar/permissiondispatcher/library/PermissionUtils.java",
+            "package org.jokar.permissiondispatcher.library;\n"
+                    + "import android.app.Activity;\n"
+                    + "import android.content.Context;\n"
+                    + "public class PermissionUtils {\n"
+                    + "    public static boolean verifyPermissions(int... grantResults) { return false; }\n"
+                    + "    public static boolean hasSelfPermissions(Context context, String... permissions) { return false; }\n"
+                    + "    public static String[] existingPermissions(String[] permissions, boolean... exist) { return null; }\n"
+                    + "    public static boolean hasExistingSelfPermissions(Context context, String... permissions) { return false; }\n"
+                    + "    public static boolean canRequestPackageInstalls(Context context) { return false; }\n"
+                    + "    public static boolean isExternalStorageManager(Context context) { return false; }\n"
+                    + "    public static boolean hasUsageStatsAccess(Context context) { return false; }\n"
+                    + "    public static boolean isIgnoringBatteryOptimizations(Context context) { return false; }\n"
+                    + "    public static boolean shouldShowRequestPermissionRationale(Activity activity, String... permissions) { return false; }\n"
+                    + "    public static int getTargetSdkVersion(Context context) { return 0; }\n"
+                    + "}\n",
+            "org/jokar/permissiondispatcher/library/PermissionState.java",
+            "package org.jokar.permissiondispatcher.library;\n"
+                    + "import android.app.Activity;\n"
+                    + "import android.content.Context;\n"
+                    + "public final class PermissionState {\n"
+                    + "    public PermissionState(String... permissions) {}\n"
+                    + "    public PermissionState(long existing, String... permissions) {}\n"
+                    + "    public boolean hasSelfPermissions(Context context, long mask) { return false; }\n"
+                    + "    public boolean shouldShowRequestPermissionRationale(Activity activity, long mask) { return false; }\n"
+                    + "    public boolean verifyPermissions(long mask, int... grantResults) { return false; }\n"
+                    + "}\n",
+            "org/jokar/permissiondispatcher/library/DispatcherTable.java",
+            "package org.jokar.permissiondispatcher.library;\n"
+                    + "public final class DispatcherTable<T> {\n"
+                    + "    public static final int FLAG_RATIONALE = 1 << 1;\n"
+                    + "    public static final int FLAG_DENIED = 1 << 2;\n"
+                    + "    public static final int FLAG_NEVER_ASK = 1 << 3;\n"
+                    + "    public static final int FLAG_PARAMETERS = 1 << 4;\n"
+                    + "    public interface Trampoline<T> {\n"
+                    + "        void call(T target, int method, int callback, Object[] args);\n"
+                    + "    }\n"
+                    + "    public DispatcherTable(String[][] permissions, int[] requestCodes, int[] flags, Trampoline<T> trampoline) {}\n"
+                    + "}\n",
+            "org/jokar/permissiondispatcher/library/DispatcherInterpreter.java",
+            "package org.jokar.permissiondispatcher.library;\n"
+                    + "public final class DispatcherInterpreter {\n"
+                    + "    public static <T> void withCheck(T target, DispatcherTable<T> table, int method) {}\n"
+                    + "    public static <T> void withCheck(T target, DispatcherTable<T> table, int method, Object[] args) {}\n"
+                    + "    public static <T> void onRequestPermissionsResult(T target, DispatcherTable<T> table,\n"
+                    + "                                                      int requestCode, int[] grantResults) {}\n"
+                    + "}\n",
+    };
+
+    private final boolean success;
+    private final Map<String, String> generated;
+    private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+    private final List<String> errors = new ArrayList<>();
+    private final List<String> warnings = new ArrayList<>();
+    private final List<String> notes = new ArrayList<>();
+
+    private Compilation(boolean success, Map<String, String> generated,
+                        List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        this.success = success;
+        this.generated = generated;
+        this.diagnostics = diagnostics;
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+            String message = diagnostic.getMessage(Locale.ROOT);
+            switch (diagnostic.getKind()) {
+                case ERROR:
+                    errors.add(message);
+                    break;
+                case WARNING:
+                case MANDATORY_WARNING:
+                    warnings.add(message);
+                    break;
+                case NOTE:
+                    notes.add(message);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Runs the processor on the given sources, given as pairs of a path and its content.
+     */
+    static Compilation compile(TemporaryFolder folder, String[] sources, String... options) throws IOException {
+        return compile(folder, Collections.<Processor>emptyList(), sources, options);
+    }
+
+    /**
+     * Runs the processor, after the given other processors, on the given sources.
+     */
+    static Compilation compile(TemporaryFolder folder, List<? extends Processor> otherProcessors,
+                               String[] sources, String... options) throws IOException {
+        return compile(folder, otherProcessors, null, false, sources, options);
+    }
+
+    /**
+     * Runs the processor on the given sources, then compiles them along with the generated code,
+     * whose errors are reported like those of the sources.
+     */
+    static Compilation compileFully(TemporaryFolder folder, String[] sources, String... options) throws IOException {
+        return compileFully(folder, Collections.<Processor>emptyList(), sources, options);
+    }
+
+    /**
+     * Runs the processor, after the given other processors, on the given sources, then compiles
+     * them along with the generated code.
+     */
+    static Compilation compileFully(TemporaryFolder folder, List<? extends Processor> otherProcessors,
+                                    String[] sources, String... options) throws IOException {
+        return compile(folder, otherProcessors, null, true, sources, options);
+    }
+
+    /**
+     * Runs the processor on the given sources, with the classes of an earlier compilation, such
+     * as one made by {@link #compileClasses(TemporaryFolder, String[])}, on the classpath.
+     */
+    static Compilation compileAgainst(TemporaryFolder folder, File classes, String[] sources,
+                                      String... options) throws IOException {
+        return compile(folder, Collections.<Processor>emptyList(), classes, false, sources, options);
+    }
+
+    /**
+     * Compiles the given sources without running any processor, and returns the directory of the
+     * classes.
+     */
+    static File compileClasses(TemporaryFolder folder, String[] sources) throws IOException {
+        File directory = folder.newFolder();
+        File classes = new File(directory, "classes");
+        Files.createDirectories(classes.toPath());
+        List<String> arguments = Arrays.asList(
+                "-proc:none",
+                "-classpath", System.getProperty("java.class.path"),
+                "-d", classes.getPath());
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        if (!run(arguments, writeSources(new File(directory, "src"), sources),
+                Collections.<Processor>emptyList(), diagnostics)) {
+            throw new AssertionError(diagnostics.getDiagnostics().toString());
+        }
+        return classes;
+    }
+
+    private static Compilation compile(TemporaryFolder folder, List<? extends Processor> otherProcessors,
+                                       File classes, boolean full, String[] sources,
+                                       String... options) throws IOException {
+        File directory = folder.newFolder();
+        File output = new File(directory, "out");
+        Files.createDirectories(output.toPath());
+        List<File> files = writeSources(new File(directory, "src"), sources);
+
+        String classpath = System.getProperty("java.class.path");
+        if (classes != null) {
+            classpath = classes.getPath() + File.pathSeparator + classpath;
+        }
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+                "-classpath", classpath,
+                "-s", output.getPath()));
+        if (full) {
+            File compiled = new File(directory, "classes");
+            Files.createDirectories(compiled.toPath());
+            arguments.addAll(Arrays.asList("-d", compiled.getPath()));
+        } else {
+            arguments.add("-proc:only");
+        }
+        arguments.addAll(Arrays.asList(options));
+        List<Processor> processors = new ArrayList<>(otherProcessors);
+        processors.add(new PermissionsProcessor());
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        boolean success = run(arguments, files, processors, diagnostics);
+
+        Map<String, String> generated = new TreeMap<>();
+        collectFiles(output, output, generated);
+        return new Compilation(success, generated, diagnostics.getDiagnostics());
+    }
+
+    private static boolean run(List<String> arguments, List<File> files, List<? extends Processor> processors,
+                               DiagnosticCollector<JavaFileObject> diagnostics) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, Locale.ROOT,
+                StandardCharsets.UTF_8)) {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, arguments, null,
+                    fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(processors);
+            return task.call();
+        }
+    }
+
+    /**
+     * Writes the stubs and the given sources, and returns their files.
+     */
+    private static List<File> writeSources(File directory, String[] sources) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < STUB_SOURCES.length; i += 2) {
+            files.add(writeSource(directory, STUB_SOURCES[i], STUB_SOURCES[i + 1]));
+        }
+        for (int i = 0; i < sources.length; i += 2) {
+            files.add(writeSource(directory, sources[i], sources[i + 1]));
+        }
+        return files;
+    }
+
+    boolean succeeded() {
+        return success;
+    }
+
+    /**
+     * The content of the generated file with the given path, or null.
+     */
+    String generated(String path) {
+        return generated.get(path);
+    }
+
+    /**
+     * The paths of the generated files.
+     */
+    List<String> generatedFiles() {
+        return new ArrayList<>(generated.keySet());
+    }
+
+    /**
+     * All the diagnostics, with their positions.
+     */
+    List<Diagnostic<? extends JavaFileObject>> diagnostics() {
+        return diagnostics;
+    }
+
+    List<String> errors() {
+        return errors;
+    }
+
+    List<String> warnings() {
+        return warnings;
+    }
+
+    List<String> notes() {
+        return notes;
+    }
+
+    private static File writeSource(File directory, String path, String source) throws IOException {
+        File file = new File(directory, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static void collectFiles(File root, File directory, Map<String, String> files) throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectFiles(root, child, files);
+            } else {
+                String path = root.toPath().relativize(child.toPath()).toString().replace(File.separatorChar, '/');
+                files.put(path, new String(Files.readAllBytes(child.toPath()), StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
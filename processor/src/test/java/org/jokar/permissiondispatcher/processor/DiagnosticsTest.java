@@ -0,0 +1,95 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every validation problem of a round is reported, at its element, and that only
+ * the classes with problems get no dispatcher.
+ */
+public class DiagnosticsTest {
+
+    private static final String[] SOURCES = {
+            "com/example/BrokenActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class BrokenActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") private void camera() {}\n"
+                    + "    @NeedsPermission(\"android.permission.READ_CONTACTS\") int contacts() { return 0; }\n"
+                    + "    @OnPermissionDenied(\"android.permission.CAMERA\") void denied(String unexpected) {}\n"
+                    + "}\n",
+            "com/example/OtherBrokenActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class OtherBrokenActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void camera() {}\n"
+                    + "    @OnPermissionDenied(\"android.permission.CAMERA\") void denied() {}\n"
+                    + "    @OnPermissionDenied(\"android.permission.CAMERA\") void deniedAgain() {}\n"
+                    + "}\n",
+            "com/example/ValidActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class ValidActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void camera() {}\n"
+                    + "}\n",
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void everyProblemIsReportedAtItsMethod() throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, SOURCES);
+        assertFalse(compilation.succeeded());
+
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : compilation.diagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                String file = diagnostic.getSource().getName();
+                errors.add(file.substring(file.lastIndexOf('/') + 1) + ":" + diagnostic.getLineNumber() + ": "
+                        + diagnostic.getMessage(Locale.ROOT));
+            }
+        }
+        assertEquals(errors.toString(), 4, errors.size());
+        assertTrue(errors.toString(), errors.contains(
+                "BrokenActivity.java:5: Method 'camera()' annotated with '@NeedsPermission' must not be private"));
+        assertTrue(errors.toString(), errors.contains(
+                "BrokenActivity.java:6: Method 'contacts()' must specify return type 'void', not 'int'"));
+        assertTrue(errors.toString(), errors.contains(
+                "BrokenActivity.java:7: Method 'denied()' must not have any parameters"));
+        assertTrue(errors.toString(), errors.contains(
+                "OtherBrokenActivity.java:7: [android.permission.CAMERA] is duplicated in 'deniedAgain()' annotated with '@OnPermissionDenied'"));
+    }
+
+    @Test
+    public void generatedCodeAddsNoErrors() throws IOException {
+        Compilation compilation = Compilation.compileFully(temporaryFolder, SOURCES);
+        assertFalse(compilation.succeeded());
+        // Only the problems of the annotated classes, none in the dispatcher of the valid one
+        assertEquals(compilation.errors().toString(), 4, compilation.errors().size());
+    }
+
+    @Test
+    public void onlyValidClassesGetDispatchers() throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, SOURCES);
+        assertTrue(compilation.generatedFiles().contains("com/example/ValidActivityPermissionsDispatcher.java"));
+        assertFalse(compilation.generatedFiles().contains("com/example/BrokenActivityPermissionsDispatcher.java"));
+        assertFalse(compilation.generatedFiles().contains("com/example/OtherBrokenActivityPermissionsDispatcher.java"));
+    }
+}
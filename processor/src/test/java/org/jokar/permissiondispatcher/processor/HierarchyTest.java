@@ -0,0 +1,178 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the dispatchers of classes inheriting annotated methods from their superclasses.
+ */
+public class HierarchyTest {
+
+    private static final String[] SOURCES = {
+            "com/example/app/BaseActivity.java",
+            "package com.example.app;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class BaseActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void takeCamera(String url) {}\n"
+                    + "    @OnPermissionDenied(\"android.permission.CAMERA\") void deniedCamera() {}\n"
+                    + "    @NeedsPermission(\"android.permission.SYSTEM_ALERT_WINDOW\") void overlay() {}\n"
+                    + "    @NeedsPermission(\"android.permission.READ_CONTACTS\") void contacts() {}\n"
+                    + "}\n",
+            "com/example/app/SubActivity.java",
+            "package com.example.app;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class SubActivity extends BaseActivity {\n"
+                    + "    @NeedsPermission(\"android.permission.RECORD_AUDIO\") void record() {}\n"
+                    + "    @OnPermissionDenied(\"android.permission.READ_CONTACTS\") void contactsDenied() {}\n"
+                    + "}\n",
+            "com/example/base/PlainBase.java",
+            "package com.example.base;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "public class PlainBase<T> extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") public void shoot(T item) {}\n"
+                    + "}\n",
+            "com/example/app/GenericSub.java",
+            "package com.example.app;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class GenericSub extends com.example.base.PlainBase<String> {\n"
+                    + "    @NeedsPermission(\"android.permission.READ_CONTACTS\") void own() {}\n"
+                    + "}\n",
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void inheritedMethodsAreDelegatedToTheSuperclassDispatcher() throws IOException {
+        String dispatcher = compile(SOURCES).generated("com/example/app/SubActivityPermissionsDispatcher.java");
+        assertTrue(dispatcher, dispatcher.contains("BaseActivityPermissionsDispatcher.takeCameraWithCheck(target, url);"));
+        assertTrue(dispatcher, dispatcher.contains("BaseActivityPermissionsDispatcher.overlayWithCheck(target);"));
+        // Own request codes are numbered after the three of the superclass
+        assertTrue(dispatcher, dispatcher.contains("REQUEST_RECORD = 3;"));
+        assertFalse(dispatcher, dispatcher.contains("REQUEST_TAKECAMERA"));
+    }
+
+    @Test
+    public void inheritedMethodWithOtherCallbacksIsDispatchedByTheSubclass() throws IOException {
+        String dispatcher = compile(SOURCES).generated("com/example/app/SubActivityPermissionsDispatcher.java");
+        assertTrue(dispatcher, dispatcher.contains("REQUEST_CONTACTS = 4;"));
+        assertFalse(dispatcher, dispatcher.contains("BaseActivityPermissionsDispatcher.contactsWithCheck"));
+        assertTrue(dispatcher, dispatcher.contains("target.contactsDenied();"));
+    }
+
+    @Test
+    public void unknownRequestCodesAreForwardedToTheSuperclassDispatcher() throws IOException {
+        String dispatcher = compile(SOURCES).generated("com/example/app/SubActivityPermissionsDispatcher.java");
+        assertTrue(dispatcher, dispatcher.contains("default:\n"
+                + "      BaseActivityPermissionsDispatcher.onRequestPermissionsResult(target, requestCode, grantResults);"));
+        assertTrue(dispatcher, dispatcher.contains("default:\n"
+                + "      BaseActivityPermissionsDispatcher.onActivityResult(target, requestCode);"));
+    }
+
+    @Test
+    public void methodsOfUnannotatedGenericSuperclassUseTheSubclassTypes() throws IOException {
+        String dispatcher = compile(SOURCES).generated("com/example/app/GenericSubPermissionsDispatcher.java");
+        assertTrue(dispatcher, dispatcher.contains("static void shootWithCheck(GenericSub target, String item)"));
+        assertTrue(dispatcher, dispatcher.contains("static void ownWithCheck(GenericSub target)"));
+    }
+
+    @Test
+    public void delegatingDispatchersCompile() throws IOException {
+        Compilation compilation = Compilation.compileFully(temporaryFolder, SOURCES);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+    }
+
+    @Test
+    public void overrideOfGenericSuperclassMethodReplacesIt() throws IOException {
+        String dispatcher = compile(new String[]{
+                "com/example/app/PlainBase.java",
+                "package com.example.app;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "public class PlainBase<T> extends android.app.Activity {\n"
+                        + "    @NeedsPermission(\"android.permission.CAMERA\") void shoot(T item) {}\n"
+                        + "}\n",
+                "com/example/app/ShootingSub.java",
+                "package com.example.app;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "@RuntimePermissions\n"
+                        + "public class ShootingSub extends PlainBase<String> {\n"
+                        + "    @NeedsPermission(\"android.permission.CAMERA\") @Override void shoot(String item) {}\n"
+                        + "}\n",
+        }).generated("com/example/app/ShootingSubPermissionsDispatcher.java");
+        assertTrue(dispatcher, dispatcher.contains("REQUEST_SHOOT = 0;"));
+        assertFalse(dispatcher, dispatcher.contains("REQUEST_SHOOT = 1;"));
+    }
+
+    @Test
+    public void overloadInheritedFromSuperclassIsReported() throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, new String[]{
+                "com/example/app/OverloadBase.java",
+                "package com.example.app;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "public class OverloadBase extends android.app.Activity {\n"
+                        + "    @NeedsPermission(\"android.permission.CAMERA\") void shoot() {}\n"
+                        + "}\n",
+                "com/example/app/OverloadSub.java",
+                "package com.example.app;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "@RuntimePermissions\n"
+                        + "public class OverloadSub extends OverloadBase {\n"
+                        + "    @NeedsPermission(\"android.permission.CAMERA\") void shoot(String url) {}\n"
+                        + "}\n",
+        });
+        assertFalse(compilation.succeeded());
+        assertTrue(compilation.errors().toString(), compilation.errors().contains(
+                "Method 'shoot()' annotated with '@NeedsPermission' must not be overloaded"));
+    }
+
+    @Test
+    public void superclassFromTheClasspathGetsNoDelegation() throws IOException {
+        File classes = Compilation.compileClasses(temporaryFolder, new String[]{SOURCES[0], SOURCES[1]});
+        Compilation compilation = Compilation.compileAgainst(temporaryFolder, classes,
+                new String[]{SOURCES[2], SOURCES[3]});
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        // The dispatcher of the superclass was not generated by this run, so it may not exist
+        String dispatcher = compilation.generated("com/example/app/SubActivityPermissionsDispatcher.java");
+        assertFalse(dispatcher, dispatcher.contains("BaseActivityPermissionsDispatcher"));
+        assertTrue(dispatcher, dispatcher.contains("REQUEST_TAKECAMERA = 1;"));
+        assertTrue(dispatcher, dispatcher.contains("case REQUEST_TAKECAMERA:"));
+    }
+
+    @Test
+    public void packagePrivateMethodInheritedFromAnotherPackageIsReported() throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, new String[]{
+                "com/example/base/HiddenBase.java",
+                "package com.example.base;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "public class HiddenBase extends android.app.Activity {\n"
+                        + "    @NeedsPermission(\"android.permission.CAMERA\") void hidden() {}\n"
+                        + "}\n",
+                "com/example/app/HiddenSub.java",
+                "package com.example.app;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "@RuntimePermissions\n"
+                        + "public class HiddenSub extends com.example.base.HiddenBase {\n"
+                        + "    @NeedsPermission(\"android.permission.READ_CONTACTS\") void own() {}\n"
+                        + "}\n",
+        });
+        assertFalse(compilation.succeeded());
+        assertTrue(compilation.errors().toString(), compilation.errors().contains(
+                "Method 'hidden()' annotated with '@NeedsPermission' is inherited by 'HiddenSub' from another package and must be public"));
+    }
+
+    private Compilation compile(String[] sources) throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, sources);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        return compilation;
+    }
+}
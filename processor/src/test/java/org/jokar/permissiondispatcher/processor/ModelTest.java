@@ -0,0 +1,98 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the code generated from the per-class model routes every method to the right
+ * result method, with its callbacks and parameters.
+ */
+public class ModelTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void methodsAreRoutedByPermissionKind() throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, new String[]{
+                "com/example/MixedActivity.java",
+                "package com.example;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "@RuntimePermissions\n"
+                        + "public class MixedActivity extends android.app.Activity {\n"
+                        + "    @NeedsPermission(\"android.permission.SYSTEM_ALERT_WINDOW\") void overlay() {}\n"
+                        + "    @OnPermissionDenied(\"android.permission.SYSTEM_ALERT_WINDOW\") void overlayDenied() {}\n"
+                        + "    @NeedsPermission(\"android.permission.CAMERA\") void camera(String url) {}\n"
+                        + "    @OnShowRationale(\"android.permission.CAMERA\") void cameraRationale(org.jokar.permissiondispatcher.library.PermissionRequest request) {}\n"
+                        + "}\n",
+        });
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        String dispatcher = compilation.generated("com/example/MixedActivityPermissionsDispatcher.java");
+
+        String activityResult = dispatcher.substring(dispatcher.indexOf("static void onActivityResult("));
+        assertTrue(activityResult, activityResult.contains("case REQUEST_OVERLAY:"));
+        assertTrue(activityResult, activityResult.contains("target.overlayDenied();"));
+        assertFalse(activityResult, activityResult.contains("case REQUEST_CAMERA:"));
+
+        String permissionsResult = dispatcher.substring(dispatcher.indexOf("static void onRequestPermissionsResult("),
+                dispatcher.indexOf("static void onActivityResult("));
+        assertTrue(permissionsResult, permissionsResult.contains("case REQUEST_CAMERA:"));
+        assertFalse(permissionsResult, permissionsResult.contains("case REQUEST_OVERLAY:"));
+
+        assertTrue(dispatcher, dispatcher.contains("static void cameraWithCheck(MixedActivity target, String url)"));
+        assertTrue(dispatcher, dispatcher.contains("target.cameraRationale(PENDING_CAMERA);"));
+        assertTrue(dispatcher, dispatcher.contains("Settings.canDrawOverlays(target)"));
+    }
+
+    @Test
+    public void classWithRuntimePermissionsOnlyHasNoActivityResult() throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, new String[]{
+                "com/example/CameraActivity.java",
+                "package com.example;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "@RuntimePermissions\n"
+                        + "public class CameraActivity extends android.app.Activity {\n"
+                        + "    @NeedsPermission(\"android.permission.CAMERA\") void camera() {}\n"
+                        + "}\n",
+        });
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        String dispatcher = compilation.generated("com/example/CameraActivityPermissionsDispatcher.java");
+        assertFalse(dispatcher, dispatcher.contains("onActivityResult"));
+    }
+
+    @Test
+    public void generatedCodeCompiles() throws IOException {
+        Compilation compilation = Compilation.compileFully(temporaryFolder, new String[]{
+                "com/example/MixedActivity.java",
+                "package com.example;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "import org.jokar.permissiondispatcher.library.PermissionRequest;\n"
+                        + "@RuntimePermissions\n"
+                        + "public class MixedActivity extends android.app.Activity {\n"
+                        + "    @NeedsPermission(\"android.permission.SYSTEM_ALERT_WINDOW\") void overlay() {}\n"
+                        + "    @OnPermissionDenied(\"android.permission.SYSTEM_ALERT_WINDOW\") void overlayDenied() {}\n"
+                        + "    @NeedsPermission(\"android.permission.CAMERA\") void camera(String url) {}\n"
+                        + "    @OnShowRationale(\"android.permission.CAMERA\") void cameraRationale(PermissionRequest request) {}\n"
+                        + "    @OnNeverAskAgain(\"android.permission.CAMERA\") void cameraNeverAsk() {}\n"
+                        + "    @NeedsPermission({\"android.permission.READ_CONTACTS\", \"android.permission.WRITE_CONTACTS\"}) void contacts(int count, java.util.List<String> names) {}\n"
+                        + "    @OnPermissionDenied({\"android.permission.READ_CONTACTS\", \"android.permission.WRITE_CONTACTS\"}) void contactsDenied() {}\n"
+                        + "}\n",
+                "com/example/ItemFragment.java",
+                "package com.example;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "@RuntimePermissions\n"
+                        + "public class ItemFragment<T> extends android.support.v4.app.Fragment {\n"
+                        + "    @NeedsPermission(\"android.permission.ACCESS_FINE_LOCATION\") void locate(T item, long time) {}\n"
+                        + "    @OnNeverAskAgain(\"android.permission.ACCESS_FINE_LOCATION\") void locateNeverAsk() {}\n"
+                        + "    @NeedsPermission(\"android.permission.WRITE_SETTINGS\") void settings() {}\n"
+                        + "}\n",
+        });
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+    }
+}
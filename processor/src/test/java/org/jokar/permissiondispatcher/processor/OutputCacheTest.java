@@ -0,0 +1,103 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the cache set with {@link ProcessorOptions#CACHE_DIR} replays the dispatchers of
+ * unchanged classes and regenerates the others.
+ */
+public class OutputCacheTest {
+
+    private static final String DISPATCHER = "com/example/CameraActivityPermissionsDispatcher.java";
+
+    private static final String[] SOURCES = {
+            "com/example/CameraActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class CameraActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void camera() {}\n"
+                    + "}\n",
+    };
+
+    private static final String[] CHANGED_SOURCES = {
+            "com/example/CameraActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class CameraActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void camera(String url) {}\n"
+                    + "}\n",
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void unchangedClassIsReplayed() throws IOException {
+        String cacheDir = "-A" + ProcessorOptions.CACHE_DIR + "=" + temporaryFolder.newFolder("cache").getPath();
+        Compilation first = compile(SOURCES, cacheDir);
+        assertTrue(first.notes().toString(), first.notes().contains("PermissionsDispatcher cache: 0 hits, 1 misses"));
+
+        Compilation second = compile(SOURCES, cacheDir);
+        assertTrue(second.notes().toString(), second.notes().contains("PermissionsDispatcher cache: 1 hits, 0 misses"));
+        assertEquals(first.generated(DISPATCHER), second.generated(DISPATCHER));
+    }
+
+    @Test
+    public void replayedSourceComesFromTheCache() throws IOException {
+        File cache = temporaryFolder.newFolder("cache");
+        String cacheDir = "-A" + ProcessorOptions.CACHE_DIR + "=" + cache.getPath();
+        compile(SOURCES, cacheDir);
+        File[] entries = cache.listFiles();
+        assertNotNull(entries);
+        assertEquals(1, entries.length);
+        String marked = new String(Files.readAllBytes(entries[0].toPath()), StandardCharsets.UTF_8) + "// cached\n";
+        Files.write(entries[0].toPath(), marked.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(marked, compile(SOURCES, cacheDir).generated(DISPATCHER));
+    }
+
+    @Test
+    public void changedClassOrOptionsMiss() throws IOException {
+        String cacheDir = "-A" + ProcessorOptions.CACHE_DIR + "=" + temporaryFolder.newFolder("cache").getPath();
+        compile(SOURCES, cacheDir);
+
+        Compilation changed = compile(CHANGED_SOURCES, cacheDir);
+        assertTrue(changed.notes().toString(), changed.notes().contains("PermissionsDispatcher cache: 0 hits, 1 misses"));
+        assertTrue(changed.generated(DISPATCHER), changed.generated(DISPATCHER).contains("String url"));
+
+        Compilation traced = compile(SOURCES, cacheDir, "-A" + ProcessorOptions.TRACE + "=true");
+        assertTrue(traced.notes().toString(), traced.notes().contains("PermissionsDispatcher cache: 0 hits, 1 misses"));
+        assertTrue(traced.generated(DISPATCHER), traced.generated(DISPATCHER).contains("Trace.beginSection("));
+    }
+
+    @Test
+    public void replayedTracedDispatcherCompiles() throws IOException {
+        String cacheDir = "-A" + ProcessorOptions.CACHE_DIR + "=" + temporaryFolder.newFolder("cache").getPath();
+        String trace = "-A" + ProcessorOptions.TRACE + "=true";
+        compile(CHANGED_SOURCES, cacheDir, trace);
+
+        Compilation replayed = Compilation.compileFully(temporaryFolder, CHANGED_SOURCES, cacheDir, trace);
+        assertTrue(replayed.errors().toString(), replayed.succeeded());
+        assertTrue(replayed.notes().toString(), replayed.notes().contains("PermissionsDispatcher cache: 1 hits, 0 misses"));
+        assertTrue(replayed.generated(DISPATCHER), replayed.generated(DISPATCHER).contains("Trace.endSection();"));
+    }
+
+    private Compilation compile(String[] sources, String... options) throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, sources, options);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        return compilation;
+    }
+}
@@ -0,0 +1,88 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the permission registry generated with {@link ProcessorOptions#REGISTRY} and the
+ * bitmask checks of the dispatchers using it.
+ */
+public class PermissionRegistryTest {
+
+    private static final String REGISTRY = "-A" + ProcessorOptions.REGISTRY + "=com.example.Registry";
+
+    private static final String[] SOURCES = {
+            "com/example/ContactsActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class ContactsActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission({\"android.permission.WRITE_CONTACTS\", \"android.permission.READ_CONTACTS\"}) void contacts() {}\n"
+                    + "    @NeedsPermission(\"android.permission.WRITE_SETTINGS\") void settings() {}\n"
+                    + "}\n",
+            "com/example/CameraActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class CameraActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void camera() {}\n"
+                    + "}\n",
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void permissionsOfTheModuleGetSortedBits() throws IOException {
+        Compilation compilation = compile(REGISTRY);
+        String registry = compilation.generated("com/example/Registry.java");
+        assertTrue(registry, registry.contains("public static final long CAMERA = 1L << 0;"));
+        assertTrue(registry, registry.contains("public static final long READ_CONTACTS = 1L << 1;"));
+        assertTrue(registry, registry.contains("public static final long WRITE_CONTACTS = 1L << 2;"));
+        assertTrue(registry, registry.contains("public static final long WRITE_SETTINGS = 1L << 3;"));
+        // WRITE_SETTINGS only exists from 23 on
+        assertTrue(registry, registry.contains("new PermissionState(0x7L | (Build.VERSION.SDK_INT >= 23 ? 0x8L : 0L), "));
+    }
+
+    @Test
+    public void dispatchersCheckMasks() throws IOException {
+        String dispatcher = compile(REGISTRY).generated("com/example/ContactsActivityPermissionsDispatcher.java");
+        assertTrue(dispatcher, dispatcher.contains("Registry.STATE.hasSelfPermissions(target, Registry.READ_CONTACTS | Registry.WRITE_CONTACTS)"));
+        assertTrue(dispatcher, dispatcher.contains("Registry.STATE.verifyPermissions(Registry.READ_CONTACTS | Registry.WRITE_CONTACTS, grantResults)"));
+    }
+
+    @Test
+    public void existingMaskIsFoldedFromMinSdk() throws IOException {
+        String registry = compile(REGISTRY, "-A" + ProcessorOptions.MIN_SDK + "=23").generated("com/example/Registry.java");
+        assertTrue(registry, registry.contains("new PermissionState(0xfL, "));
+        assertFalse(registry, registry.contains("SDK_INT"));
+    }
+
+    @Test
+    public void withoutRegistryDispatchersCheckStrings() throws IOException {
+        Compilation compilation = compile();
+        assertFalse(compilation.generatedFiles().contains("com/example/Registry.java"));
+        String dispatcher = compilation.generated("com/example/CameraActivityPermissionsDispatcher.java");
+        assertTrue(dispatcher, dispatcher.contains("PermissionUtils.hasExistingSelfPermissions(target, PERMISSION_CAMERA)"));
+    }
+
+    @Test
+    public void registryAndDispatchersCompile() throws IOException {
+        Compilation compilation = Compilation.compileFully(temporaryFolder, SOURCES, REGISTRY);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        compilation = Compilation.compileFully(temporaryFolder, SOURCES, REGISTRY, "-A" + ProcessorOptions.MIN_SDK + "=23");
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+    }
+
+    private Compilation compile(String... options) throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, SOURCES, options);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        return compilation;
+    }
+}
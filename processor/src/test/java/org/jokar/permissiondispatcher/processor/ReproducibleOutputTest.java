@@ -0,0 +1,172 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the processor on the same sources in different orders and checks that every generated
+ * file, including the content manifest, is byte-identical.
+ */
+public class ReproducibleOutputTest {
+
+    /**
+     * Empty stand-ins for the Android and library types the sources and the generated code refer
+     * to. Only annotation processing runs, so their members are never looked up.
+     */
+    private static final String[] STUB_CLASSES = {
+            "android.app.Activity",
+            "android.content.Intent",
+            "android.net.Uri",
+            "android.os.Build",
+            "android.provider.Settings",
+            "android.support.v4.app.ActivityCompat",
+            "org.jokar.permissiondispatcher.library.PermissionState",
+            "org.jokar.permissiondispatcher.library.PermissionUtils",
+    };
+
+    private static final String[] STUB_INTERFACES = {
+            "org.jokar.permissiondispatcher.library.GrantableRequest",
+            "org.jokar.permissiondispatcher.library.PermissionRequest",
+    };
+
+    private static final String[] SOURCES = {
+            "com/example/b/SecondActivity.java",
+            "package com.example.b;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class SecondActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.WRITE_SETTINGS\") void settings() {}\n"
+                    + "    @NeedsPermission({\"android.permission.READ_CONTACTS\", \"android.permission.CAMERA\"}) void contacts() {}\n"
+                    + "    @OnPermissionDenied({\"android.permission.CAMERA\", \"android.permission.READ_CONTACTS\"}) void denied() {}\n"
+                    + "}\n",
+            "com/example/a/FirstActivity.java",
+            "package com.example.a;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class FirstActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void camera(String url) {}\n"
+                    + "    @OnNeverAskAgain(\"android.permission.CAMERA\") void neverAsk() {}\n"
+                    + "    @NeedsPermission(\"android.permission.ACCESS_FINE_LOCATION\") void locate() {}\n"
+                    + "}\n",
+    };
+
+    private static final String[] OPTIONS = {
+            "-A" + ProcessorOptions.MANIFEST + "=true",
+            "-A" + ProcessorOptions.INDEX + "=com.example.PermissionsDispatcherIndex",
+            "-A" + ProcessorOptions.REGISTRY + "=com.example.PermissionsDispatcherRegistry",
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void sameSourcesInAnyOrderGiveIdenticalOutput() throws IOException {
+        List<File> sources = writeSources(temporaryFolder.newFolder("src"));
+        Map<String, byte[]> expected = generate(sources);
+        assertTrue(expected.containsKey("org/jokar/permissiondispatcher/generated.sha256"));
+        assertTrue(expected.containsKey("com/example/PermissionsDispatcherIndex.java"));
+
+        Collections.reverse(sources);
+        assertSameOutput(expected, generate(sources));
+
+        Collections.rotate(sources, 1);
+        assertSameOutput(expected, generate(sources, "-A" + ProcessorOptions.PARALLEL + "=true"));
+    }
+
+    private static void assertSameOutput(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> file : expected.entrySet()) {
+            assertArrayEquals(file.getKey(), file.getValue(), actual.get(file.getKey()));
+        }
+    }
+
+    private static List<File> writeSources(File directory) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (String stub : STUB_CLASSES) {
+            files.add(writeStub(directory, stub, "class"));
+        }
+        for (String stub : STUB_INTERFACES) {
+            files.add(writeStub(directory, stub, "interface"));
+        }
+        for (int i = 0; i < SOURCES.length; i += 2) {
+            files.add(writeSource(directory, SOURCES[i], SOURCES[i + 1]));
+        }
+        return files;
+    }
+
+    private static File writeStub(File directory, String qualifiedName, String kind) throws IOException {
+        int dot = qualifiedName.lastIndexOf('.');
+        return writeSource(directory, qualifiedName.replace('.', '/') + ".java",
+                "package " + qualifiedName.substring(0, dot) + ";\n"
+                        + "public " + kind + " " + qualifiedName.substring(dot + 1) + " {}\n");
+    }
+
+    private static File writeSource(File directory, String path, String source) throws IOException {
+        File file = new File(directory, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Runs the processor alone, without compiling, and returns the generated files by path.
+     */
+    private Map<String, byte[]> generate(List<File> sources, String... extraOptions) throws IOException {
+        File output = temporaryFolder.newFolder();
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+                "-proc:only",
+                "-processor", PermissionsProcessor.class.getName(),
+                "-classpath", System.getProperty("java.class.path"),
+                "-s", output.getPath()));
+        arguments.addAll(Arrays.asList(OPTIONS));
+        arguments.addAll(Arrays.asList(extraOptions));
+        for (File source : sources) {
+            arguments.add(source.getPath());
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, arguments.toArray(new String[0])));
+
+        Map<String, byte[]> files = new TreeMap<>();
+        Path root = output.toPath();
+        List<Path> paths = new ArrayList<>();
+        collectFiles(root, paths);
+        for (Path path : paths) {
+            files.put(root.relativize(path).toString().replace(File.separatorChar, '/'), Files.readAllBytes(path));
+        }
+        return files;
+    }
+
+    private static void collectFiles(Path directory, List<Path> files) throws IOException {
+        File[] children = directory.toFile().listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectFiles(child.toPath(), files);
+            } else {
+                files.add(child.toPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which methods get a {@code PermissionRequest} class, and how the others keep their
+ * pending arguments.
+ */
+public class RequestClassTest {
+
+    private static final String[] SOURCES = {
+            "com/example/MinActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class MinActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void shoot(String url, int count) {}\n"
+                    + "    @OnPermissionDenied(\"android.permission.CAMERA\") void deniedCamera() {}\n"
+                    + "    @NeedsPermission(\"android.permission.READ_CONTACTS\") void contacts() {}\n"
+                    + "    @NeedsPermission(\"android.permission.ACCESS_FINE_LOCATION\") void locate(String where) {}\n"
+                    + "    @OnShowRationale(\"android.permission.ACCESS_FINE_LOCATION\") void rationale(org.jokar.permissiondispatcher.library.PermissionRequest request) {}\n"
+                    + "}\n",
+            "com/example/GenericActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class GenericActivity<T> extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void shoot(T value) {}\n"
+                    + "}\n",
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void methodsWithoutRationaleKeepTheirArgumentsInOneArray() throws IOException {
+        String dispatcher = generate("com/example/MinActivityPermissionsDispatcher.java");
+        assertFalse(dispatcher, dispatcher.contains("class ShootPermissionRequest"));
+        assertFalse(dispatcher, dispatcher.contains("class ContactsPermissionRequest"));
+        assertTrue(dispatcher, dispatcher.contains("private static Object[] PENDING_SHOOT;"));
+        assertTrue(dispatcher, dispatcher.contains("PENDING_SHOOT = new Object[]{url, count};"));
+        assertTrue(dispatcher, dispatcher.contains("target.shoot((String) PENDING_SHOOT[0], (Integer) PENDING_SHOOT[1]);"));
+        assertFalse(dispatcher, dispatcher.contains("PENDING_CONTACTS"));
+        assertFalse(dispatcher, dispatcher.contains("PENDING_SHOOT_URL"));
+    }
+
+    @Test
+    public void pendingArgumentsAreClearedOnEveryResultPath() throws IOException {
+        String dispatcher = generate("com/example/MinActivityPermissionsDispatcher.java");
+        String shootCase = dispatcher.substring(dispatcher.indexOf("case REQUEST_SHOOT:"),
+                dispatcher.indexOf("case REQUEST_CONTACTS:"));
+        // Once before the return for a target SDK below 23, once after the grant check
+        assertEquals(shootCase, 2, count(shootCase, "PENDING_SHOOT = null;"));
+        assertTrue(shootCase, shootCase.indexOf("PENDING_SHOOT = null;") < shootCase.indexOf("return;"));
+
+        String locateCase = dispatcher.substring(dispatcher.indexOf("case REQUEST_LOCATE:"));
+        locateCase = locateCase.substring(0, locateCase.indexOf("break;"));
+        assertEquals(locateCase, 2, count(locateCase, "PENDING_LOCATE = null;"));
+    }
+
+    @Test
+    public void rationaleAndGenericMethodsKeepTheirRequestClass() throws IOException {
+        String dispatcher = generate("com/example/MinActivityPermissionsDispatcher.java");
+        assertTrue(dispatcher, dispatcher.contains("class LocatePermissionRequest"));
+        assertTrue(dispatcher, dispatcher.contains("private static GrantableRequest PENDING_LOCATE;"));
+
+        String generic = generate("com/example/GenericActivityPermissionsDispatcher.java");
+        assertTrue(generic, generic.contains("class ShootPermissionRequest"));
+        assertFalse(generic, generic.contains("Object[]"));
+    }
+
+    @Test
+    public void pendingCastsCompileWithoutWarnings() throws IOException {
+        Compilation compilation = Compilation.compileFully(temporaryFolder, new String[]{
+                SOURCES[0], SOURCES[1],
+                "com/example/ListActivity.java",
+                "package com.example;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "@RuntimePermissions\n"
+                        + "public class ListActivity extends android.app.Activity {\n"
+                        + "    @NeedsPermission(\"android.permission.READ_CONTACTS\") void pick(java.util.List<String> items) {}\n"
+                        + "}\n",
+        }, "-Xlint:unchecked");
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        assertEquals(Collections.emptyList(), compilation.warnings());
+    }
+
+    private String generate(String path) throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, SOURCES);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        return compilation.generated(path);
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + part.length())) {
+            count++;
+        }
+        return count;
+    }
+}
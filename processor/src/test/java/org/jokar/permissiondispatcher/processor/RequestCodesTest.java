@@ -0,0 +1,90 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the module-wide request code ranges set with {@link ProcessorOptions#REQUEST_CODES}.
+ */
+public class RequestCodesTest {
+
+    private static final String REQUEST_CODES_FILE = "org/jokar/permissiondispatcher/requestCodes.json";
+
+    private static final String[] SOURCES = {
+            "com/example/HostActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class HostActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void camera() {}\n"
+                    + "    @NeedsPermission(\"android.permission.READ_CONTACTS\") void contacts() {}\n"
+                    + "}\n",
+            "com/example/ChildFragment.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class ChildFragment extends android.support.v4.app.Fragment {\n"
+                    + "    @NeedsPermission(\"android.permission.ACCESS_FINE_LOCATION\") void locate() {}\n"
+                    + "}\n",
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void dispatchersGetDistinctCodesFromTheRange() throws IOException {
+        // Classes are processed in the order of their names
+        Compilation compilation = compile("-A" + ProcessorOptions.REQUEST_CODES + "=1000-1999");
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        String host = compilation.generated("com/example/HostActivityPermissionsDispatcher.java");
+        String child = compilation.generated("com/example/ChildFragmentPermissionsDispatcher.java");
+        assertTrue(host, host.contains("REQUEST_CAMERA = 1001;"));
+        assertTrue(host, host.contains("REQUEST_CONTACTS = 1002;"));
+        assertTrue(child, child.contains("REQUEST_LOCATE = 1000;"));
+
+        String json = compilation.generated(REQUEST_CODES_FILE);
+        assertTrue(json, json.contains("\"first\": 1000,"));
+        assertTrue(json, json.contains("\"last\": 1999,"));
+        assertTrue(json, json.contains("{\"code\": 1000, \"target\": \"com.example.ChildFragment\", "
+                + "\"dispatcher\": \"com.example.ChildFragmentPermissionsDispatcher\", \"method\": \"locate\"}"));
+    }
+
+    @Test
+    public void withoutRangeEveryDispatcherNumbersFromZero() throws IOException {
+        Compilation compilation = compile();
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        String child = compilation.generated("com/example/ChildFragmentPermissionsDispatcher.java");
+        assertTrue(child, child.contains("REQUEST_LOCATE = 0;"));
+        assertFalse(compilation.generatedFiles().contains(REQUEST_CODES_FILE));
+    }
+
+    @Test
+    public void exhaustedRangeIsReported() throws IOException {
+        Compilation compilation = compile("-A" + ProcessorOptions.REQUEST_CODES + "=10-11");
+        assertFalse(compilation.succeeded());
+        assertEquals(compilation.errors().toString(), 1, compilation.errors().size());
+        assertTrue(compilation.errors().get(0), compilation.errors().get(0).startsWith("No request codes left for"));
+    }
+
+    @Test
+    public void rangePastSixteenBitsIsInvalid() throws IOException {
+        for (String range : new String[]{"10-65536", "9-5", "-1", "abc"}) {
+            Compilation compilation = compile("-A" + ProcessorOptions.REQUEST_CODES + "=" + range);
+            assertFalse(range, compilation.succeeded());
+            assertTrue(range + ": " + compilation.errors(),
+                    compilation.errors().get(0).startsWith(ProcessorOptions.REQUEST_CODES + " must be"));
+        }
+        assertTrue(compile("-A" + ProcessorOptions.REQUEST_CODES + "=65530-65535").succeeded());
+    }
+
+    private Compilation compile(String... options) throws IOException {
+        return Compilation.compile(temporaryFolder, SOURCES, options);
+    }
+}
@@ -0,0 +1,125 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that classes referring to types another processor generates later are deferred to the
+ * round those types exist in, and that the ones never resolved are reported.
+ */
+public class RoundDeferralTest {
+
+    private static final String INDEX = "-A" + ProcessorOptions.INDEX + "=com.example.Index";
+
+    private static final String[] SOURCES = {
+            "com/example/LateActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class LateActivity extends GeneratedActivity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void camera(GeneratedValue value) {}\n"
+                    + "}\n",
+            "com/example/EarlyActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class EarlyActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void camera() {}\n"
+                    + "}\n",
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void classIsGeneratedOnceItsTypesExist() throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder,
+                Collections.singletonList(new GeneratingProcessor()), SOURCES, INDEX);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        String dispatcher = compilation.generated("com/example/LateActivityPermissionsDispatcher.java");
+        assertTrue(dispatcher, dispatcher.contains("static void cameraWithCheck(LateActivity target, GeneratedValue value)"));
+        assertTrue(compilation.generatedFiles().contains("com/example/EarlyActivityPermissionsDispatcher.java"));
+
+        // The module-wide index waits for the deferred class
+        String index = compilation.generated("com/example/Index.java");
+        assertTrue(index, index.contains("LateActivity"));
+        assertTrue(index, index.contains("EarlyActivity"));
+    }
+
+    @Test
+    public void deferredDispatcherAndIndexCompile() throws IOException {
+        Compilation compilation = Compilation.compileFully(temporaryFolder,
+                Collections.singletonList(new GeneratingProcessor()), SOURCES, INDEX);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+    }
+
+    @Test
+    public void classWithTypesNeverResolvedIsReported() throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, SOURCES, INDEX);
+        assertFalse(compilation.succeeded());
+        int reported = 0;
+        for (String error : compilation.errors()) {
+            if (error.equals("com.example.LateActivity refers to types that could not be resolved, no dispatcher was generated")) {
+                reported++;
+            }
+        }
+        assertEquals(compilation.errors().toString(), 1, reported);
+        assertFalse(compilation.generatedFiles().contains("com/example/LateActivityPermissionsDispatcher.java"));
+        assertTrue(compilation.generatedFiles().contains("com/example/EarlyActivityPermissionsDispatcher.java"));
+    }
+
+    /**
+     * Stands for a processor like data binding, generating types the annotated classes refer to
+     * in the first round.
+     */
+    private static final class GeneratingProcessor extends AbstractProcessor {
+
+        private boolean generated;
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Collections.singleton("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            if (generated) {
+                return false;
+            }
+            generated = true;
+            write("com.example.GeneratedActivity",
+                    "package com.example;\npublic class GeneratedActivity extends android.app.Activity {}\n");
+            write("com.example.GeneratedValue", "package com.example;\npublic class GeneratedValue {}\n");
+            return false;
+        }
+
+        private void write(String name, String source) {
+            try (Writer writer = processingEnv.getFiler().createSourceFile(name).openWriter()) {
+                writer.write(source);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.jokar.permissiondispatcher.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how the permission arrays of the generated code are folded for the configured SDK levels.
+ */
+public class SdkFoldingTest {
+
+    private static final String DISPATCHER = "com/example/StorageActivityPermissionsDispatcher.java";
+
+    private static final String[] SOURCES = {
+            "com/example/StorageActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class StorageActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission({\"android.permission.READ_EXTERNAL_STORAGE\", \"android.permission.CAMERA\"}) void pick() {}\n"
+                    + "}\n",
+    };
+
+    private static final String[] CAMERA_SOURCES = {
+            "com/example/CameraActivity.java",
+            "package com.example;\n"
+                    + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                    + "@RuntimePermissions\n"
+                    + "public class CameraActivity extends android.app.Activity {\n"
+                    + "    @NeedsPermission(\"android.permission.CAMERA\") void camera() {}\n"
+                    + "    @NeedsPermission(\"android.permission.WRITE_SETTINGS\") void settings() {}\n"
+                    + "}\n",
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void retiredPermissionIsKeptWithoutTargetSdk() throws IOException {
+        String dispatcher = generate("-A" + ProcessorOptions.MIN_SDK + "=33");
+        assertTrue(dispatcher, dispatcher.contains("\"android.permission.READ_EXTERNAL_STORAGE\""));
+        assertFalse(dispatcher, dispatcher.contains("SDK_INT <= 32"));
+    }
+
+    @Test
+    public void retiredPermissionIsKeptForTargetSdkBelowItsRetirement() throws IOException {
+        String dispatcher = generate("-A" + ProcessorOptions.MIN_SDK + "=33", "-A" + ProcessorOptions.TARGET_SDK + "=32");
+        assertTrue(dispatcher, dispatcher.contains("\"android.permission.READ_EXTERNAL_STORAGE\""));
+        assertFalse(dispatcher, dispatcher.contains("SDK_INT <= 32"));
+
+        dispatcher = generate("-A" + ProcessorOptions.TARGET_SDK + "=30");
+        assertTrue(dispatcher, dispatcher.contains("\"android.permission.READ_EXTERNAL_STORAGE\""));
+        assertFalse(dispatcher, dispatcher.contains("SDK_INT <= 32"));
+    }
+
+    @Test
+    public void retiredPermissionIsCheckedOrDroppedForTargetSdkPastItsRetirement() throws IOException {
+        String dispatcher = generate("-A" + ProcessorOptions.TARGET_SDK + "=33");
+        assertTrue(dispatcher, dispatcher.contains("Build.VERSION.SDK_INT <= 32"));
+
+        dispatcher = generate("-A" + ProcessorOptions.MIN_SDK + "=33", "-A" + ProcessorOptions.TARGET_SDK + "=33");
+        assertFalse(dispatcher, dispatcher.contains("READ_EXTERNAL_STORAGE"));
+        assertTrue(dispatcher, dispatcher.contains("\"android.permission.CAMERA\""));
+    }
+
+    @Test
+    public void targetSdkLookupIsKeptWithoutTargetSdk() throws IOException {
+        String dispatcher = generateCamera();
+        assertTrue(dispatcher, dispatcher.contains("PermissionUtils.getTargetSdkVersion(target) < 23 && "));
+        assertTrue(dispatcher, dispatcher.contains("Build.VERSION.SDK_INT >= 23"));
+    }
+
+    @Test
+    public void preMarshmallowFallbackIsDroppedForTargetSdk23() throws IOException {
+        String dispatcher = generateCamera("-A" + ProcessorOptions.TARGET_SDK + "=23");
+        assertFalse(dispatcher, dispatcher.contains("getTargetSdkVersion"));
+    }
+
+    @Test
+    public void preMarshmallowFallbackIsAlwaysTakenForOlderTargetSdk() throws IOException {
+        String dispatcher = generateCamera("-A" + ProcessorOptions.TARGET_SDK + "=22");
+        assertFalse(dispatcher, dispatcher.contains("getTargetSdkVersion"));
+        assertTrue(dispatcher, dispatcher.contains("if (!PermissionUtils.hasExistingSelfPermissions(target, PERMISSION_CAMERA))"));
+    }
+
+    @Test
+    public void sdkChecksAreDroppedFromMinSdk() throws IOException {
+        String dispatcher = generateCamera("-A" + ProcessorOptions.MIN_SDK + "=23");
+        assertFalse(dispatcher, dispatcher.contains("getTargetSdkVersion"));
+        assertFalse(dispatcher, dispatcher.contains("SDK_INT"));
+        assertTrue(dispatcher, dispatcher.contains("PERMISSION_SETTINGS = new String[]{\"android.permission.WRITE_SETTINGS\"};"));
+    }
+
+    @Test
+    public void foldedCodeCompiles() throws IOException {
+        String[] sources = new String[SOURCES.length + CAMERA_SOURCES.length];
+        System.arraycopy(SOURCES, 0, sources, 0, SOURCES.length);
+        System.arraycopy(CAMERA_SOURCES, 0, sources, SOURCES.length, CAMERA_SOURCES.length);
+        String[][] options = {
+                {},
+                {"-A" + ProcessorOptions.TARGET_SDK + "=33"},
+                {"-A" + ProcessorOptions.TARGET_SDK + "=22"},
+                {"-A" + ProcessorOptions.MIN_SDK + "=23", "-A" + ProcessorOptions.TARGET_SDK + "=33"},
+                {"-A" + ProcessorOptions.MIN_SDK + "=33", "-A" + ProcessorOptions.TARGET_SDK + "=33"},
+        };
+        for (String[] option : options) {
+            Compilation compilation = Compilation.compileFully(temporaryFolder, sources, option);
+            assertTrue(compilation.errors().toString(), compilation.succeeded());
+        }
+    }
+
+    private String generate(String... options) throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, SOURCES, options);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        return compilation.generated(DISPATCHER);
+    }
+
+    private String generateCamera(String... options) throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, CAMERA_SOURCES, options);
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        return compilation.generated("com/example/CameraActivityPermissionsDispatcher.java");
+    }
+}
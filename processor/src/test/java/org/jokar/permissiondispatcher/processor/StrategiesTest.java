@@ -0,0 +1,150 @@
+package org.jokar.permissiondispatcher.processor;
+
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+
+import org.jokar.permissiondispatcher.processor.helper.SensitivePermissionInterface;
+import org.jokar.permissiondispatcher.processor.helper.SensitivePermissions;
+import org.jokar.permissiondispatcher.processor.helper.WriteSettingsHelper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks how the special-access permission strategies are loaded and used.
+ */
+public class StrategiesTest {
+
+    private static final String EXTRA_PERMISSION = "com.example.permission.EXTRA";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void builtInStrategiesAreLoadedWithoutServicesFile() {
+        // The bootstrap class loader sees no META-INF/services file of this project
+        SensitivePermissions permissions = SensitivePermissions.load(new URLClassLoader(new URL[0], null));
+        assertTrue(permissions.isSensitive(SensitivePermissions.WRITE_SETTINGS));
+        assertTrue(permissions.isSensitive(SensitivePermissions.SYSTEM_ALERT_WINDOW));
+        assertTrue(permissions.isSensitive(SensitivePermissions.REQUEST_INSTALL_PACKAGES));
+        assertTrue(permissions.isSensitive(SensitivePermissions.MANAGE_EXTERNAL_STORAGE));
+        assertTrue(permissions.isSensitive(SensitivePermissions.PACKAGE_USAGE_STATS));
+        assertTrue(permissions.isSensitive(SensitivePermissions.REQUEST_IGNORE_BATTERY_OPTIMIZATIONS));
+        assertFalse(permissions.isSensitive("android.permission.CAMERA"));
+    }
+
+    @Test
+    public void extraStrategiesAreLoadedFromServicesFile() throws IOException {
+        SensitivePermissions permissions = SensitivePermissions.load(servicesLoader(ExtraHelper.class));
+        assertTrue(permissions.isSensitive(EXTRA_PERMISSION));
+        assertTrue(permissions.isSensitive(SensitivePermissions.WRITE_SETTINGS));
+        assertTrue(permissions.getKey(), permissions.getKey().contains(ExtraHelper.class.getName()));
+    }
+
+    @Test
+    public void builtInStrategyListedInServicesFileIsNotDuplicated() throws IOException {
+        SensitivePermissions permissions = SensitivePermissions.load(servicesLoader(WriteSettingsHelper.class));
+        assertSame(WriteSettingsHelper.class,
+                permissions.get(PermissionKey.of(SensitivePermissions.WRITE_SETTINGS)).getClass());
+    }
+
+    @Test
+    public void secondStrategyForSamePermissionIsRejected() throws IOException {
+        try {
+            SensitivePermissions.load(servicesLoader(OtherWriteSettingsHelper.class));
+            fail();
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(OtherWriteSettingsHelper.class.getName()));
+        }
+    }
+
+    @Test
+    public void specialAccessPermissionIsRequestedThroughSettings() throws IOException {
+        Compilation compilation = Compilation.compile(temporaryFolder, new String[]{
+                "com/example/OverlayActivity.java",
+                "package com.example;\n"
+                        + "import org.jokar.permissiondispatcher.annotation.*;\n"
+                        + "@RuntimePermissions\n"
+                        + "public class OverlayActivity extends android.app.Activity {\n"
+                        + "    @NeedsPermission(\"android.permission.SYSTEM_ALERT_WINDOW\") void overlay() {}\n"
+                        + "}\n",
+        });
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        String dispatcher = compilation.generated("com/example/OverlayActivityPermissionsDispatcher.java");
+        assertTrue(dispatcher, dispatcher.contains("Settings.canDrawOverlays(target)"));
+        assertTrue(dispatcher, dispatcher.contains("startActivityForResult"));
+        assertTrue(dispatcher, dispatcher.contains("static void onActivityResult("));
+        assertFalse(dispatcher, dispatcher.contains("ActivityCompat.requestPermissions"));
+    }
+
+    /**
+     * A class loader whose only services file lists the given strategy.
+     */
+    private ClassLoader servicesLoader(Class<? extends SensitivePermissionInterface> helper) throws IOException {
+        File root = temporaryFolder.newFolder();
+        File services = new File(root, "META-INF/services/" + SensitivePermissionInterface.class.getName());
+        Files.createDirectories(services.getParentFile().toPath());
+        Files.write(services.toPath(), (helper.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+        return new URLClassLoader(new URL[]{root.toURI().toURL()}, new ServicesHidingClassLoader());
+    }
+
+    /**
+     * Delegates classes to the test class loader but hides its resources, so only the services
+     * file of the test is found.
+     */
+    private static final class ServicesHidingClassLoader extends ClassLoader {
+
+        ServicesHidingClassLoader() {
+            super(StrategiesTest.class.getClassLoader());
+        }
+
+        @Override
+        public URL getResource(String name) {
+            return null;
+        }
+
+        @Override
+        public Enumeration<URL> getResources(String name) {
+            return Collections.emptyEnumeration();
+        }
+    }
+
+    public static class ExtraHelper implements SensitivePermissionInterface {
+
+        @Override
+        public String getPermission() {
+            return EXTRA_PERMISSION;
+        }
+
+        @Override
+        public void addHasSelfPermissionsCondition(MethodSpec.Builder builder, String activityVar, CodeBlock permissions) {
+            builder.beginControlFlow("if (true)");
+        }
+
+        @Override
+        public void addRequestPermissionsStatement(MethodSpec.Builder builder, String activityVar, String requestCodeField) {
+        }
+    }
+
+    public static class OtherWriteSettingsHelper extends ExtraHelper {
+
+        @Override
+        public String getPermission() {
+            return SensitivePermissions.WRITE_SETTINGS;
+        }
+    }
+}